@@ -0,0 +1,167 @@
+package com.teieditor;
+
+import com.teieditor.controller.EditorController;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Synthetic TEI documents of any size, built from the structure of the editor's default template.
+ *
+ * The template's header, front and back matter are kept as they are; its body chapters are
+ * repeated, each copy renumbered and its words swapped for others drawn from the template,
+ * until the document reaches the requested size. The markup itself is never altered, so a
+ * generated document is exactly as valid as the template, and the same size and seed always
+ * give the same document.
+ *
+ * Run as a program it writes a corpus to disk:
+ * <pre>gradle teiCorpus -PcorpusArgs=DIR,COUNT,SIZE_KB[,SEED]</pre>
+ */
+public final class TeiCorpusGenerator {
+
+    // The template's chapters don't contain nested divs, so the first </div> closes each one
+    private static final Pattern CHAPTER = Pattern.compile("(?s)\\s*<div type=\"chapter\" n=\"\\d+\">.*?</div>");
+    private static final Pattern TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern WORD = Pattern.compile("\\p{L}+");
+
+    /**
+     * A template chapter split into what's copied verbatim and what's reworded.
+     *
+     * @param startTag the div start tag up to its n value (the number is filled in per copy)
+     * @param parts    alternately text (even indexes) and markup (odd indexes), after the start tag
+     */
+    private record Chapter(String startTag, List<String> parts) { }
+
+    private final String prefix;
+    private final String suffix;
+    private final List<Chapter> chapters = new ArrayList<>();
+    private final String[] vocabulary;
+
+    public TeiCorpusGenerator() {
+        this(EditorController.DEFAULT_TEMPLATE);
+    }
+
+    /**
+     * @param template a TEI document whose body consists of {@code <div type="chapter" n="...">} elements
+     */
+    public TeiCorpusGenerator(String template) {
+        int bodyStart = template.indexOf("<body>") + "<body>".length();
+        int bodyEnd = template.indexOf("</body>");
+        if (bodyStart < "<body>".length() || bodyEnd < bodyStart) throw new IllegalArgumentException("Template has no <body>.");
+        prefix = template.substring(0, bodyStart);
+        suffix = template.substring(bodyEnd).replaceFirst("^\\s*", "\n" + indentBefore(template, bodyEnd));
+
+        TreeSet<String> words = new TreeSet<>();
+        Matcher chapter = CHAPTER.matcher(template.substring(bodyStart, bodyEnd));
+        while (chapter.find()) {
+            String source = chapter.group();
+            String startTag = source.substring(0, source.indexOf("n=\"") + 3);
+
+            List<String> parts = new ArrayList<>();
+            Matcher tag = TAG.matcher(source);
+            int textStart = source.indexOf('>', startTag.length()) + 1;
+            tag.region(textStart, source.length());
+            while (tag.find()) {
+                parts.add(source.substring(textStart, tag.start()));
+                parts.add(tag.group());
+                textStart = tag.end();
+            }
+            for (int i = 0; i < parts.size(); i += 2) {
+                Matcher word = WORD.matcher(parts.get(i));
+                while (word.find()) words.add(word.group());
+            }
+            chapters.add(new Chapter(startTag, parts));
+        }
+        if (chapters.isEmpty()) throw new IllegalArgumentException("Template has no chapters to repeat.");
+        vocabulary = words.toArray(String[]::new);
+    }
+
+    private static String indentBefore(String text, int index) {
+        int lineStart = text.lastIndexOf('\n', index) + 1;
+        return text.substring(lineStart, index).replaceAll("\\S", "");
+    }
+
+    /**
+     * A document of about {@code targetBytes} (UTF-8), never smaller than the template.
+     */
+    public String generate(long targetBytes, long seed) {
+        StringBuilder out = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, targetBytes + 4096));
+        try {
+            write(out, targetBytes, seed);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Streams a document of about {@code targetBytes} to {@code out}, so sizes beyond what
+     * fits in memory can be written to disk.
+     */
+    public void write(Appendable out, long targetBytes, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder copy = new StringBuilder(4096);
+        out.append(prefix);
+        long written = prefix.length();
+        int n = 1;
+        // The vocabulary is ASCII, so chars and bytes agree
+        do {
+            Chapter chapter = chapters.get((n - 1) % chapters.size());
+            copy.setLength(0);
+            copy.append(chapter.startTag()).append(n++).append("\">");
+            List<String> parts = chapter.parts();
+            for (int i = 0; i < parts.size(); i++) {
+                if (i % 2 == 0) reword(parts.get(i), random, copy);
+                else copy.append(parts.get(i));
+            }
+            out.append(copy);
+            written += copy.length();
+        } while (written + suffix.length() < targetBytes);
+        out.append(suffix);
+    }
+
+    // Same whitespace, punctuation and word count; different words
+    private void reword(String text, Random random, StringBuilder copy) {
+        Matcher word = WORD.matcher(text);
+        int last = 0;
+        while (word.find()) {
+            copy.append(text, last, word.start()).append(vocabulary[random.nextInt(vocabulary.length)]);
+            last = word.end();
+        }
+        copy.append(text, last, text.length());
+    }
+
+    /**
+     * Writes {@code COUNT} documents of {@code SIZE_KB} each to {@code DIR}, as tei-00001.xml and so on.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: TeiCorpusGenerator DIR COUNT SIZE_KB [SEED]");
+            System.exit(2);
+        }
+        Path dir = Path.of(args[0]);
+        int count = Integer.parseInt(args[1]);
+        long sizeBytes = Long.parseLong(args[2]) * 1024;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+
+        Files.createDirectories(dir);
+        TeiCorpusGenerator generator = new TeiCorpusGenerator();
+        long start = System.nanoTime();
+        for (int i = 1; i <= count; i++) {
+            try (Writer writer = Files.newBufferedWriter(dir.resolve(String.format("tei-%05d.xml", i)), StandardCharsets.UTF_8)) {
+                generator.write(writer, sizeBytes, seed + i);
+            }
+        }
+        System.out.printf("Wrote %d documents of %d KB to %s in %d ms%n",
+                count, sizeBytes / 1024, dir, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,118 @@
+package com.teieditor.controller;
+
+import javafx.application.Platform;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebEngine;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares the old script-literal transport with {@link VisualBridge} on multi-megabyte documents.
+ *
+ * Run with {@code gradle bridgeBenchmark} (needs a display, or Monocle for headless runs).
+ * Optional arguments: document sizes in MB (default 1 4 16).
+ *
+ * For each size it reports the median time to hand the document to a page function, and
+ * whether the text arrived intact:
+ * <ul>
+ *   <li>executeScript: the old path, escaping into a literal and compiling a script around it</li>
+ *   <li>call: one {@link netscape.javascript.JSObject#call} with the whole string</li>
+ *   <li>call (chunked): the same through {@link VisualBridge}'s chunked transfer</li>
+ * </ul>
+ */
+public class BridgeBenchmark {
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizesMb = args.length == 0 ? new int[] { 1, 4, 16 } : Arrays.stream(args).mapToInt(Integer::parseInt).toArray();
+
+        CountDownLatch done = new CountDownLatch(1);
+        Platform.startup(() -> {
+            WebEngine webEngine = new WebEngine();
+            webEngine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
+                if (newState == Worker.State.SUCCEEDED) {
+                    try {
+                        run(webEngine, sizesMb);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+            URL page = BridgeBenchmark.class.getResource("/view/visual_editor.html");
+            webEngine.load(page.toExternalForm());
+        });
+        done.await(30, TimeUnit.MINUTES);
+        Platform.exit();
+    }
+
+    private static void run(WebEngine webEngine, int[] sizesMb) {
+        // Timed runs only touch the payload's length; a checksum run afterwards checks it arrived intact
+        webEngine.executeScript("window.payloadLength = function(s) { return s.length; };"
+                + "window.payloadChecksum = function(s) {"
+                + " let h = 0; for (let i = 0; i < s.length; i++) h = (h * 31 + s.charCodeAt(i)) | 0; return s.length + ':' + h; }");
+
+        VisualBridge direct = new VisualBridge(webEngine, Integer.MAX_VALUE);
+        VisualBridge chunked = new VisualBridge(webEngine);
+        direct.attach(null);
+        chunked.attach(null);
+
+        System.out.println(String.format("%-8s %-18s %12s  %s", "SIZE", "TRANSPORT", "MEDIAN (ms)", "LOSSLESS"));
+        for (int sizeMb : sizesMb) {
+            String xml = generateDocument(sizeMb * 1024 * 1024);
+            String expected = checksum(xml);
+
+            report(sizeMb, "executeScript", expected, function -> {
+                String literal = xml.replace("\\", "\\\\").replace("'", "\\'").replace("\n", " ").replace("\r", " ");
+                return webEngine.executeScript(function + "('" + literal + "')");
+            });
+            report(sizeMb, "call", expected, function -> direct.call(function, xml));
+            report(sizeMb, "call (chunked)", expected, function -> chunked.call(function, xml));
+        }
+    }
+
+    /**
+     * @param transfer sends the document to the named page function and returns its result
+     */
+    private static void report(int sizeMb, String transport, String expected, Function<String, Object> transfer) {
+        for (int i = 0; i < WARMUP; i++) transfer.apply("payloadLength");
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            transfer.apply("payloadLength");
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        String lossless = expected.equals(transfer.apply("payloadChecksum")) ? "yes" : "no";
+        System.out.println(String.format("%-8s %-18s %12.1f  %s", sizeMb + " MB", transport, times[ITERATIONS / 2] / 1e6, lossless));
+    }
+
+    private static String checksum(String s) {
+        int h = 0;
+        for (int i = 0; i < s.length(); i++) h = h * 31 + s.charAt(i);
+        return s.length() + ":" + h;
+    }
+
+    /**
+     * A TEI document of roughly {@code chars} characters, with indentation, newlines and
+     * xml:space="preserve" content, so whitespace handling shows up in the results.
+     */
+    private static String generateDocument(int chars) {
+        StringBuilder sb = new StringBuilder(chars + 256);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<TEI xmlns=\"http://www.tei-c.org/ns/1.0\">\n  <text>\n    <body>\n");
+        int n = 0;
+        while (sb.length() < chars) {
+            sb.append("      <p n=\"").append(n++).append("\">It's a <hi rend=\"italic\">sample</hi> paragraph.</p>\n");
+            sb.append("      <ab xml:space=\"preserve\">line one\n  line two\t'quoted'</ab>\n");
+        }
+        sb.append("    </body>\n  </text>\n</TEI>\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.teieditor.service;
+
+import com.teieditor.TeiCorpusGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link CorpusIndex#search} over a generated workspace of {@code files} documents of 20 KB,
+ * indexed once in setup. Every generated document has the template's persNames, so the
+ * entity queries return a few hits per file.
+ *
+ * <pre>gradle jmh -PjmhInclude=CorpusSearchBenchmark</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class CorpusSearchBenchmark {
+
+    @Param({ "100", "1000" })
+    public int files;
+
+    @Param({ "persName@ref=#jane", "consortium paris", "date@when=2025*" })
+    public String query;
+
+    private Path workspace;
+    private Path indexes;
+    private CorpusIndex index;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        workspace = Files.createTempDirectory("tei-workspace");
+        indexes = Files.createTempDirectory("tei-corpus-index");
+        TeiCorpusGenerator generator = new TeiCorpusGenerator();
+        for (int i = 0; i < files; i++) {
+            Files.writeString(workspace.resolve("doc-" + i + ".xml"), generator.generate(20 * 1024, i));
+        }
+        index = new CorpusIndex(workspace, indexes);
+        do Thread.sleep(100); while (index.status().busy());
+        if (index.status().files() != files) throw new IllegalStateException("Indexed " + index.status().files() + " of " + files + " files.");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        index.close();
+        for (Path dir : new Path[] { workspace, indexes }) {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public CorpusIndex.Results search() {
+        return index.search(query, 100);
+    }
+}
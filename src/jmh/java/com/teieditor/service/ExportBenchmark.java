@@ -0,0 +1,91 @@
+package com.teieditor.service;
+
+import com.teieditor.TeiCorpusGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ExportService#transform} (HTML) and {@link ExportService#transformToPdf} on generated documents.
+ *
+ * Needs the TEI Stylesheets: the folder chosen in the editor, or {@code -Pstylesheets=DIR}.
+ * 100 MB documents are left out by default (add {@code -p sizeKb=100000} and a larger heap).
+ *
+ * <pre>gradle jmh -PjmhInclude=ExportBenchmark</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ExportBenchmark {
+
+    /** Approximate document size in KB. */
+    @Param({ "10", "1000", "10000" })
+    public int sizeKb;
+
+    private String document;
+    private File htmlXslt;
+    private File foXslt;
+    private Path outputDir;
+    private final ExportService exportService = new ExportService();
+
+    @Setup
+    public void setUp() throws IOException {
+        File stylesheetsDir = locateStylesheets();
+        htmlXslt = ExportFormats.resolveSmartPath(stylesheetsDir, ExportFormats.XSLT_MAPPINGS.get("HTML"));
+        foXslt = ExportFormats.resolveSmartPath(stylesheetsDir, ExportFormats.XSLT_MAPPINGS.get("PDF"));
+        if (htmlXslt == null || foXslt == null) throw new IllegalStateException("No TEI Stylesheets in " + stylesheetsDir);
+
+        document = new TeiCorpusGenerator().generate(sizeKb * 1024L, 42);
+        outputDir = Files.createTempDirectory("tei-export-bench");
+    }
+
+    private static File locateStylesheets() {
+        String configured = System.getProperty("teieditor.stylesheets");
+        if (configured != null) return new File(configured);
+        StylesheetIndex index = new StylesheetIndex(Path.of(System.getProperty("user.home"), ".tei-editor", "stylesheets.properties"));
+        File root = index.getRoot();
+        index.close();
+        if (root == null) throw new IllegalStateException("Set -Pstylesheets=DIR or choose a stylesheets folder in the editor first.");
+        return root;
+    }
+
+    @Benchmark
+    public File transformHtml() throws Exception {
+        File output = outputDir.resolve("out.html").toFile();
+        exportService.transform(document, htmlXslt, output);
+        return output;
+    }
+
+    @Benchmark
+    public File transformToPdf() throws Exception {
+        File output = outputDir.resolve("out.pdf").toFile();
+        exportService.transformToPdf(document, foXslt, output);
+        return output;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (var files = Files.list(outputDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) Files.delete(file);
+        }
+        Files.delete(outputDir);
+    }
+}
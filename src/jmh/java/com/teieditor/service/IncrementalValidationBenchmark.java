@@ -0,0 +1,68 @@
+package com.teieditor.service;
+
+import com.teieditor.TeiCorpusGenerator;
+import com.teieditor.model.PieceTable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link IncrementalValidator} after a one-word edit in the middle of a generated document,
+ * for comparison with {@link ValidationBenchmark}. Every edit types a new word, so no
+ * subtree result is reused.
+ *
+ * <pre>gradle jmh -PjmhInclude=IncrementalValidationBenchmark</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class IncrementalValidationBenchmark {
+
+    /** Approximate document size in KB. */
+    @Param({ "10", "1000", "10000", "100000" })
+    public int sizeKb;
+
+    private PieceTable buffer;
+    private IncrementalValidator validator;
+    private int wordStart;
+    private int wordEnd;
+    private int edits;
+
+    @Setup
+    public void setUp() throws InterruptedException {
+        String document = new TeiCorpusGenerator().generate(sizeKb * 1024L, 42);
+        buffer = new PieceTable(document);
+        validator = new IncrementalValidator(new ValidationService());
+        // The subtree schema compiles in the background; until then every run is a full one
+        while (!ValidationService.isFragmentSchemaReady()) Thread.sleep(100);
+        if (!validator.validateAll(buffer.snapshot(), 0, () -> false).errors().isEmpty()) {
+            throw new IllegalStateException("Generated document is not valid TEI.");
+        }
+
+        // The edit replaces the text right after the first <p> past the middle
+        int p = document.indexOf("<p>", document.length() / 2);
+        if (p < 0) p = document.indexOf("<p>");
+        wordStart = wordEnd = p + "<p>".length();
+    }
+
+    @Benchmark
+    public ValidationReport validateEdit() {
+        String word = "edit" + edits++;
+        buffer.replace(wordStart, wordEnd, word);
+        wordEnd = wordStart + word.length();
+        return validator.validate(buffer.snapshot(), 0, () -> false);
+    }
+}
@@ -0,0 +1,49 @@
+package com.teieditor.service;
+
+import com.teieditor.TeiCorpusGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ValidationService#validateTei} against tei_all.rng on generated documents.
+ *
+ * <pre>gradle jmh -PjmhInclude=ValidationBenchmark</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ValidationBenchmark {
+
+    /** Approximate document size in KB. */
+    @Param({ "10", "1000", "10000", "100000" })
+    public int sizeKb;
+
+    private String document;
+    private final ValidationService validationService = new ValidationService();
+
+    @Setup
+    public void setUp() {
+        document = new TeiCorpusGenerator().generate(sizeKb * 1024L, 42);
+        // Schema compilation is a one-off at launch, not part of a validation run
+        if (!validationService.validateTei(document)) throw new IllegalStateException("Generated document is not valid TEI.");
+    }
+
+    @Benchmark
+    public boolean validateTei() {
+        return validationService.validateTei(document);
+    }
+}
@@ -0,0 +1,90 @@
+package com.teieditor.service;
+
+import com.teieditor.TeiCorpusGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link XmlFormatter} (what EditorController.formatXml runs) against the identity-Transformer
+ * formatXml it replaced, on generated documents.
+ *
+ * <pre>gradle jmh -PjmhInclude=XmlFormatterBenchmark</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class XmlFormatterBenchmark {
+
+    /** Approximate document size in KB. */
+    @Param({ "10", "1000", "10000", "100000" })
+    public int sizeKb;
+
+    private String document;
+    private String paragraph;
+    private final XmlFormatter formatter = new XmlFormatter();
+
+    @Setup
+    public void setUp() {
+        document = new TeiCorpusGenerator().generate(sizeKb * 1024L, 42);
+        paragraph = "<div><head>Section</head><p>Some <hi rend=\"italic\">mixed</hi> content.</p><list><item>one</item></list></div>";
+    }
+
+    @Benchmark
+    public String transformerDocument() {
+        return legacyFormatXml(document);
+    }
+
+    @Benchmark
+    public String staxDocument() throws Exception {
+        return formatter.format(document);
+    }
+
+    /** The changed-subtree case: formatting one element instead of the whole document. */
+    @Benchmark
+    public String transformerElement() {
+        return legacyFormatXml(paragraph);
+    }
+
+    @Benchmark
+    public String staxElement() throws Exception {
+        return formatter.formatElement(paragraph, "      ");
+    }
+
+    /**
+     * EditorController.formatXml before the StAX formatter, kept verbatim as the baseline.
+     */
+    private static String legacyFormatXml(String xml) {
+        try {
+            TransformerFactory transformerFactory = TransformerFactory.newInstance();
+            Transformer transformer = transformerFactory.newTransformer();
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
+            StreamResult result = new StreamResult(new StringWriter());
+            StreamSource source = new StreamSource(new StringReader(xml));
+            transformer.transform(source, result);
+            return result.getWriter().toString();
+        } catch (Exception e) { return xml; }
+    }
+}
@@ -1,6 +1,8 @@
 package com.teieditor;
 
+import com.teieditor.controller.EditorController;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
@@ -12,11 +14,17 @@ import java.util.Objects;
 
 public class App extends Application {
 
+    private EditorController controller;
+
     @Override
     public void start(Stage stage) throws IOException {
+        StartupPhases.mark("JavaFX toolkit");
+
         // Load the FXML Layout
         FXMLLoader fxmlLoader = new FXMLLoader(App.class.getResource("/view/editor.fxml"));
         Parent root = fxmlLoader.load();
+        controller = fxmlLoader.getController();
+        StartupPhases.mark("FXML load");
         
         // Setup the Scene
         Scene scene = new Scene(root, 1200, 800);
@@ -35,6 +43,30 @@ public class App extends Application {
         
         stage.setScene(scene);
         stage.show();
+        StartupPhases.mark("window shown");
+
+        // The first layout pulse is the first frame; anything the user can't see yet waits for it
+        scene.addPostLayoutPulseListener(new Runnable() {
+            private boolean done;
+
+            @Override
+            public void run() {
+                if (done) return;
+                done = true;
+                StartupPhases.mark("first paint");
+                Platform.runLater(() -> {
+                    scene.removePostLayoutPulseListener(this);
+                    controller.onWindowShown();
+                    StartupPhases.publish();
+                });
+            }
+        });
+    }
+
+    @Override
+    public void stop() {
+        // Finish pending saves and drop the crash-recovery journal
+        if (controller != null) controller.shutdown();
     }
 
     public static void main(String[] args) {
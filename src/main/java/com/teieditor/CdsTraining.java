@@ -0,0 +1,119 @@
+package com.teieditor;
+
+import com.teieditor.controller.EditorController;
+import com.teieditor.service.ExportService;
+import com.teieditor.service.FopEngine;
+import com.teieditor.service.ValidationService;
+import com.teieditor.service.XmlFormatter;
+import javafx.application.Platform;
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A short run through the editor's startup and its Jing, Saxon and FOP paths, started with
+ * {@code --cds-training}. The build runs it once through the packaged launcher with
+ * -XX:+AutoCreateSharedArchive, so the class data sharing archive written when it exits
+ * holds the classes a real session loads, and later launches map them instead of loading
+ * and verifying them one by one.
+ */
+final class CdsTraining {
+
+    private static final String HTML_XSLT = """
+            <xsl:stylesheet version="2.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+                            xmlns:tei="http://www.tei-c.org/ns/1.0">
+              <xsl:output method="html"/>
+              <xsl:template match="/"><html><body><xsl:apply-templates select="//tei:p"/></body></html></xsl:template>
+              <xsl:template match="tei:p"><p><xsl:value-of select="."/></p></xsl:template>
+            </xsl:stylesheet>
+            """;
+
+    private static final String FO_XSLT = """
+            <xsl:stylesheet version="2.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+                            xmlns:fo="http://www.w3.org/1999/XSL/Format" xmlns:tei="http://www.tei-c.org/ns/1.0">
+              <xsl:template match="/">
+                <fo:root>
+                  <fo:layout-master-set>
+                    <fo:simple-page-master master-name="A4" page-height="29.7cm" page-width="21cm" margin="2cm">
+                      <fo:region-body/>
+                    </fo:simple-page-master>
+                  </fo:layout-master-set>
+                  <fo:page-sequence master-reference="A4">
+                    <fo:flow flow-name="xsl-region-body">
+                      <xsl:for-each select="//tei:p"><fo:block><xsl:value-of select="."/></fo:block></xsl:for-each>
+                    </fo:flow>
+                  </fo:page-sequence>
+                </fo:root>
+              </xsl:template>
+            </xsl:stylesheet>
+            """;
+
+    private CdsTraining() { }
+
+    static void run() {
+        String document = EditorController.DEFAULT_TEMPLATE;
+        Path workDir = null;
+        try {
+            workDir = Files.createTempDirectory("tei-editor-cds");
+
+            // 1. Validation (Jing) and formatting
+            new ValidationService().validateTei(document);
+            new XmlFormatter().format(document);
+
+            // 2. Export: Saxon alone, then through FOP
+            File htmlXslt = Files.writeString(workDir.resolve("html.xsl"), HTML_XSLT).toFile();
+            File foXslt = Files.writeString(workDir.resolve("fo.xsl"), FO_XSLT).toFile();
+            ExportService exportService = new ExportService(new FopEngine(workDir.toFile(), -1));
+            exportService.transform(document, htmlXslt, workDir.resolve("out.html").toFile());
+            exportService.transformToPdf(document, foXslt, workDir.resolve("out.pdf").toFile());
+
+            // 3. The window's contents, if there is a display to start JavaFX on
+            trainUi();
+        } catch (Exception e) {
+            System.err.println("Warning: CDS training run incomplete. " + e);
+        } finally {
+            deleteRecursively(workDir);
+        }
+        // JavaFX leaves non-daemon threads behind; the archive is written as the JVM exits
+        System.exit(0);
+    }
+
+    private static void trainUi() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            Platform.startup(() -> {
+                try {
+                    FXMLLoader loader = new FXMLLoader(CdsTraining.class.getResource("/view/editor.fxml"));
+                    Parent root = loader.load();
+                    new Scene(root, 1200, 800);
+                    root.applyCss();
+                    root.layout();
+                } catch (Exception e) {
+                    System.err.println("Warning: CDS training could not load the editor window. " + e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        } catch (RuntimeException | UnsatisfiedLinkError e) {
+            System.err.println("Warning: No display for CDS training; the archive covers the services only. " + e.getMessage());
+            return;
+        }
+        done.await(60, TimeUnit.SECONDS);
+    }
+
+    private static void deleteRecursively(Path dir) {
+        if (dir == null) return;
+        try (var paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (Exception e) {
+            System.err.println("Warning: Could not delete " + dir + ". " + e.getMessage());
+        }
+    }
+}
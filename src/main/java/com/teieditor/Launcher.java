@@ -1,8 +1,23 @@
 package com.teieditor;
 
+import com.teieditor.cli.BatchConverter;
+
+import java.util.Arrays;
+
 public class Launcher {
     public static void main(String[] args) {
+        StartupPhases.mainEntered();
+        // Headless batch mode never touches JavaFX
+        if (Arrays.asList(args).contains("--batch")) {
+            BatchConverter.main(args);
+            return;
+        }
+        // Build-time run that fills the class data sharing archive
+        if (Arrays.asList(args).contains("--cds-training")) {
+            CdsTraining.run();
+            return;
+        }
         // Delegate to the real Main class
         App.main(args);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,69 @@
+package com.teieditor;
+
+import com.teieditor.service.Diagnostics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How long each phase of launching the editor took, from the JVM starting to the first frame.
+ *
+ * Phases are only timestamped while starting up, since loading Diagnostics (and JFR with it)
+ * would itself slow the launch; {@link #publish()} hands them over once the window is up.
+ * They then appear in the diagnostics panel as "Startup: ..." steps, and are printed when
+ * running with -Dteieditor.startup.log=true.
+ */
+final class StartupPhases {
+
+    private record Phase(String name, long nanos) { }
+
+    private static final List<Phase> PHASES = new ArrayList<>();
+    private static long mainNanos;
+    private static long lastNanos;
+    private static long jvmToMainNanos = -1;
+
+    private StartupPhases() { }
+
+    /**
+     * Called first thing in main.
+     */
+    static synchronized void mainEntered() {
+        mainNanos = lastNanos = System.nanoTime();
+        // The JVM's own start is only known to the millisecond, as wall-clock time
+        ProcessHandle.current().info().startInstant().ifPresent(start ->
+                jvmToMainNanos = Duration.between(start, Instant.now()).toNanos());
+    }
+
+    /**
+     * Ends {@code phase}, which began where the previous one ended.
+     */
+    static synchronized void mark(String phase) {
+        // Started through App.main rather than Launcher
+        if (mainNanos == 0) mainEntered();
+        long now = System.nanoTime();
+        PHASES.add(new Phase(phase, now - lastNanos));
+        lastNanos = now;
+    }
+
+    static synchronized void publish() {
+        if (jvmToMainNanos >= 0) Diagnostics.record(Diagnostics.Operation.STARTUP, "JVM to main", jvmToMainNanos);
+        for (Phase phase : PHASES) Diagnostics.record(Diagnostics.Operation.STARTUP, phase.name(), phase.nanos());
+        long total = lastNanos - mainNanos;
+        Diagnostics.record(Diagnostics.Operation.STARTUP, "main to first paint", total);
+
+        if (Boolean.getBoolean("teieditor.startup.log")) {
+            StringBuilder line = new StringBuilder("Startup:");
+            if (jvmToMainNanos >= 0) line.append(" JVM to main ").append(millis(jvmToMainNanos)).append(',');
+            for (Phase phase : PHASES) line.append(' ').append(phase.name()).append(' ').append(millis(phase.nanos())).append(',');
+            line.append(" main to first paint ").append(millis(total));
+            System.out.println(line);
+        }
+        PHASES.clear();
+    }
+
+    private static String millis(long nanos) {
+        return nanos / 1_000_000 + " ms";
+    }
+}
@@ -0,0 +1,236 @@
+package com.teieditor.cli;
+
+import com.teieditor.service.DocumentSaver;
+import com.teieditor.service.ExportFormats;
+import com.teieditor.service.ExportService;
+import com.teieditor.service.FopEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Headless batch conversion of TEI files, started with {@code --batch}.
+ *
+ * Usage:
+ * <pre>
+ *   --batch --input DIR [--input DIR ...] --format HTML,PDF,... --stylesheets DIR --output DIR [--threads N] [--low-memory]
+ * </pre>
+ *
+ * {@code --low-memory} renders every PDF with FOP's conserve-memory policy, regardless of size.
+ *
+ * Each output goes to its input's path relative to its {@code --input} directory, with the
+ * format's extension. Inputs that would share an output ({@code a.xml} and {@code a.tei}, or
+ * the same path under two inputs) are refused before anything runs. Outputs are written to a
+ * temporary file and renamed into place, so a failed conversion leaves an earlier one alone.
+ *
+ * All workers share one {@link ExportService}, so stylesheets are compiled once
+ * and every PDF goes through the same FopFactory.
+ */
+public class BatchConverter {
+
+    private static final List<String> SUPPORTED_FORMATS = List.of("HTML", "PDF", "Markdown", "LaTeX", "BibTeX", "EPUB3", "Docx");
+
+    private record Job(Path inputFile, String formatName, Path outputFile) { }
+
+    private record Result(Job job, File outputFile, long elapsedMs, Exception error) { }
+
+    private final List<Path> inputDirs = new ArrayList<>();
+    private final List<String> formats = new ArrayList<>();
+    private File stylesheetsDir;
+    private Path outputDir;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean lowMemory = false;
+
+    private ExportService exportService;
+
+    public static void main(String[] args) {
+        BatchConverter converter = new BatchConverter();
+        try {
+            converter.parseArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            printUsage();
+            System.exit(2);
+        }
+
+        try {
+            int failures = converter.run();
+            System.exit(failures == 0 ? 0 : 1);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(2);
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println("Usage: --batch --input DIR [--input DIR ...] --format " + String.join(",", SUPPORTED_FORMATS)
+                + " --stylesheets DIR --output DIR [--threads N] [--low-memory]");
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--batch")) continue;
+            if (arg.equals("--low-memory")) { lowMemory = true; continue; }
+            if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + arg);
+            String value = args[++i];
+            switch (arg) {
+                case "--input" -> inputDirs.add(Path.of(value));
+                case "--format" -> {
+                    for (String format : value.split(",")) formats.add(canonicalFormat(format.trim()));
+                }
+                case "--stylesheets" -> stylesheetsDir = new File(value);
+                case "--output" -> outputDir = Path.of(value);
+                case "--threads" -> threads = Math.max(1, Integer.parseInt(value));
+                default -> throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (inputDirs.isEmpty()) throw new IllegalArgumentException("At least one --input directory is required.");
+        if (formats.isEmpty()) throw new IllegalArgumentException("At least one --format is required.");
+        if (stylesheetsDir == null || !stylesheetsDir.isDirectory()) throw new IllegalArgumentException("--stylesheets must be an existing directory.");
+        if (outputDir == null) throw new IllegalArgumentException("--output is required.");
+    }
+
+    private static String canonicalFormat(String name) {
+        for (String format : SUPPORTED_FORMATS) {
+            if (format.equalsIgnoreCase(name)) return format;
+        }
+        throw new IllegalArgumentException("Unsupported format: " + name);
+    }
+
+    /**
+     * Converts every input file to every requested format and prints a summary.
+     *
+     * @return the number of failed conversions
+     */
+    int run() throws IOException, InterruptedException {
+        exportService = lowMemory
+                ? new ExportService(new FopEngine(new File(System.getProperty("user.home"), ".tei-editor"), 0))
+                : new ExportService();
+
+        // 1. Resolve stylesheets once, up front (the first worker to need one compiles it for everyone)
+        Map<String, File> stylesheets = new LinkedHashMap<>();
+        for (String format : formats) {
+            File xsltFile = ExportFormats.resolveSmartPath(stylesheetsDir, ExportFormats.XSLT_MAPPINGS.get(format));
+            if (xsltFile == null) throw new IOException("Could not find '" + ExportFormats.XSLT_MAPPINGS.get(format) + "' in " + stylesheetsDir);
+            stylesheets.put(format, xsltFile);
+        }
+
+        // 2. Collect jobs, refusing any two that would write the same file
+        List<Job> jobs = new ArrayList<>();
+        for (Path inputDir : inputDirs) {
+            try (Stream<Path> files = Files.walk(inputDir)) {
+                for (Path file : (Iterable<Path>) files.filter(BatchConverter::isTeiFile)::iterator) {
+                    for (String format : formats) jobs.add(new Job(file, format, outputFileFor(inputDir, file, format)));
+                }
+            }
+        }
+        checkCollisions(jobs);
+        System.out.println("Converting " + jobs.size() + " job(s) on " + threads + " thread(s)...");
+
+        // 3. Run on a bounded pool
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Job job : jobs) {
+            futures.add(pool.submit(() -> convert(job, stylesheets.get(job.formatName()))));
+        }
+        pool.shutdown();
+
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                // convert() catches everything itself; this only happens on Errors
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        long totalMs = (System.nanoTime() - start) / 1_000_000;
+
+        return printSummary(results, totalMs);
+    }
+
+    private Path outputFileFor(Path inputRoot, Path inputFile, String formatName) {
+        Path relative = inputRoot.relativize(inputFile);
+        String baseName = relative.toString().replaceFirst("\\.[^.\\\\/]+$", "");
+        return outputDir.resolve(baseName + "." + ExportFormats.EXTENSIONS.get(formatName)).toAbsolutePath().normalize();
+    }
+
+    // Compared ignoring case, as the output may be on a case-insensitive file system
+    private static void checkCollisions(List<Job> jobs) {
+        Map<String, Job> byOutput = new HashMap<>();
+        List<String> clashes = new ArrayList<>();
+        for (Job job : jobs) {
+            Job other = byOutput.putIfAbsent(job.outputFile().toString().toLowerCase(Locale.ROOT), job);
+            if (other != null) clashes.add(other.inputFile() + " and " + job.inputFile() + " would both write " + job.outputFile());
+        }
+        if (clashes.isEmpty()) return;
+        throw new IllegalArgumentException("Inputs would overwrite each other's output:\n  " + String.join("\n  ", clashes)
+                + "\nRename them, or convert them in separate runs with different --output directories.");
+    }
+
+    private Result convert(Job job, File xsltFile) {
+        File outputFile = job.outputFile().toFile();
+        Path staged = null;
+
+        long start = System.nanoTime();
+        try {
+            Files.createDirectories(job.outputFile().getParent());
+            // Written next to the output and renamed over it, so a failure never costs the previous one
+            staged = DocumentSaver.tempFileFor(job.outputFile());
+            if (ExportFormats.isComplex(job.formatName())) {
+                exportService.exportPackage(job.inputFile().toFile(), stylesheetsDir, staged.toFile(), job.formatName());
+            } else if (job.formatName().equals("PDF")) {
+                exportService.transformToPdf(job.inputFile().toFile(), xsltFile, staged.toFile());
+            } else {
+                exportService.transform(job.inputFile().toFile(), xsltFile, staged.toFile());
+            }
+            DocumentSaver.moveIntoPlace(staged, job.outputFile());
+            return new Result(job, outputFile, (System.nanoTime() - start) / 1_000_000, null);
+        } catch (Exception e) {
+            return new Result(job, outputFile, (System.nanoTime() - start) / 1_000_000, e);
+        } finally {
+            // Whatever a failed conversion left; gone already after a successful rename
+            if (staged != null) staged.toFile().delete();
+        }
+    }
+
+    private int printSummary(List<Result> results, long totalMs) {
+        int failures = 0;
+        System.out.println();
+        System.out.println(String.format("%-8s %-9s %10s  %s", "STATUS", "FORMAT", "TIME (ms)", "FILE"));
+        for (Result result : results) {
+            String status = result.error() == null ? "OK" : "FAILED";
+            System.out.println(String.format("%-8s %-9s %10d  %s", status, result.job().formatName(), result.elapsedMs(), result.job().inputFile()));
+            if (result.error() != null) {
+                failures++;
+                System.out.println("         " + result.error().getMessage());
+            }
+        }
+        System.out.println();
+        System.out.println((results.size() - failures) + " succeeded, " + failures + " failed, " + totalMs + " ms total.");
+        return failures;
+    }
+
+    private static boolean isTeiFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        return Files.isRegularFile(path) && (name.endsWith(".xml") || name.endsWith(".tei"));
+    }
+}
@@ -0,0 +1,132 @@
+package com.teieditor.controller;
+
+import com.teieditor.service.CorpusIndex;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableRow;
+import javafx.scene.control.TableView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.Tooltip;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A window for searching the open workspace, showing how far indexing has got (refreshed
+ * twice a second while open). Double-clicking a result, or pressing Enter on it, opens it.
+ */
+class CorpusPanel {
+
+    // More than anyone scrolls through; the count shows how many there were
+    private static final int MAX_HITS = 1000;
+
+    private final CorpusIndex index;
+    private final Stage stage = new Stage();
+    private final TextField queryField = new TextField();
+    private final TableView<CorpusIndex.Hit> table = new TableView<>();
+    private final Label resultLabel = new Label();
+    private final Label statusLabel = new Label();
+    private final Timeline refresher = new Timeline(new KeyFrame(Duration.millis(500), e -> refreshStatus()));
+
+    CorpusPanel(Window owner, CorpusIndex index, Consumer<CorpusIndex.Hit> onOpen) {
+        this.index = index;
+
+        queryField.setPromptText("Words, persName@ref=#jane, placeName:london, date@when=1815*, @xml:id=ch1 or <lg>");
+        queryField.setTooltip(new Tooltip("""
+                jane austen          files containing every word
+                persName@ref=#jane   persNames whose ref is #jane (also placeName, date; any attribute)
+                @ref=#jane           the same, for persName, placeName and date
+                persName:austen      persNames whose text contains the words
+                @xml:id=ch1          the element with that xml:id
+                <lg>                 files using the element
+                A trailing * matches by prefix."""));
+        queryField.setOnAction(e -> search());
+        HBox.setHgrow(queryField, Priority.ALWAYS);
+        Button searchBtn = new Button("Search");
+        searchBtn.setOnAction(e -> search());
+        HBox queryRow = new HBox(8, queryField, searchBtn);
+
+        table.getColumns().add(column("File", 260, hit -> index.root().relativize(hit.file()).toString()));
+        TableColumn<CorpusIndex.Hit, String> line = column("Line", 60, hit -> hit.line() > 0 ? Integer.toString(hit.line()) : "");
+        line.setStyle("-fx-alignment: CENTER-RIGHT;");
+        table.getColumns().add(line);
+        table.getColumns().add(column("Element", 90, hit -> hit.element() != null ? hit.element() : ""));
+        table.getColumns().add(column("Attributes", 200, CorpusIndex.Hit::attributes));
+        table.getColumns().add(column("Text", 260, CorpusIndex.Hit::text));
+        table.setPlaceholder(new Label("No results."));
+        table.setRowFactory(view -> {
+            TableRow<CorpusIndex.Hit> row = new TableRow<>();
+            row.setOnMouseClicked(e -> {
+                if (e.getClickCount() == 2 && !row.isEmpty()) onOpen.accept(row.getItem());
+            });
+            return row;
+        });
+        table.setOnKeyPressed(e -> {
+            CorpusIndex.Hit selected = table.getSelectionModel().getSelectedItem();
+            if (e.getCode() == KeyCode.ENTER && selected != null) onOpen.accept(selected);
+        });
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        VBox root = new VBox(8, queryRow, resultLabel, table, statusLabel);
+        root.setPadding(new Insets(10));
+        stage.setScene(new Scene(root, 900, 480));
+        stage.setTitle("Search " + index.root().getFileName());
+        if (owner != null) stage.initOwner(owner);
+
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        stage.setOnShown(e -> refresher.play());
+        stage.setOnHidden(e -> refresher.stop());
+    }
+
+    void show() {
+        refreshStatus();
+        stage.show();
+        stage.toFront();
+        queryField.requestFocus();
+    }
+
+    void close() {
+        stage.close();
+    }
+
+    private void search() {
+        try {
+            CorpusIndex.Results results = index.search(queryField.getText(), MAX_HITS);
+            table.getItems().setAll(results.hits());
+            String shown = results.total() > results.hits().size() ? " (first " + results.hits().size() + " shown)" : "";
+            resultLabel.setText(results.total() + " result(s)" + shown + " in " + String.format("%.1f ms", results.micros() / 1000.0));
+        } catch (IllegalArgumentException e) {
+            table.getItems().clear();
+            resultLabel.setText(e.getMessage());
+        }
+    }
+
+    private void refreshStatus() {
+        CorpusIndex.Status status = index.status();
+        StringBuilder text = new StringBuilder(status.files() + " file(s) indexed");
+        if (status.pending() > 0) text.append(", ").append(status.pending()).append(" to go");
+        else if (status.busy()) text.append(", checking for changes");
+        if (status.failed() > 0) text.append("; ").append(status.failed()).append(" not well-formed, indexed up to the error");
+        statusLabel.setText(text.toString());
+    }
+
+    private static TableColumn<CorpusIndex.Hit, String> column(String title, double width, Function<CorpusIndex.Hit, String> value) {
+        TableColumn<CorpusIndex.Hit, String> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return column;
+    }
+}
@@ -0,0 +1,133 @@
+package com.teieditor.controller;
+
+import com.teieditor.service.Diagnostics;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Function;
+
+/**
+ * A window showing {@link Diagnostics}: timing of each measured step and the current gauges,
+ * refreshed every second while open, with the JSON dump one click away.
+ */
+class DiagnosticsPanel {
+
+    private final Stage stage = new Stage();
+    private final TableView<Diagnostics.Summary> table = new TableView<>();
+    private final Label gaugesLabel = new Label();
+    private final Timeline refresher = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh()));
+
+    DiagnosticsPanel(Window owner) {
+        table.getColumns().add(textColumn("Step", 260, Diagnostics.Summary::name));
+        table.getColumns().add(numberColumn("Count", s -> String.format("%,d", s.count())));
+        table.getColumns().add(numberColumn("Mean ms", s -> millis(s.meanMs())));
+        table.getColumns().add(numberColumn("p50 ms", s -> millis(s.p50Ms())));
+        table.getColumns().add(numberColumn("p95 ms", s -> millis(s.p95Ms())));
+        table.getColumns().add(numberColumn("p99 ms", s -> millis(s.p99Ms())));
+        table.getColumns().add(numberColumn("Max ms", s -> millis(s.maxMs())));
+        table.getColumns().add(numberColumn("Total ms", s -> millis(s.totalMs())));
+        table.setPlaceholder(new Label("Nothing measured yet."));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        Button copyBtn = new Button("Copy JSON");
+        copyBtn.setOnAction(e -> {
+            ClipboardContent content = new ClipboardContent();
+            content.putString(Diagnostics.toJson());
+            Clipboard.getSystemClipboard().setContent(content);
+        });
+        Button saveBtn = new Button("Save JSON...");
+        saveBtn.setOnAction(e -> saveJson());
+        Button resetBtn = new Button("Reset");
+        resetBtn.setOnAction(e -> {
+            Diagnostics.reset();
+            refresh();
+        });
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        HBox buttons = new HBox(8, gaugesLabel, spacer, resetBtn, copyBtn, saveBtn);
+
+        VBox root = new VBox(8, table, buttons);
+        root.setPadding(new Insets(10));
+        stage.setScene(new Scene(root, 900, 420));
+        stage.setTitle("Diagnostics");
+        if (owner != null) stage.initOwner(owner);
+
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        stage.setOnShown(e -> refresher.play());
+        stage.setOnHidden(e -> refresher.stop());
+    }
+
+    void show() {
+        refresh();
+        stage.show();
+        stage.toFront();
+    }
+
+    private void refresh() {
+        table.setItems(FXCollections.observableList(Diagnostics.summaries()));
+        StringBuilder gauges = new StringBuilder();
+        for (Diagnostics.GaugeValue gauge : Diagnostics.gauges()) {
+            if (gauges.length() > 0) gauges.append("   ");
+            gauges.append(gauge.name()).append(": ");
+            if (gauge.unit().equals("bytes")) gauges.append(String.format("%.1f MB", gauge.value() / 1048576.0));
+            else gauges.append(String.format("%,d %s", gauge.value(), gauge.unit()));
+        }
+        gaugesLabel.setText(gauges.toString());
+    }
+
+    private void saveJson() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Save Diagnostics");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON", "*.json"));
+        chooser.setInitialFileName("tei-editor-diagnostics.json");
+        File file = chooser.showSaveDialog(stage);
+        if (file == null) return;
+        try {
+            Diagnostics.writeJson(file.toPath());
+        } catch (IOException e) {
+            Alert alert = new Alert(Alert.AlertType.ERROR, e.getMessage());
+            alert.setHeaderText("Could not save diagnostics");
+            alert.initOwner(stage);
+            alert.showAndWait();
+        }
+    }
+
+    private static String millis(double value) {
+        return String.format("%,.2f", value);
+    }
+
+    private static TableColumn<Diagnostics.Summary, String> textColumn(String title, double width,
+                                                                      Function<Diagnostics.Summary, String> value) {
+        TableColumn<Diagnostics.Summary, String> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return column;
+    }
+
+    private static TableColumn<Diagnostics.Summary, String> numberColumn(String title, Function<Diagnostics.Summary, String> value) {
+        TableColumn<Diagnostics.Summary, String> column = textColumn(title, 80, value);
+        column.setStyle("-fx-alignment: CENTER-RIGHT;");
+        return column;
+    }
+}
@@ -1,11 +1,38 @@
 package com.teieditor.controller;
 
+import com.teieditor.model.DocumentSnapshot;
+import com.teieditor.model.ChangedRange;
+import com.teieditor.model.PieceTable;
+import com.teieditor.model.TextDelta;
+import com.teieditor.model.UndoHistory;
+import com.teieditor.model.VersionLog;
+import com.teieditor.model.XmlSubtreeLocator;
 import com.teieditor.service.AntExportService;
+import com.teieditor.service.AutosaveJournal;
+import com.teieditor.service.ContentModel;
+import com.teieditor.service.CorpusIndex;
+import com.teieditor.service.Diagnostics;
+import com.teieditor.service.DocumentLoader;
+import com.teieditor.service.DocumentSaver;
+import com.teieditor.service.ExportFormats;
+import com.teieditor.service.ExportJob;
+import com.teieditor.service.ExportJobManager;
 import com.teieditor.service.ExportService;
+import com.teieditor.service.Lazy;
+import com.teieditor.service.RecipeUnavailableException;
+import com.teieditor.service.StylesheetIndex;
+import com.teieditor.service.StylesheetInstaller;
 import com.teieditor.service.StylesheetManager;
+import com.teieditor.service.ValidationError;
+import com.teieditor.service.ValidationReport;
+import com.teieditor.service.ValidationScheduler;
 import com.teieditor.service.ValidationService;
+import com.teieditor.service.XmlFormatter;
 import javafx.animation.PauseTransition;
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.concurrent.Worker;
 import javafx.fxml.FXML;
 import javafx.geometry.Insets;
@@ -21,35 +48,48 @@ import javafx.scene.web.WebView;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.util.Duration;
-import netscape.javascript.JSObject;
 
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLStreamException;
+
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
-import java.io.StringWriter;
+import java.io.Reader;
 import java.net.URL;
-import java.nio.file.Files;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
 public class EditorController {
 
-    // --- XSLT MAPPING REGISTRY ---
-    private static final Map<String, String> XSLT_MAPPINGS = Map.of(
-        "HTML",     "html/html.xsl",
-        "PDF",      "fo/fo.xsl",
-        "LaTeX",    "latex/latex.xsl",
-        "Markdown", "profiles/default/markdown/to.xsl",
-        "BibTeX",   "profiles/default/bibtex/to.xsl",
-        "EPUB3",    "epub/build-to.xml",
-        "Docx",     "docx/build-to.xml"
-    );
+    // Stop validating after this many errors; the first few are what users act on
+    private static final int MAX_VALIDATION_ERRORS = 50;
+    // Real-time validation waits until typing has paused this long
+    private static final long VALIDATION_DEBOUNCE_MS = 750;
+    // Persistent per-document edit history (one append-only log per editing session)
+    private static final Path HISTORY_DIR = Path.of(System.getProperty("user.home"), ".tei-editor", "history");
+    private static final VersionLog.Retention HISTORY_RETENTION = new VersionLog.Retention(
+            Long.getLong("teieditor.history.maxAgeDays", 30) * 24 * 60 * 60 * 1000,
+            Integer.getInteger("teieditor.history.logsPerDocument", 20),
+            Long.getLong("teieditor.history.maxMegabytes", 512) * 1024 * 1024);
+    // Crash-recovery copies of unsaved work
+    private static final Path AUTOSAVE_DIR = Path.of(System.getProperty("user.home"), ".tei-editor", "autosave");
+    private static final Path STYLESHEET_INDEX_FILE = Path.of(System.getProperty("user.home"), ".tei-editor", "stylesheets.properties");
+    // Search indexes of workspace folders, one subdirectory each
+    private static final Path CORPUS_INDEX_DIR = Path.of(System.getProperty("user.home"), ".tei-editor", "corpus");
 
     // --- UI Components ---
     @FXML private SplitPane mainSplitPane;
@@ -62,17 +102,53 @@ public class EditorController {
     @FXML private VBox sidebar;
     @FXML private Accordion tagAccordion;
     @FXML private ToggleButton sidebarToggleBtn;
+    @FXML private ProgressBar loadProgress;
+    @FXML private Button cancelLoadBtn;
 
     // --- Services ---
     private WebEngine webEngine;
+    private VisualBridge visualBridge;
     private final ValidationService validationService = new ValidationService();
-    private final ExportService exportService = new ExportService();
+    private final XmlFormatter xmlFormatter = new XmlFormatter();
+    // Building Saxon and FOP takes about a second: done after the window is up (see onWindowShown)
+    private final Lazy<ExportService> exportService = new Lazy<>(ExportService::new);
     private final StylesheetManager stylesheetManager = new StylesheetManager();
-    private final AntExportService antExportService = new AntExportService(); 
+    // Remembers the stylesheets folder between sessions and where each format's stylesheet is in it
+    private final Lazy<StylesheetIndex> stylesheetIndex = new Lazy<>(() -> new StylesheetIndex(STYLESHEET_INDEX_FILE));
+    private final Lazy<AntExportService> antExportService = new Lazy<>(AntExportService::new);
+    private final DocumentLoader documentLoader = new DocumentLoader();
+    private final DocumentSaver documentSaver = new DocumentSaver();
+    private final ExportJobManager exportJobs = new ExportJobManager();
+    private AutosaveJournal autosaveJournal;
+    private final ValidationScheduler validationScheduler =
+            new ValidationScheduler(validationService, VALIDATION_DEBOUNCE_MS, MAX_VALIDATION_ERRORS, this::onValidated);
     
     // --- State ---
     private File currentFile = null; 
-    private File teiStylesheetsDir = null; 
+    // How the open file was encoded, so saving writes it back the same way
+    private Charset currentEncoding = StandardCharsets.UTF_8;
+    private boolean currentHasBom = false;
+    // The file being read in the background, if any
+    private CompletableFuture<DocumentLoader.LoadedDocument> pendingOpen;
+    // The stylesheet download/install in progress, if any
+    private CompletableFuture<File> pendingInstall;
+    // Set while a just-opened document is shown in the code view and the visual view hasn't caught up yet
+    private boolean visualSyncDeferred = false;
+    // Single source of truth for the document text; the TextArea mirrors it
+    private final PieceTable document = new PieceTable("");
+    // What the visual view currently shows, and what changed in the code since then
+    private DocumentSnapshot lastVisualSync;
+    private final ChangedRange visualPendingChanges = new ChangedRange();
+    // Where the last visual edit was spliced into the code, valid while the document is at that version
+    private XmlSubtreeLocator.Placement lastVisualSplice;
+    private long lastVisualSpliceVersion = -1;
+    // Tag of the element selected in the visual view, if any
+    private String selectedTag;
+    // Sidebar buttons by tag, and the schema's answer to "what can go here" for the selection
+    private final Map<String, Button> tagButtons = new HashMap<>();
+    private final ObservableList<String> allowedHereSource = FXCollections.observableArrayList();
+    private final FilteredList<String> allowedHere = new FilteredList<>(allowedHereSource);
+    private TitledPane allowedHerePane;
     
     private enum ViewMode { VISUAL_ONLY, SPLIT, CODE_ONLY }
     private ViewMode currentViewMode = ViewMode.VISUAL_ONLY;
@@ -83,13 +159,21 @@ public class EditorController {
     private boolean isUpdatingFromCode = false;
 
     // Undo/Redo
-    private final Stack<String> undoStack = new Stack<>();
-    private final Stack<String> redoStack = new Stack<>();
+    private final UndoHistory undoHistory =
+            new UndoHistory(Long.getLong("teieditor.undo.memoryBudget", UndoHistory.DEFAULT_MEMORY_BUDGET));
     private boolean isUndoingRedoing = false;
     private PauseTransition typingTimer;
 
-    // Default Template
-    private final String DEFAULT_TEMPLATE = """
+    // Opened from Help > Diagnostics
+    private DiagnosticsPanel diagnosticsPanel;
+    // Opened from Export > Export Jobs
+    private ExportJobsPanel exportJobsPanel;
+    // The folder opened with File > Open Folder, and its search window
+    private CorpusIndex corpusIndex;
+    private CorpusPanel corpusPanel;
+
+    // Default Template (also the seed of the benchmark corpus generator)
+    public static final String DEFAULT_TEMPLATE = """
             <?xml version="1.0" encoding="UTF-8"?>
             <TEI xmlns="http://www.tei-c.org/ns/1.0">
                 <teiHeader>
@@ -249,22 +333,21 @@ public class EditorController {
     @FXML
     public void initialize() {
         webEngine = visualWebView.getEngine();
+        visualBridge = new VisualBridge(webEngine);
+        codeEditor.setTextFormatter(new TextFormatter<String>(this::mirrorEditToDocument));
         codeEditor.setText(DEFAULT_TEMPLATE);
+        resetHistory();
+        startAutosave();
+        // Read from the diagnostics panel and JFR threads; a slightly stale value is fine
+        Diagnostics.registerGauge("Undo history memory", "bytes", undoHistory::memoryUsage);
         
         typingTimer = new PauseTransition(Duration.millis(1000));
-        typingTimer.setOnFinished(e -> {});
-
-        URL url = getClass().getResource("/view/visual_editor.html");
-        if (url != null) {
-            webEngine.load(url.toExternalForm());
-        } else {
-            System.err.println("CRITICAL ERROR: Could not find /view/visual_editor.html");
-        }
+        typingTimer.setOnFinished(e -> commitToUndoHistory());
 
         webEngine.getLoadWorker().stateProperty().addListener((obs, oldState, newState) -> {
             if (newState == Worker.State.SUCCEEDED) {
-                JSObject window = (JSObject) webEngine.executeScript("window");
-                window.setMember("javaBridge", this);
+                visualBridge.attach(this);
+                lastVisualSync = null;
                 syncCodeToVisual();
             }
         });
@@ -272,13 +355,17 @@ public class EditorController {
         codeEditor.focusedProperty().addListener((obs, old, newVal) -> { if(newVal) isVisualFocused = false; });
         visualWebView.focusedProperty().addListener((obs, old, newVal) -> { if(newVal) isVisualFocused = true; });
 
-        codeEditor.textProperty().addListener((obs, oldVal, newVal) -> {
+        // An InvalidationListener, so the TextArea isn't asked for its whole text on every keystroke
+        codeEditor.textProperty().addListener(obs -> {
+            // Snapshots are immutable, so the background validator never touches the TextArea
+            DocumentSnapshot snapshot = document.snapshot();
+            validationScheduler.submit(snapshot);
+            if (autosaveJournal != null) autosaveJournal.offer(snapshot);
+
             if (isUndoingRedoing) return; 
 
             if (!isUpdatingFromVisual) {
-                if (typingTimer.getStatus() != javafx.animation.Animation.Status.RUNNING) {
-                    commitToUndoHistory(oldVal);
-                }
+                // The edit is already in the open undo group; the pause that ends the burst closes it
                 typingTimer.playFromStart();
 
                 isUpdatingFromCode = true;
@@ -290,7 +377,7 @@ public class EditorController {
         visualWebView.addEventFilter(KeyEvent.KEY_PRESSED, event -> {
             if (event.getCode() == KeyCode.DELETE || event.getCode() == KeyCode.BACK_SPACE) {
                 if (webEngine.getLoadWorker().getState() == Worker.State.SUCCEEDED) {
-                    Object isTextEditing = webEngine.executeScript("isEditingText()");
+                    Object isTextEditing = visualBridge.call("isEditingText");
                     if (isTextEditing instanceof Boolean && !(Boolean) isTextEditing) {
                         handleDelete();
                         event.consume();
@@ -309,6 +396,55 @@ public class EditorController {
         updateLayout();
         populateTagSidebar();
         handleToggleSidebar(); 
+        // Once the window is up
+        Platform.runLater(this::offerRecovery);
+    }
+
+    /**
+     * Called by App once the window has been painted. Starts what the first frame didn't need:
+     * the visual editor page, and the services that are slow to build.
+     */
+    public void onWindowShown() {
+        // 1. The visual editor; its load listener (see initialize) renders the document into it
+        URL url = getClass().getResource("/view/visual_editor.html");
+        if (url != null) {
+            webEngine.load(url.toExternalForm());
+        } else {
+            System.err.println("CRITICAL ERROR: Could not find /view/visual_editor.html");
+        }
+
+        // 2. Everything else off the FX thread, yielding to it on small machines
+        Thread warmer = new Thread(this::warmUpServices, "startup-warmup");
+        warmer.setDaemon(true);
+        warmer.setPriority(Thread.MIN_PRIORITY);
+        warmer.start();
+    }
+
+    private void warmUpServices() {
+        ValidationService.warmUp();
+        ContentModel.tei();
+        Platform.runLater(() -> updateAllowedElements(insertionParent()));
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.STARTUP, "Warm-up: stylesheet index")) {
+            stylesheetIndex.get();
+        }
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.STARTUP, "Warm-up: export services")) {
+            exportService.get();
+            antExportService.get();
+        } catch (RuntimeException e) {
+            // Retried, and reported, by the first export
+            System.err.println("Warning: Could not prepare export services. " + e.getMessage());
+        }
+    }
+
+    private void startAutosave() {
+        long intervalMs = Long.getLong("teieditor.autosave.intervalSeconds", AutosaveJournal.DEFAULT_INTERVAL_MS / 1000) * 1000;
+        try {
+            autosaveJournal = new AutosaveJournal(AUTOSAVE_DIR, intervalMs);
+            updateAutosaveSource();
+            autosaveJournal.markSaved(document.snapshot());
+        } catch (IOException e) {
+            System.err.println("Warning: Autosave disabled. " + e.getMessage());
+        }
     }
 
     // ==========================================
@@ -316,24 +452,25 @@ public class EditorController {
     // ==========================================
 
     private void performExport(String formatName, String extension, String relativeXsltKey) {
+        File teiStylesheetsDir = stylesheetIndex.get().getRoot();
         if (teiStylesheetsDir == null || !teiStylesheetsDir.exists()) {
             configureStylesheetsFlow(() -> performExport(formatName, extension, relativeXsltKey));
             return;
         }
 
-        String xsltPath = XSLT_MAPPINGS.get(formatName);
+        String xsltPath = ExportFormats.XSLT_MAPPINGS.get(formatName);
         if (xsltPath == null) { showError("Error", "Unknown format: " + formatName); return; }
         
-        File xsltFile = resolveSmartPath(teiStylesheetsDir, xsltPath);
+        File xsltFile = stylesheetIndex.get().resolve(formatName);
         
-        if (xsltFile == null || !xsltFile.exists()) {
+        if (xsltFile == null) {
             Alert alert = new Alert(Alert.AlertType.ERROR);
             alert.setTitle("Configuration Error");
             alert.setHeaderText("Stylesheet Not Found");
             alert.setContentText("Could not find '" + xsltPath + "' in:\n" + teiStylesheetsDir.getAbsolutePath() + 
                                  "\n\nPlease ensure you selected the correct TEI Stylesheets root folder.");
             alert.showAndWait();
-            teiStylesheetsDir = null;
+            stylesheetIndex.get().setRoot(null);
             return;
         }
 
@@ -346,21 +483,34 @@ public class EditorController {
         if (outputFile == null) return;
 
         statusLabel.setText("Exporting to " + formatName + "...");
-        new Thread(() -> {
-            try {
-                if (formatName.equals("Docx") || formatName.equals("EPUB3")) {
-                    antExportService.exportComplexFormat(codeEditor.getText(), teiStylesheetsDir, outputFile, formatName);
-                } else if (formatName.equals("PDF")) {
-                    exportService.transformToPdf(codeEditor.getText(), xsltFile, outputFile);
-                } else {
-                    exportService.transform(codeEditor.getText(), xsltFile, outputFile);
+        DocumentSnapshot snapshot = document.snapshot();
+        // The pipelines look for files relative to the stylesheets proper, which may be nested in the chosen folder
+        File stylesheetsDir = stylesheetIndex.get().getBaseDir();
+        ExportJob job = exportJobs.submit(formatName, outputFile, (monitor, output) -> {
+            if (ExportFormats.isComplex(formatName)) {
+                try {
+                    exportService.get().exportPackage(snapshot, stylesheetsDir, output, formatName, monitor);
+                } catch (RecipeUnavailableException e) {
+                    // Unfamiliar stylesheet layout: let the official Ant build handle it
+                    System.err.println("Native " + formatName + " pipeline unavailable (" + e.getMessage() + "), falling back to Ant.");
+                    antExportService.get().exportComplexFormat(snapshot, stylesheetsDir, output, formatName, monitor);
                 }
-                Platform.runLater(() -> statusLabel.setText("Export Successful: " + outputFile.getName()));
-            } catch (Exception e) {
-                e.printStackTrace();
-                Platform.runLater(() -> showError("Export Failed", e.getMessage()));
+            } else if (formatName.equals("PDF")) {
+                exportService.get().transformToPdf(snapshot, xsltFile, output, monitor);
+            } else {
+                exportService.get().transform(snapshot, xsltFile, output, monitor);
             }
-        }).start();
+        });
+        job.result().whenComplete((file, error) -> Platform.runLater(() -> {
+            if (error == null) {
+                statusLabel.setText("Export Successful: " + outputFile.getName());
+            } else if (error instanceof CancellationException) {
+                statusLabel.setText("Export to " + formatName + " cancelled.");
+            } else {
+                error.printStackTrace();
+                showError("Export Failed", error.getMessage());
+            }
+        }));
     }
 
     private void configureStylesheetsFlow(Runnable onSuccess) {
@@ -391,7 +541,7 @@ public class EditorController {
         File selectedDir = dirChooser.showDialog(null);
 
         if (selectedDir != null) {
-            teiStylesheetsDir = selectedDir;
+            setStylesheetsDir(selectedDir);
             onSuccess.run();
         }
     }
@@ -420,37 +570,57 @@ public class EditorController {
 
             if (targetDir != null) {
                 statusLabel.setText("Downloading Stylesheets...");
-                File finalDir = targetDir;
-                stylesheetManager.downloadAndInstall(targetDir,
-                    () -> { 
+                showLoadProgress(true);
+                loadProgress.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+                CompletableFuture<File> install = stylesheetManager.downloadAndInstall(targetDir, new StylesheetInstaller.Progress() {
+                    @Override
+                    public void onDownload(long bytes, long totalBytes) {
+                        Platform.runLater(() -> {
+                            statusLabel.setText(String.format("Downloading Stylesheets: %.1f%s MB", bytes / 1048576.0,
+                                    totalBytes > 0 ? String.format(" of %.1f", totalBytes / 1048576.0) : ""));
+                            loadProgress.setProgress(totalBytes > 0 ? (double) bytes / totalBytes : ProgressBar.INDETERMINATE_PROGRESS);
+                        });
+                    }
+
+                    @Override
+                    public void onExtract(int entries, int totalEntries, long bytes, long totalBytes) {
+                        Platform.runLater(() -> {
+                            statusLabel.setText(String.format("Installing Stylesheets: %,d of %,d files", entries, totalEntries));
+                            loadProgress.setProgress(totalBytes > 0 ? (double) bytes / totalBytes : (double) entries / totalEntries);
+                        });
+                    }
+                });
+                pendingInstall = install;
+                install.whenComplete((installedDir, error) -> Platform.runLater(() -> {
+                    pendingInstall = null;
+                    showLoadProgress(false);
+                    if (error instanceof CancellationException) {
+                        statusLabel.setText("Download cancelled. It will resume next time.");
+                    } else if (error != null) {
+                        statusLabel.setText("Download Failed.");
+                        Throwable cause = error.getCause() != null ? error.getCause() : error;
+                        showError("Network Error", "Could not install stylesheets.\n" + cause.getMessage());
+                    } else {
                         statusLabel.setText("Download Complete.");
-                        teiStylesheetsDir = finalDir;
+                        setStylesheetsDir(installedDir);
                         onSuccess.run();
-                    },
-                    () -> { 
-                        statusLabel.setText("Download Failed.");
-                        showError("Network Error", "Could not download stylesheets.");
                     }
-                );
+                }));
             }
         });
     }
 
-    private File resolveSmartPath(File rootDir, String relativePath) {
-        File direct = new File(rootDir, relativePath);
-        if (direct.exists()) return direct;
+    private void setStylesheetsDir(File dir) {
+        stylesheetIndex.get().setRoot(dir);
 
-        File nested = new File(new File(rootDir, "xml/tei/stylesheet"), relativePath);
-        if (nested.exists()) return nested;
-        
-        File[] subs = rootDir.listFiles(File::isDirectory);
-        if (subs != null) {
-            for (File sub : subs) {
-                File subCheck = new File(new File(sub, "xml/tei/stylesheet"), relativePath);
-                if (subCheck.exists()) return subCheck;
-            }
+        // Compile the XSLT-based formats in the background while the user picks an output file
+        List<File> stylesheets = new ArrayList<>();
+        for (Map.Entry<String, String> mapping : ExportFormats.XSLT_MAPPINGS.entrySet()) {
+            if (!mapping.getValue().endsWith(".xsl")) continue;
+            File xsltFile = stylesheetIndex.get().resolve(mapping.getKey());
+            if (xsltFile != null) stylesheets.add(xsltFile);
         }
-        return null;
+        exportService.get().precompile(stylesheets);
     }
 
     @FXML public void exportHtml() { performExport("HTML", "html", null); }
@@ -464,20 +634,39 @@ public class EditorController {
     @FXML public void validateXml() {
         statusLabel.setText("Validating...");
         statusLabel.setStyle("-fx-text-fill: black;");
-        new Thread(() -> {
-            boolean isValid = validationService.validateTei(codeEditor.getText());
-            Platform.runLater(() -> {
-                if (isValid) { statusLabel.setText("✔ Valid TEI XML"); statusLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;"); }
-                else { statusLabel.setText("✘ Invalid TEI XML"); statusLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;"); }
-            });
-        }).start();
+        validationScheduler.submitNow(document.snapshot());
+    }
+
+    private void onValidated(long version, ValidationReport report) {
+        Platform.runLater(() -> {
+            // A newer edit may have landed while the result was queued
+            if (version == document.version()) showValidationReport(report);
+        });
+    }
+
+    private void showValidationReport(ValidationReport report) {
+        if (report.isValid()) {
+            statusLabel.setText("✔ Valid TEI XML (" + report.elapsedMs() + " ms)");
+            statusLabel.setStyle("-fx-text-fill: green; -fx-font-weight: bold;");
+            statusLabel.setTooltip(null);
+            return;
+        }
+        int count = report.errors().size();
+        String countText = report.truncated() ? count + "+ errors" : count + (count == 1 ? " error" : " errors");
+        ValidationError first = report.firstError();
+        statusLabel.setText("✘ Invalid TEI XML (" + countText + ") - first at line " + first.line() + ", col " + first.column());
+        statusLabel.setStyle("-fx-text-fill: red; -fx-font-weight: bold;");
+
+        StringBuilder details = new StringBuilder();
+        for (ValidationError error : report.errors()) details.append(error).append("\n");
+        statusLabel.setTooltip(new Tooltip(details.toString()));
     }
 
     // --- CLIPBOARD ---
     @FXML public void handleCopy() {
         if (!isVisualFocused) { codeEditor.copy(); return; }
         if (webEngine.getLoadWorker().getState() == Worker.State.SUCCEEDED) {
-            Object result = webEngine.executeScript("getSelectedXml()");
+            Object result = visualBridge.call("getSelectedXml");
             if (result instanceof String && !((String) result).isEmpty()) {
                 ClipboardContent content = new ClipboardContent();
                 content.putString((String) result);
@@ -497,92 +686,402 @@ public class EditorController {
         Clipboard clipboard = Clipboard.getSystemClipboard();
         if (clipboard.hasString()) {
             snapshotBeforeAction();
-            String content = clipboard.getString();
-            String safeContent = content.replace("\\", "\\\\").replace("'", "\\'").replace("\n", " ").replace("\r", " ");
-            webEngine.executeScript("pasteXml('" + safeContent + "')");
+            visualBridge.call("pasteXml", clipboard.getString());
             statusLabel.setText("Pasted from clipboard.");
         }
     }
 
     // --- UNDO/REDO ---
-    private void commitToUndoHistory(String state) {
-        if (state == null || state.isEmpty()) return;
-        if (!undoStack.isEmpty() && undoStack.peek().equals(state)) return;
-        undoStack.push(state);
-        redoStack.clear(); 
-        statusLabel.setText("State saved.");
+    private void commitToUndoHistory() {
+        if (undoHistory.commit()) statusLabel.setText("State saved.");
     }
 
     @FXML public void handleUndo() {
-        if (undoStack.isEmpty()) { statusLabel.setText("Nothing to Undo."); return; }
+        if (!undoHistory.canUndo()) {
+            statusLabel.setText(undoHistory.hasDroppedSteps()
+                    ? "Nothing more to Undo in memory. Older versions are in Edit > Version History."
+                    : "Nothing to Undo.");
+            return;
+        }
+        UndoHistory.Group step = undoHistory.undo();
+        if (step == null) { statusLabel.setText("Nothing to Undo."); return; }
         isUndoingRedoing = true; 
-        redoStack.push(codeEditor.getText());
-        codeEditor.setText(undoStack.pop());
+        applyDeltas(step.inverse());
+        undoHistory.logApplied(step.inverse());
         syncCodeToVisual();
         isUndoingRedoing = false; 
         statusLabel.setText("Undid action.");
     }
 
     @FXML public void handleRedo() {
-        if (redoStack.isEmpty()) { statusLabel.setText("Nothing to Redo."); return; }
+        if (!undoHistory.canRedo()) { statusLabel.setText("Nothing to Redo."); return; }
+        UndoHistory.Group step = undoHistory.redo();
         isUndoingRedoing = true; 
-        undoStack.push(codeEditor.getText());
-        codeEditor.setText(redoStack.pop());
+        applyDeltas(step.deltas());
+        undoHistory.logApplied(step.deltas());
         syncCodeToVisual();
         isUndoingRedoing = false; 
         statusLabel.setText("Redid action.");
     }
 
+    /**
+     * Lists every version the on-disk logs hold for this document, including those undo no
+     * longer reaches, and replaces the text with the chosen one as a single undoable step.
+     */
+    @FXML public void handleVersionHistory() {
+        commitToUndoHistory();
+        Path dir = historyDirectory();
+        statusLabel.setText("Reading version history...");
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return VersionLog.versionsIn(dir);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((versions, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                statusLabel.setText("Could not read version history.");
+                showError("Could not read version history", error.getCause().getMessage());
+                return;
+            }
+            if (versions.isEmpty()) { statusLabel.setText("No version history for this document."); return; }
+            statusLabel.setText(versions.size() + " version(s) in history.");
+            chooseVersion(versions).ifPresent(this::restoreVersion);
+        }));
+    }
+
+    private Optional<VersionLog.Version> chooseVersion(List<VersionLog.Version> versions) {
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        ListView<VersionLog.Version> list = new ListView<>(FXCollections.observableList(versions));
+        list.setCellFactory(view -> new ListCell<>() {
+            @Override protected void updateItem(VersionLog.Version version, boolean empty) {
+                super.updateItem(version, empty);
+                if (empty || version == null) { setText(null); return; }
+                String when = LocalDateTime.ofInstant(Instant.ofEpochMilli(version.timestamp()), ZoneId.systemDefault()).format(format);
+                setText(when + (version.opened() ? "   opened" : "   edited"));
+            }
+        });
+        list.getSelectionModel().selectFirst();
+        list.setPrefSize(360, 400);
+
+        Dialog<VersionLog.Version> dialog = new Dialog<>();
+        dialog.setTitle("Version History");
+        dialog.setHeaderText("Restore " + (currentFile != null ? currentFile.getName() : "this document") + " as it was at:");
+        ButtonType btnRestore = new ButtonType("Restore", ButtonBar.ButtonData.OK_DONE);
+        dialog.getDialogPane().getButtonTypes().setAll(btnRestore, ButtonType.CANCEL);
+        dialog.getDialogPane().setContent(list);
+        dialog.getDialogPane().lookupButton(btnRestore).disableProperty().bind(list.getSelectionModel().selectedItemProperty().isNull());
+        list.setOnMouseClicked(e -> {
+            if (e.getClickCount() == 2 && list.getSelectionModel().getSelectedItem() != null) {
+                ((Button) dialog.getDialogPane().lookupButton(btnRestore)).fire();
+            }
+        });
+        dialog.setResultConverter(button -> button == btnRestore ? list.getSelectionModel().getSelectedItem() : null);
+        return dialog.showAndWait();
+    }
+
+    private void restoreVersion(VersionLog.Version version) {
+        statusLabel.setText("Restoring version...");
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return VersionLog.reconstruct(version.file(), version.timestamp());
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((text, error) -> Platform.runLater(() -> {
+            if (error != null || text == null) {
+                statusLabel.setText("Could not restore version.");
+                showError("Could not restore version", error != null ? error.getCause().getMessage() : "The log has no copy of the document from that time.");
+                return;
+            }
+            // One step, so Undo brings back what was there before
+            codeEditor.replaceText(0, codeEditor.getLength(), text);
+            commitToUndoHistory();
+            statusLabel.setText("Restored version. Undo to go back.");
+        }));
+    }
+
+    private void applyDeltas(List<TextDelta> deltas) {
+        for (TextDelta delta : deltas) {
+            codeEditor.replaceText(delta.offset(), delta.offset() + delta.removed().length(), delta.inserted());
+        }
+    }
+
+    /**
+     * Starts a fresh undo history (and on-disk version log) for the current document, and
+     * trims the logs of earlier sessions to {@link #HISTORY_RETENTION} in the background.
+     */
+    private void resetHistory() {
+        String session = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".log";
+        Path logFile = historyDirectory().resolve(session);
+        try {
+            undoHistory.reset(new VersionLog(logFile, document::snapshot));
+        } catch (IOException e) {
+            System.err.println("Warning: Version log disabled. " + e.getMessage());
+            undoHistory.reset(null);
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                VersionLog.prune(HISTORY_DIR, HISTORY_RETENTION, logFile);
+            } catch (IOException e) {
+                System.err.println("Warning: Could not prune version history. " + e.getMessage());
+            }
+        });
+    }
+
+    private Path historyDirectory() {
+        String name = currentFile != null
+                ? currentFile.getName() + "-" + Integer.toHexString(currentFile.getAbsolutePath().hashCode())
+                : "untitled";
+        return HISTORY_DIR.resolve(name);
+    }
+
     // --- SYNC ---
     public void updateFromVisual(String xmlContent) {
         if (isUpdatingFromCode) return;
         if (isUndoingRedoing) return;
         isUpdatingFromVisual = true;
         Platform.runLater(() -> {
-            if (typingTimer.getStatus() != javafx.animation.Animation.Status.RUNNING) commitToUndoHistory(codeEditor.getText());
-            typingTimer.playFromStart();
-            String formattedXml = formatXml(xmlContent);
-            codeEditor.setText(formattedXml);
-            isUpdatingFromVisual = false;
+            try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.VISUAL_BRIDGE, "updateFromVisual").bytes(xmlContent.length())) {
+                commitToUndoHistory();
+                typingTimer.playFromStart();
+                String formattedXml = formatXml(xmlContent);
+                applyTextChange(formattedXml);
+                // The visual view already shows this edit
+                markVisualSynced(document.snapshot());
+            } finally {
+                isUpdatingFromVisual = false;
+            }
         });
     }
     
-    private void snapshotBeforeAction() { commitToUndoHistory(codeEditor.getText()); }
+    /**
+     * Fine-grained counterpart of {@link #updateFromVisual}: only the element at {@code path}
+     * changed, and {@code fragmentXml} is its new XML. Just that region of the code is rewritten.
+     *
+     * @param kind what happened ("text", "insert", "delete" or "move")
+     * @param path comma-separated child-element indexes below the root ("" for the root)
+     */
+    public void updateSubtreeFromVisual(String kind, String path, String fragmentXml) {
+        if (isUpdatingFromCode) return;
+        if (isUndoingRedoing) return;
+        isUpdatingFromVisual = true;
+        Platform.runLater(() -> {
+            try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.VISUAL_BRIDGE, "updateSubtreeFromVisual").bytes(fragmentXml.length())) {
+                // Keep typing in one burst as a single undo step; structural changes get their own
+                if (!"text".equals(kind)) commitToUndoHistory();
+                typingTimer.playFromStart();
+                if (!spliceFromVisual(parsePath(path), fragmentXml)) {
+                    // Code and visual view disagree about the structure; take the whole document
+                    Object fullXml = visualBridge.call("serializeDom");
+                    applyTextChange(formatXml(String.valueOf(fullXml)));
+                }
+                markVisualSynced(document.snapshot());
+            } finally {
+                isUpdatingFromVisual = false;
+            }
+        });
+    }
+
+    /**
+     * Replaces the element at {@code path} in the code with the fragment, re-indented unless
+     * the element sits in mixed content, where its whitespace is part of the text.
+     *
+     * @return false if the code has no element at that path
+     */
+    private boolean spliceFromVisual(int[] path, String fragmentXml) {
+        DocumentSnapshot current = document.snapshot();
+
+        // 1. Find the element, reusing the previous splice's bounds while typing in the same element
+        XmlSubtreeLocator.Placement placement = lastVisualSplice;
+        if (placement == null || lastVisualSpliceVersion != current.version() || !Arrays.equals(placement.subtree().path(), path)) {
+            placement = XmlSubtreeLocator.findPlacement(current, path);
+            if (placement == null) return false;
+        }
+        XmlSubtreeLocator.Subtree target = placement.subtree();
+
+        // 2. Format the fragment at the element's current indentation, or keep it as sent inside a paragraph
+        String formatted = placement.inline()
+                ? fragmentXml
+                : formatXmlFragment(fragmentXml, lineIndent(current, target.start()));
+
+        // 3. Replace only the part of the element that differs
+        String old = current.subSequence(target.start(), target.end()).toString();
+        int prefix = 0;
+        int limit = Math.min(old.length(), formatted.length());
+        while (prefix < limit && old.charAt(prefix) == formatted.charAt(prefix)) prefix++;
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && old.charAt(old.length() - 1 - suffix) == formatted.charAt(formatted.length() - 1 - suffix)) suffix++;
+        if (prefix < old.length() || prefix < formatted.length()) {
+            codeEditor.replaceText(target.start() + prefix, target.end() - suffix,
+                    formatted.substring(prefix, formatted.length() - suffix));
+        }
+
+        lastVisualSplice = new XmlSubtreeLocator.Placement(
+                new XmlSubtreeLocator.Subtree(path, target.start(), target.start() + formatted.length()), placement.inline());
+        lastVisualSpliceVersion = document.version();
+        return true;
+    }
+
+    private static int[] parsePath(String path) {
+        if (path == null || path.isEmpty()) return new int[0];
+        String[] parts = path.split(",");
+        int[] indexes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) indexes[i] = Integer.parseInt(parts[i].trim());
+        return indexes;
+    }
+
+    /**
+     * Leading whitespace of the line containing {@code offset}.
+     */
+    private static String lineIndent(CharSequence text, int offset) {
+        int lineStart = offset;
+        while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+        int end = lineStart;
+        while (end < offset && (text.charAt(end) == ' ' || text.charAt(end) == '\t')) end++;
+        return text.subSequence(lineStart, end).toString();
+    }
+
+    private void snapshotBeforeAction() { commitToUndoHistory(); }
+
+    /**
+     * TextFormatter filter: applies each TextArea change to the piece table as a localized edit.
+     */
+    private TextFormatter.Change mirrorEditToDocument(TextFormatter.Change change) {
+        if (!change.isContentChange()) return change;
 
+        // Drop the control characters the TextArea would strip, so both copies stay identical
+        String text = change.getText();
+        String filtered = stripControlChars(text);
+        if (!filtered.equals(text)) change.setText(filtered);
+
+        if (!isUndoingRedoing) {
+            String removed = document.substring(change.getRangeStart(), change.getRangeEnd());
+            undoHistory.record(new TextDelta(change.getRangeStart(), removed, filtered));
+        }
+
+        visualPendingChanges.include(change.getRangeStart(), change.getRangeEnd(), document.length());
+
+        if (change.getRangeStart() == 0 && change.getRangeEnd() == document.length()) {
+            document.reset(filtered);
+        } else {
+            document.replace(change.getRangeStart(), change.getRangeEnd(), filtered);
+        }
+        return change;
+    }
+
+    private static String stripControlChars(String text) {
+        StringBuilder sb = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean allowed = c >= 0x20 && c != 0x7F || c == '\n' || c == '\t';
+            if (!allowed && sb == null) sb = new StringBuilder(text.length()).append(text, 0, i);
+            else if (allowed && sb != null) sb.append(c);
+        }
+        return sb == null ? text : sb.toString();
+    }
+
+    /**
+     * Applies new full text to the editor as one localized replace of the region that actually changed.
+     */
+    private void applyTextChange(String newText) {
+        DocumentSnapshot current = document.snapshot();
+        int prefix = current.commonPrefixLength(newText);
+        if (prefix == current.length() && prefix == newText.length()) return;
+        int suffix = current.commonSuffixLength(newText, prefix);
+        codeEditor.replaceText(prefix, current.length() - suffix, newText.substring(prefix, newText.length() - suffix));
+    }
+
+    /**
+     * Brings the visual view up to date with the code. Only the innermost element enclosing
+     * all edits since the last sync is sent and patched; the whole document is the fallback.
+     */
     private void syncCodeToVisual() {
-        if (webEngine != null && webEngine.getLoadWorker().getState() == Worker.State.SUCCEEDED) {
-            String cleanXml = codeEditor.getText().replace("\\", "\\\\").replace("'", "\\'").replace("\n", " ").replace("\r", " ");
-            webEngine.executeScript("renderFromXml('" + cleanXml + "')");
+        if (visualSyncDeferred) return;
+        if (webEngine == null || webEngine.getLoadWorker().getState() != Worker.State.SUCCEEDED) return;
+        DocumentSnapshot current = document.snapshot();
+        DocumentSnapshot previous = lastVisualSync;
+        if (previous != null && previous.version() == current.version()) return;
+
+        // 1. Patch just the subtree that changed
+        if (previous != null && !visualPendingChanges.isEmpty()) {
+            XmlSubtreeLocator.Subtree subtree = XmlSubtreeLocator.locateChange(previous, current,
+                    visualPendingChanges.unchangedPrefix(), visualPendingChanges.unchangedSuffix());
+            if (subtree != null && patchVisual(subtree.path(), current.subSequence(subtree.start(), subtree.end()))) {
+                markVisualSynced(current);
+                return;
+            }
         }
+
+        // 2. Otherwise reconcile the whole document (unchanged nodes are still reused)
+        if (patchVisual(new int[0], current)) markVisualSynced(current);
+    }
+
+    private boolean patchVisual(int[] path, CharSequence xml) {
+        Object patched = visualBridge.call("patchSubtree", joinPath(path), xml);
+        return Boolean.TRUE.equals(patched);
+    }
+
+    private void markVisualSynced(DocumentSnapshot snapshot) {
+        lastVisualSync = snapshot;
+        visualPendingChanges.clear();
+    }
+
+    private static String joinPath(int[] path) {
+        StringBuilder sb = new StringBuilder();
+        for (int index : path) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(index);
+        }
+        return sb.toString();
     }
     
+    /**
+     * Formats an element on its own, indenting every line after the first by {@code indent}.
+     */
+    private String formatXmlFragment(String xml, String indent) {
+        try {
+            return xmlFormatter.formatElement(xml, indent);
+        } catch (XMLStreamException e) {
+            reportFormatFailure(e);
+            return xml;
+        }
+    }
+
     private String formatXml(String xml) {
         try {
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "no");
-            StreamResult result = new StreamResult(new StringWriter());
-            StreamSource source = new StreamSource(new StringReader(xml));
-            transformer.transform(source, result);
-            return result.getWriter().toString();
-        } catch (Exception e) { return xml; }
+            return xmlFormatter.format(xml);
+        } catch (XMLStreamException e) {
+            reportFormatFailure(e);
+            return xml;
+        }
+    }
+
+    private void reportFormatFailure(XMLStreamException e) {
+        // The edit still goes through, just unformatted
+        System.err.println("Warning: Could not format XML: " + e.getMessage());
+        statusLabel.setText("Formatting skipped: " + e.getMessage());
     }
 
     // --- DOM OPS ---
     private void insertElement(String tagName) {
         if (webEngine.getLoadWorker().getState() == Worker.State.SUCCEEDED) {
+            String parent = insertionParent();
+            if (!ContentModel.tei().canContain(parent, tagName)) {
+                statusLabel.setText("<" + tagName + "> is not allowed inside <" + parent + ">");
+                return;
+            }
             snapshotBeforeAction();
             visualWebView.requestFocus(); 
-            webEngine.executeScript("insertTeiElement('" + tagName + "')");
+            visualBridge.call("insertTeiElement", tagName);
         }
     }
     
     @FXML public void handleDelete() {
         if (webEngine != null && webEngine.getLoadWorker().getState() == Worker.State.SUCCEEDED) {
             snapshotBeforeAction();
-            webEngine.executeScript("deleteSelectedElement()");
+            visualBridge.call("deleteSelectedElement");
         }
     }
 
@@ -598,6 +1097,8 @@ public class EditorController {
             "Notes & Refs", List.of("note", "ref", "ptr", "anchor")
         );
         tagAccordion.getPanes().clear();
+        tagButtons.clear();
+        tagAccordion.getPanes().add(createAllowedHerePane());
         tagCategories.forEach((category, tags) -> {
             FlowPane content = new FlowPane();
             content.setVgap(5); content.setHgap(5); content.setPadding(new Insets(10));
@@ -608,10 +1109,76 @@ public class EditorController {
                 tagBtn.setTooltip(new Tooltip("Insert <" + tag + "> element"));
                 tagBtn.setOnAction(e -> insertElement(tag));
                 content.getChildren().add(tagBtn);
+                tagButtons.put(tag, tagBtn);
             }
             tagAccordion.getPanes().add(new TitledPane(category, content));
         });
-        if (!tagAccordion.getPanes().isEmpty()) tagAccordion.setExpandedPane(tagAccordion.getPanes().get(0));
+        if (tagAccordion.getPanes().size() > 1) tagAccordion.setExpandedPane(tagAccordion.getPanes().get(1));
+    }
+
+    /**
+     * Every element the schema allows inside the selection, with a filter box; double-click or Enter inserts.
+     */
+    private TitledPane createAllowedHerePane() {
+        TextField filter = new TextField();
+        filter.setPromptText("Filter elements");
+        ListView<String> list = new ListView<>(allowedHere);
+        list.setPrefHeight(220);
+        filter.textProperty().addListener((obs, old, text) -> {
+            String needle = text.strip().toLowerCase();
+            allowedHere.setPredicate(needle.isEmpty() ? null : tag -> tag.toLowerCase().contains(needle));
+        });
+        Runnable insertChosen = () -> {
+            String tag = list.getSelectionModel().getSelectedItem();
+            if (tag != null) insertElement(tag);
+        };
+        list.setOnMouseClicked(e -> { if (e.getClickCount() == 2) insertChosen.run(); });
+        list.setOnKeyPressed(e -> { if (e.getCode() == KeyCode.ENTER) insertChosen.run(); });
+
+        VBox content = new VBox(5, filter, list);
+        content.setPadding(new Insets(10));
+        allowedHerePane = new TitledPane("Allowed in <body>", content);
+        return allowedHerePane;
+    }
+
+    /**
+     * Filters the sidebar to what the schema allows inside {@code parent}: category buttons for
+     * other elements are disabled, and the "Allowed in" list shows every element that fits.
+     */
+    private void updateAllowedElements(String parent) {
+        ContentModel model = ContentModel.tei();
+        for (Map.Entry<String, Button> entry : tagButtons.entrySet()) {
+            boolean allowed = model.canContain(parent, entry.getKey());
+            entry.getValue().setDisable(!allowed);
+            entry.getValue().setTooltip(new Tooltip(allowed
+                    ? "Insert <" + entry.getKey() + "> element"
+                    : "Not allowed inside <" + parent + ">"));
+        }
+        if (allowedHerePane != null) {
+            allowedHerePane.setText("Allowed in <" + parent + ">");
+            allowedHereSource.setAll(model.isKnown(parent) ? model.allowedChildren(parent) : model.elementNames());
+        }
+    }
+
+    // Called from the visual editor whenever its selection changes; null when nothing is selected
+    public void onVisualSelection(String tag) {
+        selectedTag = tag;
+        updateAllowedElements(insertionParent());
+    }
+
+    /**
+     * The elements that may contain {@code tag}, space-separated, for the visual editor's drop
+     * targets; null if the schema doesn't know the element, so any container will do.
+     */
+    public String allowedParentsOf(String tag) {
+        ContentModel model = ContentModel.tei();
+        if (!model.isKnown(tag)) return null;
+        return String.join(" ", model.allowedParents(tag));
+    }
+
+    // Where the visual editor puts a new element: inside the selection, or in body
+    private String insertionParent() {
+        return selectedTag != null ? selectedTag : "body";
     }
 
     @FXML public void handleToggleSidebar() {
@@ -640,14 +1207,18 @@ public class EditorController {
 
     // --- FILE OPS ---
     @FXML public void handleNew() {
-        if (!codeEditor.getText().equals(DEFAULT_TEMPLATE) && currentFile == null) {
+        if (!DEFAULT_TEMPLATE.contentEquals(document.snapshot()) && currentFile == null) {
             Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
             alert.setTitle("New Document"); alert.setHeaderText("Discard changes?"); alert.setContentText("Start new document?");
             if (alert.showAndWait().orElse(ButtonType.CANCEL) == ButtonType.CANCEL) return;
         }
         currentFile = null;
+        currentEncoding = StandardCharsets.UTF_8;
+        currentHasBom = false;
         codeEditor.setText(DEFAULT_TEMPLATE);
-        undoStack.clear(); redoStack.clear();
+        resetHistory();
+        updateAutosaveSource();
+        if (autosaveJournal != null) autosaveJournal.markSaved(document.snapshot());
         statusLabel.setText("New document created.");
     }
 
@@ -656,14 +1227,127 @@ public class EditorController {
         fileChooser.setTitle("Open TEI XML");
         fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("TEI XML", "*.xml", "*.tei"));
         File file = fileChooser.showOpenDialog(null);
-        if (file != null) {
-            try {
-                String content = Files.readString(file.toPath());
-                currentFile = file;
-                codeEditor.setText(content);
-                undoStack.clear(); redoStack.clear();
-                statusLabel.setText("Opened: " + file.getName());
-            } catch (IOException e) { showError("Read Error", e.getMessage()); }
+        if (file == null) return;
+        openFile(file, null);
+    }
+
+    // Then runs afterwards, once the document is showing
+    private void openFile(File file, Runnable then) {
+        openInBackground(file.toPath(), loaded -> {
+            showOpenedDocument(file, loaded);
+            statusLabel.setText("Opened: " + file.getName() + " (" + currentEncoding.name() + ")");
+            updateAutosaveSource();
+            if (autosaveJournal != null) autosaveJournal.markSaved(document.snapshot());
+            if (then != null) then.run();
+        });
+    }
+
+    // --- WORKSPACE ---
+    @FXML public void handleOpenFolder() {
+        DirectoryChooser chooser = new DirectoryChooser();
+        chooser.setTitle("Open Folder");
+        if (corpusIndex != null) chooser.setInitialDirectory(corpusIndex.root().toFile());
+        File dir = chooser.showDialog(statusLabel.getScene().getWindow());
+        if (dir == null) return;
+
+        if (corpusPanel != null) corpusPanel.close();
+        if (corpusIndex != null) corpusIndex.close();
+        // Loads the saved index and brings it up to date in the background
+        corpusIndex = new CorpusIndex(dir.toPath(), CORPUS_INDEX_DIR);
+        corpusPanel = new CorpusPanel(statusLabel.getScene().getWindow(), corpusIndex, this::openSearchHit);
+        corpusPanel.show();
+        statusLabel.setText("Indexing " + dir.getName() + " in the background...");
+    }
+
+    @FXML public void handleSearchFolder() {
+        if (corpusPanel == null) handleOpenFolder();
+        else corpusPanel.show();
+    }
+
+    private void openSearchHit(CorpusIndex.Hit hit) {
+        openFile(hit.file().toFile(), () -> {
+            if (hit.line() > 0) selectLine(hit.line());
+        });
+    }
+
+    private void selectLine(int line) {
+        // Found in the piece table, so a long document isn't copied out of the TextArea to count lines
+        DocumentSnapshot text = document.snapshot();
+        int start = line <= 1 ? 0 : -1;
+        int end = -1;
+        int currentLine = 1;
+        char[] buffer = new char[8192];
+        try (Reader reader = text.openReader()) {
+            int offset = 0;
+            for (int n; end < 0 && (n = reader.read(buffer)) > 0; offset += n) {
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != '\n') continue;
+                    if (start >= 0) { end = offset + i; break; }
+                    if (++currentLine == line) start = offset + i + 1;
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        if (start < 0) return;
+        codeEditor.requestFocus();
+        codeEditor.selectRange(start, end < 0 ? text.length() : end);
+    }
+
+    private void openInBackground(Path path, Consumer<DocumentLoader.LoadedDocument> onLoaded) {
+        if (pendingOpen != null) pendingOpen.cancel(false);
+
+        // 1. Read and decode in the background; the editor stays usable meanwhile
+        statusLabel.setText("Opening " + path.getFileName() + "...");
+        showLoadProgress(true);
+        loadProgress.setProgress(ProgressBar.INDETERMINATE_PROGRESS);
+        CompletableFuture<DocumentLoader.LoadedDocument> open = documentLoader.load(path, (read, total) ->
+                Platform.runLater(() -> loadProgress.setProgress(total == 0 ? 1 : (double) read / total)));
+        pendingOpen = open;
+
+        // 2. Show it, unless another open or a cancel superseded this one
+        open.whenComplete((loaded, error) -> Platform.runLater(() -> {
+            if (pendingOpen != open) return;
+            pendingOpen = null;
+            showLoadProgress(false);
+            if (error instanceof CancellationException) {
+                statusLabel.setText("Open cancelled.");
+            } else if (error != null) {
+                statusLabel.setText("Could not open " + path.getFileName());
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showError("Read Error", cause.getMessage());
+            } else {
+                onLoaded.accept(loaded);
+            }
+        }));
+    }
+
+    @FXML public void handleCancelTask() {
+        if (pendingOpen != null) pendingOpen.cancel(false);
+        if (pendingInstall != null) pendingInstall.cancel(false);
+    }
+
+    private void showOpenedDocument(File file, DocumentLoader.LoadedDocument loaded) {
+        currentFile = file;
+        currentEncoding = loaded.charset();
+        currentHasBom = loaded.byteOrderMark();
+
+        // The code view comes first; the visual view is built once it has painted
+        visualSyncDeferred = true;
+        codeEditor.setText(loaded.text());
+        resetHistory();
+        PauseTransition settle = new PauseTransition(Duration.millis(50));
+        settle.setOnFinished(e -> {
+            visualSyncDeferred = false;
+            syncCodeToVisual();
+        });
+        settle.play();
+    }
+
+    private void showLoadProgress(boolean visible) {
+        for (Control control : List.of(loadProgress, cancelLoadBtn)) {
+            control.setVisible(visible);
+            control.setManaged(visible);
         }
     }
 
@@ -679,13 +1363,114 @@ public class EditorController {
         if (file != null) saveToFile(file);
     }
 
+    /**
+     * Saves in the background from a snapshot; the editor stays usable while the file is written.
+     */
     private void saveToFile(File file) {
-        try { Files.writeString(file.toPath(), codeEditor.getText()); currentFile = file; statusLabel.setText("Saved: " + file.getName()); }
-        catch (IOException e) { showError("Save Error", e.getMessage()); }
+        DocumentSnapshot snapshot = document.snapshot();
+        Charset encoding = currentEncoding;
+        boolean bom = currentHasBom;
+        statusLabel.setText("Saving " + file.getName() + "...");
+        documentSaver.save(snapshot, file.toPath(), encoding, bom).whenComplete((ignored, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                statusLabel.setText("Save failed.");
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                showError("Save Error", cause.getMessage());
+                return;
+            }
+            currentFile = file;
+            statusLabel.setText("Saved: " + file.getName());
+            updateAutosaveSource();
+            if (autosaveJournal != null) autosaveJournal.markSaved(snapshot);
+        }));
+    }
+
+    // --- AUTOSAVE ---
+    private void updateAutosaveSource() {
+        if (autosaveJournal != null) {
+            autosaveJournal.setSource(currentFile != null ? currentFile.toPath() : null, currentEncoding, currentHasBom);
+        }
+    }
+
+    /**
+     * Offers to restore work an earlier session autosaved but never saved (it crashed or was killed).
+     */
+    private void offerRecovery() {
+        for (AutosaveJournal.Entry entry : AutosaveJournal.findRecoverable(AUTOSAVE_DIR)) {
+            String name = entry.source() != null ? entry.source().getFileName().toString() : "An untitled document";
+            String when = LocalDateTime.ofInstant(entry.savedAt(), ZoneId.systemDefault())
+                    .format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+            alert.setTitle("Recover Unsaved Changes");
+            alert.setHeaderText("The editor did not close normally");
+            alert.setContentText(name + " had unsaved changes (autosaved " + when + ").\n\nRecover them?");
+            ButtonType btnRecover = new ButtonType("Recover");
+            ButtonType btnDiscard = new ButtonType("Discard");
+            ButtonType btnLater = new ButtonType("Not Now", ButtonBar.ButtonData.CANCEL_CLOSE);
+            alert.getButtonTypes().setAll(btnRecover, btnDiscard, btnLater);
+
+            ButtonType choice = alert.showAndWait().orElse(btnLater);
+            if (choice == btnRecover) {
+                recover(entry);
+                return;
+            }
+            if (choice == btnDiscard) {
+                try { entry.delete(); } catch (IOException e) { System.err.println("Warning: Could not discard autosave. " + e.getMessage()); }
+            }
+        }
+    }
+
+    private void recover(AutosaveJournal.Entry entry) {
+        openInBackground(entry.textFile(), loaded -> {
+            File source = entry.source() != null ? entry.source().toFile() : null;
+            // Saving goes back to the original file, in its original encoding
+            showOpenedDocument(source, new DocumentLoader.LoadedDocument(loaded.text(), entry.charset(), entry.byteOrderMark()));
+            statusLabel.setText("Recovered unsaved changes" + (source != null ? " to " + source.getName() : "") + ". Save to keep them.");
+            updateAutosaveSource();
+            // The old entry goes only once this session's journal holds the text
+            if (autosaveJournal != null) {
+                autosaveJournal.offer(document.snapshot());
+                autosaveJournal.flush().thenRun(() -> {
+                    try { entry.delete(); } catch (IOException e) { System.err.println("Warning: Could not discard autosave. " + e.getMessage()); }
+                });
+            }
+        });
+    }
+
+    /**
+     * Called once when the application exits normally.
+     */
+    public void shutdown() {
+        validationScheduler.shutdown();
+        exportJobs.shutdown();
+        documentSaver.shutdown();
+        if (autosaveJournal != null) autosaveJournal.close();
+        if (stylesheetIndex.isCreated()) stylesheetIndex.get().close();
+        if (corpusIndex != null) corpusIndex.close();
+        // -Dteieditor.diagnostics.dump=FILE keeps this session's timings for offline analysis
+        String dump = System.getProperty("teieditor.diagnostics.dump");
+        if (dump != null) {
+            try {
+                Diagnostics.writeJson(Path.of(dump));
+            } catch (IOException e) {
+                System.err.println("Warning: Could not write diagnostics to " + dump + ". " + e.getMessage());
+            }
+        }
     }
 
     @FXML public void handleExit() { Platform.exit(); }
 
+    @FXML public void handleShowDiagnostics() {
+        if (diagnosticsPanel == null) diagnosticsPanel = new DiagnosticsPanel(statusLabel.getScene().getWindow());
+        diagnosticsPanel.show();
+    }
+
+    @FXML public void handleShowExportJobs() {
+        if (exportJobsPanel == null) exportJobsPanel = new ExportJobsPanel(statusLabel.getScene().getWindow(), exportJobs);
+        exportJobsPanel.show();
+    }
+
     // --- Menu Helpers ---
     @FXML public void insertDiv() { insertElement("div"); }
     @FXML public void insertHead() { insertElement("head"); }
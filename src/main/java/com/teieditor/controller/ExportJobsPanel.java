@@ -0,0 +1,114 @@
+package com.teieditor.controller;
+
+import com.teieditor.service.ExportJob;
+import com.teieditor.service.ExportJobManager;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.geometry.Insets;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.control.cell.ProgressBarTableCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A window listing queued, running and finished exports, refreshed twice a second while open.
+ */
+class ExportJobsPanel {
+
+    private final ExportJobManager manager;
+    private final Stage stage = new Stage();
+    private final TableView<ExportJob> table = new TableView<>();
+    private final Timeline refresher = new Timeline(new KeyFrame(Duration.millis(500), e -> refresh()));
+
+    ExportJobsPanel(Window owner, ExportJobManager manager) {
+        this.manager = manager;
+
+        table.getColumns().add(column("Format", 80, ExportJob::formatName));
+        table.getColumns().add(column("File", 220, job -> job.outputFile().getName()));
+        table.getColumns().add(column("State", 90, job -> job.state().name().charAt(0) + job.state().name().substring(1).toLowerCase()));
+        TableColumn<ExportJob, Double> progress = new TableColumn<>("Progress");
+        progress.setPrefWidth(120);
+        progress.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(progressOf(cell.getValue())));
+        progress.setCellFactory(ProgressBarTableCell.forTableColumn());
+        table.getColumns().add(progress);
+        TableColumn<ExportJob, String> duration = column("Duration", 80, job -> seconds(job.elapsed()));
+        duration.setStyle("-fx-alignment: CENTER-RIGHT;");
+        table.getColumns().add(duration);
+        table.getColumns().add(column("Status", 260, ExportJob::message));
+        table.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        table.setPlaceholder(new Label("No exports yet."));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        Button cancelBtn = new Button("Cancel Selected");
+        cancelBtn.setOnAction(e -> {
+            for (ExportJob job : List.copyOf(table.getSelectionModel().getSelectedItems())) job.cancel();
+            refresh();
+        });
+        Button clearBtn = new Button("Clear Finished");
+        clearBtn.setOnAction(e -> {
+            manager.clearFinished();
+            refresh();
+        });
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        HBox buttons = new HBox(8, spacer, cancelBtn, clearBtn);
+
+        VBox root = new VBox(8, table, buttons);
+        root.setPadding(new Insets(10));
+        stage.setScene(new Scene(root, 900, 360));
+        stage.setTitle("Export Jobs");
+        if (owner != null) stage.initOwner(owner);
+
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        stage.setOnShown(e -> refresher.play());
+        stage.setOnHidden(e -> refresher.stop());
+    }
+
+    void show() {
+        refresh();
+        stage.show();
+        stage.toFront();
+    }
+
+    private void refresh() {
+        // Update the rows in place so the selection survives
+        List<ExportJob> jobs = manager.jobs();
+        table.getItems().retainAll(jobs);
+        for (ExportJob job : jobs) {
+            if (!table.getItems().contains(job)) table.getItems().add(job);
+        }
+        table.refresh();
+    }
+
+    // Queued shows empty, unknown progress shows the indeterminate bar
+    private static double progressOf(ExportJob job) {
+        if (job.state() == ExportJob.State.QUEUED) return 0;
+        if (job.state() == ExportJob.State.SUCCEEDED) return 1;
+        return job.state().isFinished() ? Math.max(0, job.progress()) : job.progress();
+    }
+
+    private static String seconds(java.time.Duration elapsed) {
+        return String.format("%.1f s", elapsed.toMillis() / 1000.0);
+    }
+
+    private static TableColumn<ExportJob, String> column(String title, double width, Function<ExportJob, String> value) {
+        TableColumn<ExportJob, String> column = new TableColumn<>(title);
+        column.setPrefWidth(width);
+        column.setCellValueFactory(cell -> new ReadOnlyObjectWrapper<>(value.apply(cell.getValue())));
+        return column;
+    }
+}
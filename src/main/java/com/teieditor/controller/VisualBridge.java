@@ -0,0 +1,103 @@
+package com.teieditor.controller;
+
+import com.teieditor.service.Diagnostics;
+import javafx.scene.web.WebEngine;
+import netscape.javascript.JSObject;
+
+/**
+ * Calls functions of the visual editor page with real arguments instead of building script source.
+ *
+ * Strings go through {@link JSObject#call} unchanged: no escaping, no giant script literal for
+ * the JS engine to compile, and whitespace arrives exactly as sent. A string argument longer
+ * than {@link #CHUNK_SIZE} chars is handed over in chunks and joined page-side, so a
+ * multi-megabyte document never has to cross the bridge as a single conversion.
+ */
+class VisualBridge {
+
+    static final int CHUNK_SIZE = 512 * 1024;
+
+    private final WebEngine webEngine;
+    private final int chunkSize;
+    private JSObject window;
+
+    VisualBridge(WebEngine webEngine) {
+        this(webEngine, CHUNK_SIZE);
+    }
+
+    VisualBridge(WebEngine webEngine, int chunkSize) {
+        this.webEngine = webEngine;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Binds to the page that just finished loading and exposes {@code javaBridge} to it.
+     */
+    void attach(Object javaBridge) {
+        window = (JSObject) webEngine.executeScript("window");
+        window.setMember("javaBridge", javaBridge);
+    }
+
+    boolean isAttached() {
+        return window != null;
+    }
+
+    /**
+     * Calls a global function of the page. At most one argument may exceed the chunk size.
+     * Each call is timed as a {@link Diagnostics.Operation#VISUAL_BRIDGE} step named after the function.
+     *
+     * @return the function's result, converted as described in {@link JSObject#call}
+     */
+    Object call(String function, Object... args) {
+        long size = 0;
+        for (Object arg : args) {
+            if (arg instanceof CharSequence text) size += text.length();
+        }
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.VISUAL_BRIDGE, function).bytes(size)) {
+            return callUntimed(function, args);
+        }
+    }
+
+    private Object callUntimed(String function, Object... args) {
+        int payload = -1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof CharSequence text && text.length() > chunkSize) {
+                if (payload >= 0) throw new IllegalArgumentException("Only one argument can be chunked.");
+                payload = i;
+            }
+        }
+        if (payload < 0) return window.call(function, toJs(args));
+
+        // 1. Stream the large argument into the page's payload buffer, emptied first in case
+        //    an earlier transfer failed partway and left its chunks behind
+        CharSequence text = (CharSequence) args[payload];
+        window.call("bridgeResetPayload");
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + chunkSize);
+            // Don't split a surrogate pair across chunks
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) end--;
+            window.call("bridgeAppendChunk", text.subSequence(start, end).toString());
+            start = end;
+        }
+
+        // 2. Call the function with the buffered text in its place
+        Object[] callArgs = new Object[args.length + 2];
+        callArgs[0] = function;
+        callArgs[1] = payload;
+        for (int i = 0; i < args.length; i++) {
+            callArgs[2 + i] = i == payload ? null : toJs(args[i]);
+        }
+        return window.call("bridgeCallWithPayload", callArgs);
+    }
+
+    // Arbitrary CharSequences would reach JS as Java objects rather than strings
+    private static Object toJs(Object arg) {
+        return arg instanceof CharSequence text && !(text instanceof String) ? text.toString() : arg;
+    }
+
+    private static Object[] toJs(Object[] args) {
+        Object[] converted = new Object[args.length];
+        for (int i = 0; i < args.length; i++) converted[i] = toJs(args[i]);
+        return converted;
+    }
+}
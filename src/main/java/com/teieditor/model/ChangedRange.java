@@ -0,0 +1,37 @@
+package com.teieditor.model;
+
+/**
+ * Accumulates the region touched by a series of edits, kept as the lengths of the
+ * unchanged prefix and suffix. Both only ever shrink, so the bounds stay valid for
+ * the text before the first edit as well as for the text after the last one.
+ */
+public class ChangedRange {
+
+    private int unchangedPrefix = Integer.MAX_VALUE;
+    private int unchangedSuffix = Integer.MAX_VALUE;
+
+    /**
+     * Records an edit replacing [start, end) of a text that was {@code length} chars long.
+     */
+    public void include(int start, int end, int length) {
+        unchangedPrefix = Math.min(unchangedPrefix, start);
+        unchangedSuffix = Math.min(unchangedSuffix, length - end);
+    }
+
+    public void clear() {
+        unchangedPrefix = Integer.MAX_VALUE;
+        unchangedSuffix = Integer.MAX_VALUE;
+    }
+
+    public boolean isEmpty() {
+        return unchangedPrefix == Integer.MAX_VALUE;
+    }
+
+    public int unchangedPrefix() {
+        return unchangedPrefix;
+    }
+
+    public int unchangedSuffix() {
+        return unchangedSuffix;
+    }
+}
@@ -0,0 +1,280 @@
+package com.teieditor.model;
+
+import java.io.Reader;
+
+/**
+ * Immutable view of a {@link PieceTable} at one version.
+ *
+ * Snapshots share storage with the live buffer, so taking one is cheap and
+ * reading one never blocks the editor. Prefer {@link #openReader()} for
+ * sequential consumers (parsers, serializers); {@link #toString()} copies the
+ * whole text.
+ */
+public final class DocumentSnapshot implements CharSequence {
+
+    private final long version;
+    private final String original;
+    private final char[][] addChunks;
+    private final PieceTable.Piece[] pieces;
+    private final int length;
+
+    // Start offset of each piece, for binary search in charAt(); built lazily
+    private volatile int[] pieceStarts;
+
+    DocumentSnapshot(long version, String original, char[][] addChunks, PieceTable.Piece[] pieces, int length) {
+        this.version = version;
+        this.original = original;
+        this.addChunks = addChunks;
+        this.pieces = pieces;
+        this.length = length;
+    }
+
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        int[] starts = pieceStarts();
+        int lo = 0, hi = pieces.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= index) lo = mid; else hi = mid - 1;
+        }
+        return pieceChar(pieces[lo], index - starts[lo]);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        copyRange(start, end, sb);
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        copyRange(0, length, sb);
+        return sb.toString();
+    }
+
+    /**
+     * Streams the text piece by piece without materializing it.
+     */
+    public Reader openReader() {
+        return new SnapshotReader(0, length);
+    }
+
+    /**
+     * Streams the characters in [start, end).
+     */
+    public Reader openReader(int start, int end) {
+        if (start < 0 || end < start || end > length) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") outside snapshot of length " + length);
+        }
+        return new SnapshotReader(start, end);
+    }
+
+    /**
+     * Number of leading characters shared with {@code other}.
+     */
+    public int commonPrefixLength(CharSequence other) {
+        int limit = Math.min(length, other.length());
+        int matched = 0;
+        for (PieceTable.Piece piece : pieces) {
+            for (int i = 0; i < piece.length() && matched < limit; i++, matched++) {
+                if (pieceChar(piece, i) != other.charAt(matched)) return matched;
+            }
+            if (matched == limit) break;
+        }
+        return matched;
+    }
+
+    /**
+     * Number of trailing characters shared with {@code other}, never overlapping the first {@code prefix} characters.
+     */
+    public int commonSuffixLength(CharSequence other, int prefix) {
+        int limit = Math.min(length, other.length()) - prefix;
+        int matched = 0;
+        for (int p = pieces.length - 1; p >= 0 && matched < limit; p--) {
+            PieceTable.Piece piece = pieces[p];
+            for (int i = piece.length() - 1; i >= 0 && matched < limit; i--, matched++) {
+                if (pieceChar(piece, i) != other.charAt(other.length() - 1 - matched)) return matched;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Number of leading characters shared with {@code other}, an earlier or later snapshot of
+     * the same buffer. Runs both still take from the same storage are skipped without reading
+     * them, so after a small edit this costs a step per piece rather than one per character.
+     */
+    public int commonPrefixLength(DocumentSnapshot other) {
+        int limit = Math.min(length, other.length);
+        int matched = 0;
+        int p = 0, q = 0;        // current piece in each snapshot
+        int at = 0, otherAt = 0; // offset within it
+        while (matched < limit) {
+            while (at == pieces[p].length()) { p++; at = 0; }
+            while (otherAt == other.pieces[q].length()) { q++; otherAt = 0; }
+            PieceTable.Piece piece = pieces[p];
+            PieceTable.Piece otherPiece = other.pieces[q];
+            int n = Math.min(Math.min(piece.length() - at, otherPiece.length() - otherAt), limit - matched);
+            if (!sharesStorage(piece, at, other, otherPiece, otherAt, n)) {
+                for (int i = 0; i < n; i++) {
+                    if (pieceChar(piece, at + i) != other.pieceChar(otherPiece, otherAt + i)) return matched + i;
+                }
+            }
+            matched += n;
+            at += n;
+            otherAt += n;
+        }
+        return matched;
+    }
+
+    /**
+     * Number of trailing characters shared with {@code other}, never overlapping the first
+     * {@code prefix} characters; the snapshot counterpart of {@link #commonPrefixLength(DocumentSnapshot)}.
+     */
+    public int commonSuffixLength(DocumentSnapshot other, int prefix) {
+        int limit = Math.min(length, other.length) - prefix;
+        int matched = 0;
+        int p = pieces.length - 1, q = other.pieces.length - 1;
+        // Characters of the current piece not yet compared, counted from its start
+        int left = p >= 0 ? pieces[p].length() : 0;
+        int otherLeft = q >= 0 ? other.pieces[q].length() : 0;
+        while (matched < limit) {
+            while (left == 0) left = pieces[--p].length();
+            while (otherLeft == 0) otherLeft = other.pieces[--q].length();
+            PieceTable.Piece piece = pieces[p];
+            PieceTable.Piece otherPiece = other.pieces[q];
+            int n = Math.min(Math.min(left, otherLeft), limit - matched);
+            if (!sharesStorage(piece, left - n, other, otherPiece, otherLeft - n, n)) {
+                for (int i = 1; i <= n; i++) {
+                    if (pieceChar(piece, left - i) != other.pieceChar(otherPiece, otherLeft - i)) return matched + i - 1;
+                }
+            }
+            matched += n;
+            left -= n;
+            otherLeft -= n;
+        }
+        return matched;
+    }
+
+    // Whether the n chars at the given piece offsets are the same stored chars, hence equal
+    private boolean sharesStorage(PieceTable.Piece piece, int at, DocumentSnapshot other,
+                                  PieceTable.Piece otherPiece, int otherAt, int n) {
+        int index = piece.start() + at;
+        if (piece.add() != otherPiece.add() || index != otherPiece.start() + otherAt) return false;
+        if (!piece.add()) return original == other.original;
+        // The add buffer is append-only until the next reset, which starts new chunks
+        for (int chunk = index / PieceTable.CHUNK_SIZE; chunk <= (index + n - 1) / PieceTable.CHUNK_SIZE; chunk++) {
+            if (chunk >= other.addChunks.length || addChunks[chunk] != other.addChunks[chunk]) return false;
+        }
+        return true;
+    }
+
+    private void copyRange(int start, int end, StringBuilder out) {
+        int pos = 0;
+        for (PieceTable.Piece piece : pieces) {
+            int pieceStart = pos;
+            pos += piece.length();
+            if (pos <= start) continue;
+            if (pieceStart >= end) break;
+            int from = Math.max(start, pieceStart) - pieceStart;
+            int to = Math.min(end, pos) - pieceStart;
+            appendPiece(piece, from, to, out);
+        }
+    }
+
+    private void appendPiece(PieceTable.Piece piece, int from, int to, StringBuilder out) {
+        if (!piece.add()) {
+            out.append(original, piece.start() + from, piece.start() + to);
+            return;
+        }
+        int offset = piece.start() + from;
+        int remaining = to - from;
+        while (remaining > 0) {
+            char[] chunk = addChunks[offset / PieceTable.CHUNK_SIZE];
+            int inChunk = offset % PieceTable.CHUNK_SIZE;
+            int n = Math.min(remaining, PieceTable.CHUNK_SIZE - inChunk);
+            out.append(chunk, inChunk, n);
+            offset += n;
+            remaining -= n;
+        }
+    }
+
+    private char pieceChar(PieceTable.Piece piece, int offset) {
+        int index = piece.start() + offset;
+        if (!piece.add()) return original.charAt(index);
+        return addChunks[index / PieceTable.CHUNK_SIZE][index % PieceTable.CHUNK_SIZE];
+    }
+
+    private int[] pieceStarts() {
+        int[] cached = pieceStarts;
+        if (cached == null) {
+            int[] starts = new int[pieces.length];
+            int pos = 0;
+            for (int i = 0; i < pieces.length; i++) {
+                starts[i] = pos;
+                pos += pieces[i].length();
+            }
+            pieceStarts = cached = starts;
+        }
+        return cached;
+    }
+
+    private class SnapshotReader extends Reader {
+        private int pieceIndex = 0;
+        private int offsetInPiece = 0;
+        private int remaining;
+
+        SnapshotReader(int start, int end) {
+            remaining = end - start;
+            // Skip to the piece holding start
+            int skip = start;
+            while (pieceIndex < pieces.length && skip >= pieces[pieceIndex].length()) {
+                skip -= pieces[pieceIndex].length();
+                pieceIndex++;
+            }
+            offsetInPiece = skip;
+        }
+
+        @Override
+        public int read(char[] buffer, int off, int len) {
+            if (len == 0) return 0;
+            if (remaining == 0) return -1;
+            while (pieceIndex < pieces.length && offsetInPiece == pieces[pieceIndex].length()) {
+                pieceIndex++;
+                offsetInPiece = 0;
+            }
+            if (pieceIndex >= pieces.length) return -1;
+
+            PieceTable.Piece piece = pieces[pieceIndex];
+            int n = Math.min(Math.min(len, remaining), piece.length() - offsetInPiece);
+            if (!piece.add()) {
+                int from = piece.start() + offsetInPiece;
+                original.getChars(from, from + n, buffer, off);
+            } else {
+                // Stay within one add-buffer chunk per call
+                int index = piece.start() + offsetInPiece;
+                int inChunk = index % PieceTable.CHUNK_SIZE;
+                n = Math.min(n, PieceTable.CHUNK_SIZE - inChunk);
+                System.arraycopy(addChunks[index / PieceTable.CHUNK_SIZE], inChunk, buffer, off, n);
+            }
+            offsetInPiece += n;
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public void close() { }
+    }
+}
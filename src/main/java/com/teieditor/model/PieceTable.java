@@ -0,0 +1,184 @@
+package com.teieditor.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Piece-table text buffer: the single source of truth for the document text.
+ *
+ * The text is described by a sequence of pieces, each pointing into either the
+ * original (immutable) text or an append-only add buffer. Edits only splice the
+ * piece list, so typing never copies the document. The add buffer is stored in
+ * fixed-size chunks that are never modified once written, which lets
+ * {@link #snapshot()} hand out immutable views to background threads for the
+ * cost of copying the piece array.
+ *
+ * Edits must come from a single thread (the JavaFX application thread);
+ * snapshots may be read from any thread.
+ */
+public class PieceTable {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    // Re-flatten the text once edits have fragmented it this much
+    private static final int COMPACT_THRESHOLD = 8192;
+
+    private String original;
+    private final List<char[]> addChunks = new ArrayList<>();
+    private int addLength = 0;
+
+    private Piece[] pieces;
+    private int length;
+    private long version = 0;
+
+    public PieceTable(String text) {
+        reset(text);
+    }
+
+    /**
+     * Replaces the whole document (e.g. when opening a file) and starts a fresh add buffer.
+     */
+    public void reset(String text) {
+        original = text;
+        addChunks.clear();
+        addLength = 0;
+        pieces = text.isEmpty() ? new Piece[0] : new Piece[] { new Piece(false, 0, text.length()) };
+        length = text.length();
+        version++;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Monotonic counter, incremented by every edit.
+     */
+    public long version() {
+        return version;
+    }
+
+    public void insert(int offset, CharSequence text) {
+        replace(offset, offset, text);
+    }
+
+    public void delete(int start, int end) {
+        replace(start, end, "");
+    }
+
+    /**
+     * Replaces the characters in [start, end) with {@code text}.
+     */
+    public void replace(int start, int end, CharSequence text) {
+        if (start < 0 || end < start || end > length) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") outside document of length " + length);
+        }
+        if (start == end && text.isEmpty()) return;
+
+        // Fast path: typing at the end of the most recent insertion just grows that piece
+        if (start == end && !text.isEmpty() && tryExtendLastInsert(start, text)) {
+            length += text.length();
+            version++;
+            return;
+        }
+
+        List<Piece> result = new ArrayList<>(pieces.length + 2);
+        int pos = 0;
+        boolean inserted = false;
+        for (Piece piece : pieces) {
+            int pieceStart = pos;
+            int pieceEnd = pos + piece.length;
+            pos = pieceEnd;
+
+            // Keep the part before the edited range
+            if (pieceStart < start) {
+                result.add(piece.slice(0, Math.min(piece.length, start - pieceStart)));
+            }
+            // Insert the new text once we reach the edit position
+            if (!inserted && pieceEnd > start) {
+                if (!text.isEmpty()) result.add(append(text));
+                inserted = true;
+            }
+            // Keep the part after the edited range
+            if (pieceEnd > end) {
+                int from = Math.max(0, end - pieceStart);
+                result.add(piece.slice(from, piece.length));
+            }
+        }
+        if (!inserted && !text.isEmpty()) result.add(append(text));
+
+        pieces = result.toArray(new Piece[0]);
+        length += text.length() - (end - start);
+        version++;
+
+        if (pieces.length > COMPACT_THRESHOLD) compact();
+    }
+
+    /**
+     * Copies the characters in [start, end).
+     */
+    public String substring(int start, int end) {
+        if (start == end) return "";
+        return snapshot().subSequence(start, end).toString();
+    }
+
+    /**
+     * Immutable view of the current text, safe to read from any thread.
+     */
+    public DocumentSnapshot snapshot() {
+        return new DocumentSnapshot(version, original, addChunks.toArray(new char[0][]), pieces, length);
+    }
+
+    int pieceCount() {
+        return pieces.length;
+    }
+
+    private boolean tryExtendLastInsert(int offset, CharSequence text) {
+        int pos = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            Piece piece = pieces[i];
+            pos += piece.length;
+            if (pos == offset && piece.add && piece.start + piece.length == addLength) {
+                // Add-buffer offsets are contiguous across chunks, so the piece simply gets longer
+                Piece grown = append(text);
+                Piece[] updated = pieces.clone();
+                updated[i] = new Piece(true, piece.start, piece.length + grown.length);
+                pieces = updated;
+                return true;
+            }
+            if (pos > offset) return false;
+        }
+        return false;
+    }
+
+    /**
+     * Copies {@code text} into the add buffer and returns a piece pointing at it.
+     */
+    private Piece append(CharSequence text) {
+        int start = addLength;
+        for (int i = 0; i < text.length(); i++) {
+            int chunk = addLength / CHUNK_SIZE;
+            if (chunk == addChunks.size()) addChunks.add(new char[CHUNK_SIZE]);
+            addChunks.get(chunk)[addLength % CHUNK_SIZE] = text.charAt(i);
+            addLength++;
+        }
+        return new Piece(true, start, text.length());
+    }
+
+    private void compact() {
+        String text = snapshot().toString();
+        long currentVersion = version;
+        reset(text);
+        // Compaction doesn't change the text, so it doesn't count as an edit
+        version = currentVersion;
+    }
+
+    /**
+     * A run of characters in either the original text or the add buffer.
+     */
+    record Piece(boolean add, int start, int length) {
+        Piece slice(int from, int to) {
+            return new Piece(add, start + from, to - from);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.teieditor.model;
+
+/**
+ * One reversible text edit: at {@code offset}, {@code removed} was replaced by {@code inserted}.
+ */
+public record TextDelta(int offset, String removed, String inserted) {
+
+    public TextDelta inverse() {
+        return new TextDelta(offset, inserted, removed);
+    }
+
+    /**
+     * Approximate heap cost in bytes (two bytes per char plus object overhead).
+     */
+    public long sizeInBytes() {
+        return 2L * (removed.length() + inserted.length()) + 64;
+    }
+
+    /**
+     * Merges {@code next} into this delta if it continues the same run of typing
+     * (or of backspacing), returning null otherwise.
+     */
+    TextDelta mergeWith(TextDelta next) {
+        if (removed.isEmpty() && next.removed.isEmpty() && next.offset == offset + inserted.length()) {
+            return new TextDelta(offset, "", inserted + next.inserted);
+        }
+        if (inserted.isEmpty() && next.inserted.isEmpty() && next.offset + next.removed.length() == offset) {
+            return new TextDelta(next.offset, next.removed + removed, "");
+        }
+        return null;
+    }
+}
@@ -0,0 +1,164 @@
+package com.teieditor.model;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Undo/redo stored as groups of {@link TextDelta}s rather than full document copies.
+ *
+ * Edits are recorded into an open group; {@link #commit()} closes it into one undo
+ * step. The in-memory history is capped by a byte budget: once it is exceeded the
+ * oldest steps are dropped from memory. Every committed step is also appended to the
+ * on-disk {@link VersionLog} (if one is attached), so dropped history is not lost.
+ *
+ * Not thread-safe; use from the JavaFX application thread.
+ */
+public class UndoHistory {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 32L * 1024 * 1024;
+
+    private final long memoryBudget;
+    private final Deque<Group> undoStack = new ArrayDeque<>();
+    private final Deque<Group> redoStack = new ArrayDeque<>();
+    private final List<TextDelta> openGroup = new ArrayList<>();
+    private long memoryUsage = 0;
+    private boolean droppedSteps = false;
+    private VersionLog versionLog;
+
+    /**
+     * An undo step: deltas in the order they were applied.
+     */
+    public record Group(List<TextDelta> deltas, long sizeInBytes) {
+
+        static Group of(List<TextDelta> deltas) {
+            long size = 0;
+            for (TextDelta delta : deltas) size += delta.sizeInBytes();
+            return new Group(List.copyOf(deltas), size);
+        }
+
+        /**
+         * The deltas that undo this step, in the order they must be applied.
+         */
+        public List<TextDelta> inverse() {
+            List<TextDelta> inverse = new ArrayList<>(deltas.size());
+            for (TextDelta delta : deltas) inverse.add(delta.inverse());
+            Collections.reverse(inverse);
+            return inverse;
+        }
+    }
+
+    public UndoHistory(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Clears all history and starts writing to {@code log} (may be null).
+     */
+    public void reset(VersionLog log) {
+        if (versionLog != null) versionLog.close();
+        undoStack.clear();
+        redoStack.clear();
+        openGroup.clear();
+        memoryUsage = 0;
+        droppedSteps = false;
+        versionLog = log;
+    }
+
+    /**
+     * Adds an edit to the currently open step.
+     */
+    public void record(TextDelta delta) {
+        if (!openGroup.isEmpty()) {
+            TextDelta merged = openGroup.get(openGroup.size() - 1).mergeWith(delta);
+            if (merged != null) {
+                openGroup.set(openGroup.size() - 1, merged);
+                return;
+            }
+        }
+        openGroup.add(delta);
+    }
+
+    /**
+     * Closes the open step, if it has any edits.
+     *
+     * @return true if a step was committed
+     */
+    public boolean commit() {
+        if (openGroup.isEmpty()) return false;
+        Group group = Group.of(openGroup);
+        openGroup.clear();
+
+        undoStack.push(group);
+        memoryUsage += group.sizeInBytes();
+        clearRedo();
+        if (versionLog != null) versionLog.append(group.deltas());
+
+        // Keep the newest step even if it alone exceeds the budget
+        while (memoryUsage > memoryBudget && undoStack.size() > 1) {
+            memoryUsage -= undoStack.removeLast().sizeInBytes();
+            droppedSteps = true;
+        }
+        return true;
+    }
+
+    public boolean canUndo() {
+        return !openGroup.isEmpty() || !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Pops the latest step. The caller applies {@link Group#inverse()} to the document,
+     * then passes them to {@link #logApplied}.
+     */
+    public Group undo() {
+        commit();
+        Group group = undoStack.poll();
+        if (group == null) return null;
+        redoStack.push(group);
+        return group;
+    }
+
+    /**
+     * Pops the latest undone step. The caller re-applies {@link Group#deltas()} to the document,
+     * then passes them to {@link #logApplied}.
+     */
+    public Group redo() {
+        Group group = redoStack.poll();
+        if (group == null) return null;
+        undoStack.push(group);
+        return group;
+    }
+
+    /**
+     * Records an undo or redo in the version log once its deltas are in the document, so a
+     * checkpoint the log takes on the way snapshots the text they produced.
+     */
+    public void logApplied(List<TextDelta> deltas) {
+        if (versionLog != null) versionLog.append(deltas);
+    }
+
+    /**
+     * True once the budget has forced out old steps; only the {@link VersionLog} still has them.
+     */
+    public boolean hasDroppedSteps() {
+        return droppedSteps;
+    }
+
+    /**
+     * Approximate heap used by undo and redo steps, in bytes.
+     */
+    public long memoryUsage() {
+        return memoryUsage;
+    }
+
+    private void clearRedo() {
+        for (Group group : redoStack) memoryUsage -= group.sizeInBytes();
+        redoStack.clear();
+    }
+}
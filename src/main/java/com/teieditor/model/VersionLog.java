@@ -0,0 +1,330 @@
+package com.teieditor.model;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Append-only on-disk log of every committed edit, giving a persistent version history.
+ *
+ * The log starts with a checkpoint (the full text) and then records delta groups.
+ * A fresh checkpoint is written every {@link #CHECKPOINT_EVERY_GROUPS} groups or
+ * {@link #CHECKPOINT_EVERY_BYTES} bytes of deltas, so rebuilding any version only
+ * replays a bounded tail. Writes happen on a background thread; the caller only
+ * pays for copying the deltas.
+ *
+ * Format: "TEIVLOG1", then records of
+ * {@code byte type, long timestamp, (CHECKPOINT: text) | (GROUP: int n, n x (int offset, text removed, text inserted))},
+ * where text is an int byte length followed by UTF-8 bytes.
+ *
+ * Each document gets a directory of logs, one per time it was opened; {@link #versionsIn}
+ * lists what can be restored from them and {@link #prune} keeps the whole history within a
+ * {@link Retention}.
+ */
+public class VersionLog implements Closeable {
+
+    private static final byte[] MAGIC = "TEIVLOG1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte CHECKPOINT = 1;
+    private static final byte GROUP = 2;
+
+    static final int CHECKPOINT_EVERY_GROUPS = 200;
+    static final long CHECKPOINT_EVERY_BYTES = 4L * 1024 * 1024;
+
+    private final Path file;
+    private final Supplier<DocumentSnapshot> documentSource;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "version-log-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private DataOutputStream out;
+
+    /**
+     * A version that {@link #reconstruct} can rebuild.
+     *
+     * @param opened true for the checkpoint a log starts with, the document as it was opened
+     */
+    public record Version(Path file, long timestamp, boolean opened) { }
+
+    /**
+     * How much history {@link #prune} keeps. Logs older than {@code maxAgeMillis}, beyond the
+     * newest {@code logsPerDocument} of a document, or beyond {@code totalBytes} altogether
+     * (oldest first) are deleted.
+     */
+    public record Retention(long maxAgeMillis, int logsPerDocument, long totalBytes) { }
+
+    private int groupsSinceCheckpoint = 0;
+    private long bytesSinceCheckpoint = 0;
+
+    /**
+     * Opens (or creates) the log and records a checkpoint of the current document.
+     */
+    public VersionLog(Path file, Supplier<DocumentSnapshot> documentSource) throws IOException {
+        this.file = file;
+        this.documentSource = documentSource;
+        Files.createDirectories(file.getParent());
+        boolean isNew = !Files.exists(file) || Files.size(file) == 0;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile(), true)));
+        if (isNew) out.write(MAGIC);
+        checkpoint();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Queues a committed group of deltas for writing.
+     */
+    public void append(List<TextDelta> deltas) {
+        long timestamp = System.currentTimeMillis();
+        submit(() -> {
+            out.writeByte(GROUP);
+            out.writeLong(timestamp);
+            out.writeInt(deltas.size());
+            for (TextDelta delta : deltas) {
+                out.writeInt(delta.offset());
+                writeText(out, delta.removed());
+                writeText(out, delta.inserted());
+            }
+            out.flush();
+        });
+
+        groupsSinceCheckpoint++;
+        for (TextDelta delta : deltas) bytesSinceCheckpoint += delta.sizeInBytes();
+        if (groupsSinceCheckpoint >= CHECKPOINT_EVERY_GROUPS || bytesSinceCheckpoint >= CHECKPOINT_EVERY_BYTES) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Queues a full copy of the current document. The snapshot is taken now; serializing it happens off-thread.
+     */
+    public void checkpoint() {
+        DocumentSnapshot snapshot = documentSource.get();
+        long timestamp = System.currentTimeMillis();
+        submit(() -> {
+            out.writeByte(CHECKPOINT);
+            out.writeLong(timestamp);
+            writeText(out, snapshot.toString());
+            out.flush();
+        });
+        groupsSinceCheckpoint = 0;
+        bytesSinceCheckpoint = 0;
+    }
+
+    @Override
+    public void close() {
+        submit(() -> out.close());
+        writer.shutdown();
+    }
+
+    /**
+     * Waits for the writes queued before {@link #close()} to reach the file.
+     */
+    boolean awaitClosed(long timeout, TimeUnit unit) throws InterruptedException {
+        return writer.awaitTermination(timeout, unit);
+    }
+
+    private interface IoTask {
+        void run() throws IOException;
+    }
+
+    private void submit(IoTask task) {
+        writer.execute(() -> {
+            try {
+                task.run();
+            } catch (IOException e) {
+                System.err.println("Warning: Could not write version log " + file + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        return new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Rebuilds the document as it was at {@code timestamp} (epoch millis; Long.MAX_VALUE for the latest version).
+     * A record cut short by a crash ends the replay at the last complete record.
+     *
+     * @return the text, or null if the log has no checkpoint at or before that time
+     */
+    public static String reconstruct(Path file, long timestamp) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a version log: " + file);
+
+            StringBuilder text = null;
+            try {
+                while (true) {
+                    int type = in.read();
+                    if (type < 0) break;
+                    long recordTime = in.readLong();
+                    if (type == CHECKPOINT) {
+                        String checkpoint = readText(in);
+                        if (recordTime > timestamp) break;
+                        text = new StringBuilder(checkpoint);
+                    } else if (type == GROUP) {
+                        int count = in.readInt();
+                        TextDelta[] deltas = new TextDelta[count];
+                        for (int i = 0; i < count; i++) deltas[i] = new TextDelta(in.readInt(), readText(in), readText(in));
+                        if (recordTime > timestamp) break;
+                        if (text == null) continue;
+                        for (TextDelta delta : deltas) {
+                            text.replace(delta.offset(), delta.offset() + delta.removed().length(), delta.inserted());
+                        }
+                    } else {
+                        throw new IOException("Corrupt version log record in " + file);
+                    }
+                }
+            } catch (EOFException truncated) {
+                // Last record was only partially written
+            }
+            return text == null ? null : text.toString();
+        }
+    }
+
+    /**
+     * Every version recorded in the logs of {@code documentDir}, newest first. Mid-log
+     * checkpoints are left out, as they repeat the edit before them.
+     */
+    public static List<Version> versionsIn(Path documentDir) throws IOException {
+        List<Version> versions = new ArrayList<>();
+        if (!Files.isDirectory(documentDir)) return versions;
+        try (Stream<Path> logs = Files.list(documentDir)) {
+            for (Path log : (Iterable<Path>) logs.filter(VersionLog::isLog)::iterator) {
+                try {
+                    versions.addAll(versions(log));
+                } catch (IOException e) {
+                    System.err.println("Warning: Skipping unreadable version log " + log + ": " + e.getMessage());
+                }
+            }
+        }
+        versions.sort(Comparator.comparingLong(Version::timestamp).reversed());
+        return versions;
+    }
+
+    /**
+     * The versions in one log, oldest first, read without rebuilding any text.
+     */
+    static List<Version> versions(Path file) throws IOException {
+        List<Version> versions = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a version log: " + file);
+            try {
+                while (true) {
+                    int type = in.read();
+                    if (type < 0) break;
+                    long recordTime = in.readLong();
+                    if (type == CHECKPOINT) {
+                        in.skipNBytes(in.readInt());
+                        // A checkpoint that isn't first follows the edit it repeats, or a reopening in the same second
+                        if (versions.isEmpty()) versions.add(new Version(file, recordTime, true));
+                    } else if (type == GROUP) {
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            in.readInt();
+                            in.skipNBytes(in.readInt());
+                            in.skipNBytes(in.readInt());
+                        }
+                        versions.add(new Version(file, recordTime, false));
+                    } else {
+                        throw new IOException("Corrupt version log record in " + file);
+                    }
+                }
+            } catch (EOFException truncated) {
+                // Last record was only partially written, so it was never listed
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Deletes logs under {@code historyDir} (one subdirectory per document) that fall outside
+     * {@code retention}, then any document directories left empty. {@code keep}, the log in
+     * use, is never deleted, though it counts towards the limits.
+     *
+     * @return the number of bytes freed
+     */
+    public static long prune(Path historyDir, Retention retention, Path keep) throws IOException {
+        record Log(Path file, long modified, long size) { }
+        if (!Files.isDirectory(historyDir)) return 0;
+
+        // 1. Collect every log, newest first within each document
+        List<List<Log>> documents = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(historyDir)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                List<Log> logs = new ArrayList<>();
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : (Iterable<Path>) files.filter(VersionLog::isLog)::iterator) {
+                        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                        logs.add(new Log(file, attributes.lastModifiedTime().toMillis(), attributes.size()));
+                    }
+                }
+                logs.sort(Comparator.comparingLong(Log::modified).reversed());
+                documents.add(logs);
+            }
+        }
+
+        // 2. Choose by age and count per document, then by total size across documents
+        long cutoff = System.currentTimeMillis() - retention.maxAgeMillis();
+        List<Log> kept = new ArrayList<>();
+        List<Log> doomed = new ArrayList<>();
+        for (List<Log> logs : documents) {
+            for (int i = 0; i < logs.size(); i++) {
+                Log log = logs.get(i);
+                boolean expired = log.modified() < cutoff || i >= retention.logsPerDocument();
+                (expired && !log.file().equals(keep) ? doomed : kept).add(log);
+            }
+        }
+        kept.sort(Comparator.comparingLong(Log::modified).reversed());
+        long total = 0;
+        for (Log log : kept) {
+            total += log.size();
+            if (total > retention.totalBytes() && !log.file().equals(keep)) doomed.add(log);
+        }
+
+        // 3. Delete, leaving logs another editor may be writing to if the platform refuses
+        long freed = 0;
+        for (Log log : doomed) {
+            try {
+                Files.deleteIfExists(log.file());
+                freed += log.size();
+            } catch (IOException e) {
+                System.err.println("Warning: Could not delete old version log " + log.file() + ": " + e.getMessage());
+            }
+        }
+        try (Stream<Path> dirs = Files.list(historyDir)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                try (Stream<Path> files = Files.list(dir)) {
+                    if (files.findAny().isPresent()) continue;
+                }
+                try { Files.deleteIfExists(dir); } catch (IOException ignored) { /* Something was just written to it */ }
+            }
+        }
+        return freed;
+    }
+
+    private static boolean isLog(Path file) {
+        return file.getFileName().toString().endsWith(".log") && Files.isRegularFile(file);
+    }
+}
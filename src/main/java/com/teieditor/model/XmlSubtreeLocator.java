@@ -0,0 +1,614 @@
+package com.teieditor.model;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Finds the smallest element that encloses an edit, so only that subtree has to be
+ * re-rendered.
+ *
+ * This is a lightweight tag scanner, not a parser: it tracks start/end tags (skipping
+ * comments, CDATA, processing instructions and the DOCTYPE) and stops as soon as the
+ * enclosing element closes. It gives up (returns null) on anything it can't follow,
+ * such as mismatched tags, and the caller then falls back to the whole document.
+ *
+ * Callers that locate one change after another in a large text (incremental validation)
+ * can keep the scanner's {@link Checkpoints} along the text, so each scan resumes from the
+ * last state before the change rather than from the start.
+ */
+public final class XmlSubtreeLocator {
+
+    // Scanner state is saved at the first line start after every this many chars
+    private static final int CHECKPOINT_SPACING = 32 * 1024;
+
+    /**
+     * An element in the text.
+     *
+     * @param path  index of the element among its parent's child elements, for each level
+     *              below the root element (empty for the root element itself)
+     * @param start offset of the start tag's '<'
+     * @param end   offset just past the end tag's '>'
+     */
+    public record Subtree(int[] path, int start, int end) { }
+
+    /**
+     * An element and the content around it.
+     *
+     * @param inline true if whitespace next to and inside it is text of a paragraph, so it
+     *               can't be re-indented: its start tag doesn't begin a line, or its parent
+     *               (or any ancestor before it) has text of its own
+     */
+    public record Placement(Subtree subtree, boolean inline) { }
+
+    /**
+     * The element enclosing a change, with what it takes to validate it on its own.
+     *
+     * @param subtree      the element in the new text
+     * @param ancestorTags the start tag of each element enclosing it, root first
+     * @param elementPath  its location as the validator reports it: local names with 1-based
+     *                     positions among same-named siblings, e.g. /TEI[1]/text[1]/body[1]/div[2]
+     * @param line         1-based line of its start tag
+     * @param column       1-based column of its start tag
+     * @param checkpoints  scanner states along the new text, for locating the next change
+     */
+    public record Change(Subtree subtree, List<String> ancestorTags, String elementPath,
+                         int line, int column, Checkpoints checkpoints) { }
+
+    /**
+     * Scanner states saved along one version of a text, at line starts outside markup. Only
+     * valid for that version; {@link #locateChange(DocumentSnapshot, DocumentSnapshot, int, int, Checkpoints)}
+     * returns the ones for the next.
+     */
+    public static final class Checkpoints {
+        public static final Checkpoints NONE = new Checkpoints(new TreeMap<>());
+
+        private final NavigableMap<Integer, State> states;
+
+        private Checkpoints(NavigableMap<Integer, State> states) {
+            this.states = states;
+        }
+
+        public int size() {
+            return states.size();
+        }
+    }
+
+    private XmlSubtreeLocator() { }
+
+    /**
+     * Scans all of {@code text}, saving checkpoints along it.
+     *
+     * @return its checkpoints, or {@link Checkpoints#NONE} if it can't be scanned
+     */
+    public static Checkpoints checkpoints(DocumentSnapshot text) {
+        try (Reader reader = text.openReader()) {
+            Scanner scanner = new Scanner(reader, null);
+            NavigableMap<Integer, State> states = new TreeMap<>();
+            scanner.saveCheckpointsIn(states);
+            scanner.scan(new Visitor() { });
+            return scanner.depth == 0 && scanner.rootCount == 1 ? new Checkpoints(states) : Checkpoints.NONE;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Locates the innermost element enclosing every change between two versions of a
+     * document, as the 4-argument form does, resuming from {@code checkpoints} (those of
+     * {@code before}). The element is only accepted if it is a single element in both
+     * versions, so the elements around it see the same child in each.
+     *
+     * @return the element and the checkpoints for {@code after}, or null if either text can't be scanned
+     */
+    public static Change locateChange(DocumentSnapshot before, DocumentSnapshot after,
+                                      int unchangedPrefix, int unchangedSuffix, Checkpoints checkpoints) {
+        int changeEnd = after.length() - unchangedSuffix;
+        int delta = after.length() - before.length();
+        try {
+            // 1. Resume from the last state before the change, which is the same in both texts
+            Map.Entry<Integer, State> resume = checkpoints.states.floorEntry(unchangedPrefix);
+            int resumeOffset = resume == null ? 0 : resume.getKey();
+            NavigableMap<Integer, State> states = new TreeMap<>(checkpoints.states.headMap(resumeOffset, true));
+            Scanner scanner;
+            Subtree subtree;
+            try (Reader reader = after.openReader(resumeOffset, after.length())) {
+                scanner = new Scanner(reader, resume == null ? null : resume.getValue());
+                scanner.saveCheckpointsIn(states);
+                // Returns with the scanner just past the element, its ancestors still open
+                subtree = scanner.locate(unchangedPrefix, changeEnd, Integer.MAX_VALUE);
+                if (subtree == null) return null;
+            }
+            int level = subtree.path().length;
+
+            // 2. The same stretch of the old text must be one element as well
+            int oldEnd = subtree.end() - delta;
+            int oldLines;
+            try (Reader reader = before.openReader(subtree.start(), oldEnd)) {
+                Scanner old = new Scanner(reader, null);
+                Subtree element = old.find(new int[0]);
+                if (element == null || element.end() != oldEnd - subtree.start()) return null;
+                oldLines = old.line - 1;
+            }
+            int lineDelta = (scanner.line - scanner.startLine[level]) - oldLines;
+
+            // 3. Checkpoints past it only moved
+            for (State state : checkpoints.states.tailMap(oldEnd, true).values()) {
+                State moved = state.shifted(oldEnd, delta, lineDelta);
+                states.put(moved.offset(), moved);
+            }
+
+            List<String> ancestorTags = new ArrayList<>(level);
+            for (int i = 0; i < level; i++) {
+                ancestorTags.add(after.subSequence(scanner.elementStart[i], scanner.contentStart[i]).toString());
+            }
+            String elementPath = "/" + String.join("/", Arrays.asList(scanner.steps).subList(0, level + 1));
+            return new Change(subtree, ancestorTags, elementPath, scanner.startLine[level],
+                    columnOf(after, subtree.start()), new Checkpoints(states));
+        } catch (PathNotFound e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int columnOf(DocumentSnapshot text, int offset) {
+        int lineStart = offset;
+        while (lineStart > 0 && text.charAt(lineStart - 1) != '\n') lineStart--;
+        return offset - lineStart + 1;
+    }
+
+    /**
+     * Locates the element enclosing every change between two versions of a document.
+     *
+     * @param before          the text the caller's view was built from
+     * @param after           the current text
+     * @param unchangedPrefix leading chars identical in both texts
+     * @param unchangedSuffix trailing chars identical in both texts
+     * @return the element in {@code after}, or null if either text can't be scanned
+     */
+    public static Subtree locateChange(DocumentSnapshot before, DocumentSnapshot after,
+                                       int unchangedPrefix, int unchangedSuffix) {
+        // 1. Innermost enclosing element in each version
+        Subtree inAfter = locate(after, unchangedPrefix, after.length() - unchangedSuffix, Integer.MAX_VALUE);
+        if (inAfter == null) return null;
+        Subtree inBefore = locate(before, unchangedPrefix, before.length() - unchangedSuffix, Integer.MAX_VALUE);
+        if (inBefore == null) return null;
+
+        // 2. Their deepest common ancestor encloses the change in both. Everything before
+        //    the change is identical, so the same path names the same element in both texts.
+        int depth = 0;
+        int maxDepth = Math.min(inAfter.path().length, inBefore.path().length);
+        while (depth < maxDepth && inAfter.path()[depth] == inBefore.path()[depth]) depth++;
+        if (depth == inAfter.path().length) return inAfter;
+        return locate(after, unchangedPrefix, after.length() - unchangedSuffix, depth);
+    }
+
+    /**
+     * Returns the deepest element, at most {@code maxDepth} levels below the root,
+     * whose content contains [changeStart, changeEnd].
+     */
+    static Subtree locate(DocumentSnapshot text, int changeStart, int changeEnd, int maxDepth) {
+        try (Reader reader = text.openReader()) {
+            return new Scanner(reader, null).locate(changeStart, changeEnd, maxDepth);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finds the element at {@code path} (see {@link Subtree#path()}).
+     *
+     * @return its bounds, or null if there's no such element or the text can't be scanned
+     */
+    public static Subtree find(DocumentSnapshot text, int[] path) {
+        try (Reader reader = text.openReader()) {
+            return new Scanner(reader, null).find(path);
+        } catch (PathNotFound e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Finds the element at {@code path} like {@link #find}, and whether it sits in mixed
+     * content. That takes scanning on to the end of its parent, for text after it.
+     *
+     * @return the element and its context, or null if there's no such element or the text can't be scanned
+     */
+    public static Placement findPlacement(DocumentSnapshot text, int[] path) {
+        Placement placement;
+        try (Reader reader = text.openReader()) {
+            placement = new Scanner(reader, null).place(path);
+        } catch (PathNotFound e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (placement == null || placement.inline()) return placement;
+        for (int i = placement.subtree().start() - 1; i >= 0 && text.charAt(i) != '\n'; i--) {
+            if (text.charAt(i) != ' ' && text.charAt(i) != '\t') return new Placement(placement.subtree(), true);
+        }
+        return placement;
+    }
+
+    /**
+     * Callbacks from {@link Scanner#scan}; returning a non-null subtree ends the scan.
+     * Levels count from 0 at the root element.
+     */
+    private interface Visitor {
+        default Subtree startElement(int level, int index, int start, boolean empty) { return null; }
+
+        default Subtree endElement(int level, int endTagStart) { return null; }
+    }
+
+    private static final class PathNotFound extends RuntimeException {
+        PathNotFound() { super(null, null, false, false); }
+    }
+
+    /**
+     * A copy of the scanner's state at a line start outside markup.
+     */
+    private record State(int offset, int line, int depth, int rootCount, String[] names, int[] indexInParent,
+                         int[] childCount, int[] elementStart, int[] contentStart, int[] startLine,
+                         String[] steps, List<Map<String, Integer>> siblingNames) {
+
+        /**
+         * This state after the element ending at {@code oldEnd} grew by {@code delta} chars and {@code lineDelta} lines.
+         */
+        State shifted(int oldEnd, int delta, int lineDelta) {
+            int[] starts = elementStart.clone();
+            int[] contents = contentStart.clone();
+            int[] lines = startLine.clone();
+            for (int i = 0; i < depth; i++) {
+                // Elements still open here either enclose the changed one or start after it
+                if (starts[i] >= oldEnd) {
+                    starts[i] += delta;
+                    contents[i] += delta;
+                    lines[i] += lineDelta;
+                }
+            }
+            return new State(offset + delta, line + lineDelta, depth, rootCount, names, indexInParent,
+                    childCount, starts, contents, lines, steps, siblingNames);
+        }
+    }
+
+    private static final class Scanner {
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private int bufferStart = 0;  // text offset of buffer[0]
+        private int bufferPos = 0;
+        private int bufferLength = 0;
+
+        // Open elements, root first
+        private int depth = 0;
+        private String[] names = new String[16];
+        private int[] indexInParent = new int[16];
+        private int[] childCount = new int[16];
+        private int[] elementStart = new int[16];
+        private int[] contentStart = new int[16];
+        private int[] startLine = new int[16];
+        // Validator path step of each open element ("div[2]"), from the names seen among its siblings
+        private String[] steps = new String[16];
+        // Whether non-whitespace text has been seen directly in each open element; not kept in checkpoints
+        private boolean[] ownText = new boolean[16];
+        private final List<Map<String, Integer>> siblingNames = new ArrayList<>();
+        private int rootCount = 0;
+        private int line = 1;
+
+        // Where to save checkpoints, if anywhere, and where the last one was
+        private NavigableMap<Integer, State> checkpoints;
+        private int lastCheckpoint;
+
+        /**
+         * @param resume the state to continue from, with {@code reader} positioned at its offset; null to start at 0
+         */
+        Scanner(Reader reader, State resume) {
+            this.reader = reader;
+            siblingNames.add(new HashMap<>());
+            if (resume == null) return;
+            bufferStart = lastCheckpoint = resume.offset();
+            line = resume.line();
+            depth = resume.depth();
+            rootCount = resume.rootCount();
+            int capacity = Math.max(16, depth * 2);
+            names = Arrays.copyOf(resume.names(), capacity);
+            indexInParent = Arrays.copyOf(resume.indexInParent(), capacity);
+            childCount = Arrays.copyOf(resume.childCount(), capacity);
+            elementStart = Arrays.copyOf(resume.elementStart(), capacity);
+            contentStart = Arrays.copyOf(resume.contentStart(), capacity);
+            startLine = Arrays.copyOf(resume.startLine(), capacity);
+            steps = Arrays.copyOf(resume.steps(), capacity);
+            ownText = new boolean[capacity];
+            siblingNames.clear();
+            for (Map<String, Integer> names : resume.siblingNames()) siblingNames.add(new HashMap<>(names));
+        }
+
+        void saveCheckpointsIn(NavigableMap<Integer, State> states) {
+            checkpoints = states;
+        }
+
+        private void saveCheckpoint() {
+            int offset = offset();
+            List<Map<String, Integer>> names = new ArrayList<>(depth + 1);
+            for (int i = 0; i <= depth; i++) names.add(Map.copyOf(siblingNames.get(i)));
+            checkpoints.put(offset, new State(offset, line, depth, rootCount,
+                    Arrays.copyOf(this.names, depth), Arrays.copyOf(indexInParent, depth),
+                    Arrays.copyOf(childCount, depth), Arrays.copyOf(elementStart, depth),
+                    Arrays.copyOf(contentStart, depth), Arrays.copyOf(startLine, depth),
+                    Arrays.copyOf(steps, depth), names));
+            lastCheckpoint = offset;
+        }
+
+        Subtree locate(int changeStart, int changeEnd, int maxDepth) throws IOException {
+            return scan(new Visitor() {
+                @Override
+                public Subtree endElement(int level, int endTagStart) {
+                    if (level <= maxDepth && contentStart[level] <= changeStart && changeEnd <= endTagStart) {
+                        return new Subtree(path(level), elementStart[level], offset());
+                    }
+                    return null;
+                }
+            });
+        }
+
+        Subtree find(int[] target) throws IOException {
+            return scan(new Visitor() {
+                // Number of open elements that lie on the target path
+                private int matched = 0;
+
+                @Override
+                public Subtree startElement(int level, int index, int start, boolean empty) {
+                    if (level > target.length || matched != level || (level > 0 && target[level - 1] != index)) return null;
+                    if (level == target.length && empty) return new Subtree(target.clone(), start, offset());
+                    if (!empty) matched = level + 1;
+                    return null;
+                }
+
+                @Override
+                public Subtree endElement(int level, int endTagStart) {
+                    if (level != matched - 1) return null;
+                    if (level == target.length) return new Subtree(target.clone(), elementStart[level], offset());
+                    // Left an ancestor of the target without meeting it: the path doesn't exist
+                    throw new PathNotFound();
+                }
+            });
+        }
+
+        /**
+         * Like {@link #find}, then on to the end of the target's parent to learn whether the
+         * parent has text. The start tag's line is left to the caller.
+         */
+        Placement place(int[] target) throws IOException {
+            Subtree[] found = new Subtree[1];
+            boolean[] inline = new boolean[1];
+            Subtree done = scan(new Visitor() {
+                private int matched = 0;
+
+                @Override
+                public Subtree startElement(int level, int index, int start, boolean empty) {
+                    if (found[0] != null || level > target.length || matched != level || (level > 0 && target[level - 1] != index)) return null;
+                    if (level == target.length) {
+                        // Text in any ancestor so far settles it
+                        for (int i = 0; i < level; i++) inline[0] |= ownText[i];
+                        if (empty) return reached(new Subtree(target.clone(), start, offset()));
+                    }
+                    if (!empty) matched = level + 1;
+                    return null;
+                }
+
+                @Override
+                public Subtree endElement(int level, int endTagStart) {
+                    if (found[0] != null) {
+                        if (level != target.length - 1) return null;
+                        inline[0] = ownText[level];
+                        return found[0];
+                    }
+                    if (level != matched - 1) return null;
+                    if (level == target.length) return reached(new Subtree(target.clone(), elementStart[level], offset()));
+                    throw new PathNotFound();
+                }
+
+                private Subtree reached(Subtree subtree) {
+                    // The root has no parent to finish
+                    if (inline[0] || target.length == 0) return subtree;
+                    found[0] = subtree;
+                    return null;
+                }
+            });
+            return done == null ? null : new Placement(done, inline[0]);
+        }
+
+        private Subtree scan(Visitor visitor) throws IOException {
+            int c;
+            while ((c = read()) >= 0) {
+                if (c != '<') {
+                    if (depth > 0 && !Character.isWhitespace(c)) ownText[depth - 1] = true;
+                    if (c == '\n' && checkpoints != null && offset() - lastCheckpoint >= CHECKPOINT_SPACING) saveCheckpoint();
+                    continue;
+                }
+                int tagStart = offset() - 1;
+                int tagLine = line;
+
+                if (lookingAt("!--")) {
+                    if (!skipPast("-->")) return null;
+                } else if (lookingAt("![CDATA[")) {
+                    if (depth > 0) ownText[depth - 1] = true;
+                    if (!skipPast("]]>")) return null;
+                } else if (lookingAt("?")) {
+                    if (!skipPast("?>")) return null;
+                } else if (lookingAt("!")) {
+                    if (!skipDeclaration()) return null;
+                } else if (lookingAt("/")) {
+                    // End tag: the innermost open element closes here
+                    String name = readName();
+                    if (depth == 0 || !name.equals(names[depth - 1]) || skipTag() < 0) return null;
+                    depth--;
+                    Subtree result = visitor.endElement(depth, tagStart);
+                    if (result != null) return result;
+                } else {
+                    // Start tag (or empty-element tag)
+                    String name = readName();
+                    if (name.isEmpty()) return null;
+                    int index = depth == 0 ? rootCount++ : childCount[depth - 1]++;
+                    if (depth == 0 && index > 0) return null;
+                    String localName = name.substring(name.indexOf(':') + 1);
+                    int position = siblingNames.get(depth).merge(localName, 1, Integer::sum);
+                    int tagEnd = skipTag();
+                    if (tagEnd < 0) return null;
+                    Subtree result = visitor.startElement(depth, index, tagStart, tagEnd == 1);
+                    if (result != null) return result;
+                    if (tagEnd == 0) push(name, index, tagStart, offset(), tagLine, localName + "[" + position + "]");
+                }
+            }
+            return null;
+        }
+
+        private int[] path(int level) {
+            return Arrays.copyOfRange(indexInParent, 1, level + 1);
+        }
+
+        private void push(String name, int index, int start, int content, int tagLine, String step) {
+            if (depth == names.length) {
+                int capacity = depth * 2;
+                names = Arrays.copyOf(names, capacity);
+                indexInParent = Arrays.copyOf(indexInParent, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+                elementStart = Arrays.copyOf(elementStart, capacity);
+                contentStart = Arrays.copyOf(contentStart, capacity);
+                startLine = Arrays.copyOf(startLine, capacity);
+                steps = Arrays.copyOf(steps, capacity);
+                ownText = Arrays.copyOf(ownText, capacity);
+            }
+            names[depth] = name;
+            indexInParent[depth] = index;
+            childCount[depth] = 0;
+            elementStart[depth] = start;
+            contentStart[depth] = content;
+            startLine[depth] = tagLine;
+            steps[depth] = step;
+            ownText[depth] = false;
+            depth++;
+            // Its children's names are counted afresh
+            if (siblingNames.size() == depth) siblingNames.add(new HashMap<>());
+            else siblingNames.get(depth).clear();
+        }
+
+        private String readName() throws IOException {
+            StringBuilder name = new StringBuilder();
+            int c;
+            while ((c = peek()) >= 0 && !Character.isWhitespace(c) && c != '>' && c != '/') {
+                name.append((char) read());
+            }
+            return name.toString();
+        }
+
+        /**
+         * Skips the rest of a tag, honouring quoted attribute values.
+         *
+         * @return 1 for an empty-element tag, 0 for any other tag, -1 if the text ends first
+         */
+        private int skipTag() throws IOException {
+            int quote = 0;
+            int previous = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    return previous == '/' ? 1 : 0;
+                }
+                previous = c;
+            }
+            return -1;
+        }
+
+        private boolean skipDeclaration() throws IOException {
+            int brackets = 0;
+            int quote = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (quote != 0) {
+                    if (c == quote) quote = 0;
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '[') {
+                    brackets++;
+                } else if (c == ']') {
+                    brackets--;
+                } else if (c == '>' && brackets <= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean skipPast(String terminator) throws IOException {
+            int matched = 0;
+            int c;
+            while ((c = read()) >= 0) {
+                if (c == terminator.charAt(matched)) {
+                    if (++matched == terminator.length()) return true;
+                } else {
+                    matched = c == terminator.charAt(0) ? 1 : 0;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Consumes {@code expected} if the text continues with it.
+         */
+        private boolean lookingAt(String expected) throws IOException {
+            if (!fill(expected.length())) return false;
+            for (int i = 0; i < expected.length(); i++) {
+                if (buffer[bufferPos + i] != expected.charAt(i)) return false;
+            }
+            bufferPos += expected.length();
+            return true;
+        }
+
+        private int offset() {
+            return bufferStart + bufferPos;
+        }
+
+        private int peek() throws IOException {
+            return fill(1) ? buffer[bufferPos] : -1;
+        }
+
+        private int read() throws IOException {
+            if (!fill(1)) return -1;
+            char c = buffer[bufferPos++];
+            if (c == '\n') line++;
+            return c;
+        }
+
+        /**
+         * Makes sure at least {@code count} unread chars are buffered, if the text has them.
+         */
+        private boolean fill(int count) throws IOException {
+            if (bufferLength - bufferPos >= count) return true;
+            int remaining = bufferLength - bufferPos;
+            System.arraycopy(buffer, bufferPos, buffer, 0, remaining);
+            bufferStart += bufferPos;
+            bufferPos = 0;
+            bufferLength = remaining;
+            while (bufferLength < count) {
+                int n = reader.read(buffer, bufferLength, buffer.length - bufferLength);
+                if (n < 0) return false;
+                bufferLength += n;
+            }
+            return true;
+        }
+    }
+}
@@ -1,19 +1,60 @@
 package com.teieditor.service;
 
+import com.teieditor.model.DocumentSnapshot;
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.DefaultLogger;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectHelper;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
 
 public class AntExportService {
 
+    // user.dir is global to the JVM, so only one build can run inside the stylesheets folder at a time
+    private static final Object USER_DIR_LOCK = new Object();
+
     /**
      * Orchestrates complex exports (DOCX, EPUB) by running the official Ant build files.
      */
     public void exportComplexFormat(String xmlContent, File stylesheetsDir, File outputFile, String formatType) throws Exception {
+        File tempInput = File.createTempFile("tei_export_source", ".xml");
+        tempInput.deleteOnExit();
+        try {
+            Files.writeString(tempInput.toPath(), xmlContent);
+            runBuild(tempInput, stylesheetsDir, outputFile, formatType, ExportMonitor.NONE);
+        } finally {
+            tempInput.delete();
+        }
+    }
+
+    /**
+     * Exports an editor snapshot, stopping at the next Ant task if {@code monitor} is cancelled.
+     */
+    public void exportComplexFormat(DocumentSnapshot snapshot, File stylesheetsDir, File outputFile, String formatType,
+                                    ExportMonitor monitor) throws Exception {
+        File tempInput = File.createTempFile("tei_export_source", ".xml");
+        tempInput.deleteOnExit();
+        try {
+            try (Reader in = MonitoredStreams.reader(snapshot.openReader(), snapshot.length(), monitor, "Running Ant build");
+                 Writer out = Files.newBufferedWriter(tempInput.toPath(), StandardCharsets.UTF_8)) {
+                in.transferTo(out);
+            }
+            runBuild(tempInput, stylesheetsDir, outputFile, formatType, monitor);
+        } finally {
+            tempInput.delete();
+        }
+    }
+
+    private void runBuild(File tempInput, File stylesheetsDir, File outputFile, String formatType, ExportMonitor monitor) throws Exception {
         
         // 1. Locate the Build File
         File buildFile;
@@ -29,10 +70,14 @@ public class AntExportService {
             throw new IOException("Could not find Ant build file: " + buildFile.getAbsolutePath());
         }
 
-        // 2. Create Temp Input File
-        File tempInput = File.createTempFile("tei_export_source", ".xml");
-        Files.writeString(tempInput.toPath(), xmlContent);
-        tempInput.deleteOnExit();
+        // 2. Wait for any other build; they can't share user.dir
+        synchronized (USER_DIR_LOCK) {
+            monitor.checkCancelled();
+            runBuildInDir(buildFile, tempInput, outputFile, formatType, monitor);
+        }
+    }
+
+    private void runBuildInDir(File buildFile, File tempInput, File outputFile, String formatType, ExportMonitor monitor) throws Exception {
 
         // 3. SWITCH WORKING DIRECTORY (The Fix)
         // Saxon resolves relative paths (like ../word/styles.xml) against 'user.dir'.
@@ -54,6 +99,8 @@ public class AntExportService {
             consoleLogger.setOutputPrintStream(System.out);
             consoleLogger.setMessageOutputLevel(Project.MSG_INFO);
             project.addBuildListener(consoleLogger);
+            project.addBuildListener(new TargetTimer(formatType));
+            project.addBuildListener(new CancellationCheck(monitor));
 
             // 5. Set Properties
             project.setUserProperty("ant.file", buildFile.getAbsolutePath());
@@ -70,9 +117,68 @@ public class AntExportService {
         } finally {
             // CRITICAL: Always restore the original working directory
             System.setProperty("user.dir", originalUserDir);
-            
-            // Clean up
-            // tempInput.delete();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Times each Ant target as an export step.
+     */
+    private static class TargetTimer implements BuildListener {
+        private final String formatType;
+        private final Map<String, Diagnostics.Timer> running = new HashMap<>();
+
+        TargetTimer(String formatType) {
+            this.formatType = formatType;
+        }
+
+        @Override
+        public void targetStarted(BuildEvent event) {
+            String target = event.getTarget().getName();
+            running.put(target, Diagnostics.start(Diagnostics.Operation.EXPORT_STEP, formatType + " (Ant): " + target));
+        }
+
+        @Override
+        public void targetFinished(BuildEvent event) {
+            Diagnostics.Timer timer = running.remove(event.getTarget().getName());
+            if (timer != null) timer.close();
+        }
+
+        @Override public void buildStarted(BuildEvent event) { }
+        @Override public void buildFinished(BuildEvent event) { }
+        @Override public void taskStarted(BuildEvent event) { }
+        @Override public void taskFinished(BuildEvent event) { }
+        @Override public void messageLogged(BuildEvent event) { }
+    }
+
+    /**
+     * Reports each target as progress and fails the build before the next task once cancelled.
+     */
+    private static class CancellationCheck implements BuildListener {
+        private final ExportMonitor monitor;
+
+        CancellationCheck(ExportMonitor monitor) {
+            this.monitor = monitor;
+        }
+
+        @Override
+        public void targetStarted(BuildEvent event) {
+            check();
+            monitor.progress(-1, "Ant: " + event.getTarget().getName());
+        }
+
+        @Override
+        public void taskStarted(BuildEvent event) {
+            check();
+        }
+
+        private void check() {
+            if (monitor.isCancelled()) throw new BuildException("Export cancelled.");
+        }
+
+        @Override public void buildStarted(BuildEvent event) { }
+        @Override public void buildFinished(BuildEvent event) { }
+        @Override public void targetFinished(BuildEvent event) { }
+        @Override public void taskFinished(BuildEvent event) { }
+        @Override public void messageLogged(BuildEvent event) { }
+    }
+}
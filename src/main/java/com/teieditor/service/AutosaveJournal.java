@@ -0,0 +1,296 @@
+package com.teieditor.service;
+
+import com.teieditor.model.DocumentSnapshot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Periodically copies the open document to a journal, so unsaved work survives a crash.
+ *
+ * Each editor session owns one entry in the journal directory, guarded by a file lock:
+ * {@code <session>.xml} holds the text (encoded like the file it belongs to, so it reopens
+ * like one) and {@code <session>.properties} says which file that was. The entry is
+ * deleted when the document is saved and when the session ends normally, so whatever is
+ * left unlocked at the next launch is work a crashed session never saved.
+ *
+ * Callers {@link #offer} a snapshot on every edit. Writing happens on a low-priority
+ * background thread, at most once per interval and only after edits have paused, so
+ * autosaving never competes with typing.
+ */
+public class AutosaveJournal {
+
+    public static final long DEFAULT_INTERVAL_MS = 30_000;
+    // Wait for typing to pause this long before writing
+    private static final long QUIET_MS = 2_000;
+    private static final long TICK_MS = 1_000;
+
+    /**
+     * Unsaved work left behind by a session that didn't end normally.
+     *
+     * @param textFile      the journaled text; open it like any XML file
+     * @param source        the file it was edited from, or null for an untitled document
+     * @param charset       the encoding to save it back in: that of {@code source}, or UTF-8
+     *                      if the text no longer fits it
+     * @param byteOrderMark whether to write a byte order mark, likewise
+     * @param savedAt       when it was journaled
+     */
+    public record Entry(Path textFile, Path source, Charset charset, boolean byteOrderMark, Instant savedAt) {
+
+        /**
+         * Discards this entry (once recovered, or when the user declines it).
+         */
+        public void delete() throws IOException {
+            String session = sessionOf(textFile);
+            Path dir = textFile.getParent();
+            Files.deleteIfExists(dir.resolve(session + ".properties"));
+            Files.deleteIfExists(textFile);
+            Files.deleteIfExists(dir.resolve(session + ".lock"));
+        }
+    }
+
+    private final Path textFile;
+    private final Path infoFile;
+    private final Path lockFile;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final long intervalNanos;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "autosave-journal");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Written by the FX thread, read by the journal thread
+    private final AtomicReference<DocumentSnapshot> latest = new AtomicReference<>();
+    private volatile long lastOfferNanos;
+    private volatile Path source;
+    private volatile Charset charset = StandardCharsets.UTF_8;
+    private volatile boolean byteOrderMark;
+
+    // Journal thread only
+    private long writtenVersion = -1;
+    private long savedVersion = -1;
+    private long lastWriteNanos = System.nanoTime();
+
+    /**
+     * Starts this session's entry in {@code dir}.
+     */
+    public AutosaveJournal(Path dir, long intervalMs) throws IOException {
+        Files.createDirectories(dir);
+        String session = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"))
+                + "-" + ProcessHandle.current().pid();
+        this.textFile = dir.resolve(session + ".xml");
+        this.infoFile = dir.resolve(session + ".properties");
+        this.lockFile = dir.resolve(session + ".lock");
+        this.lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.lock = lockChannel.lock();
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        timer.scheduleWithFixedDelay(this::tick, TICK_MS, TICK_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records which file the document belongs to (null if untitled) and how it's encoded.
+     */
+    public void setSource(Path file, Charset charset, boolean byteOrderMark) {
+        this.source = file;
+        this.charset = charset;
+        this.byteOrderMark = byteOrderMark;
+    }
+
+    /**
+     * Hands over the current text after an edit. Cheap; call it on every change.
+     */
+    public void offer(DocumentSnapshot snapshot) {
+        latest.set(snapshot);
+        lastOfferNanos = System.nanoTime();
+    }
+
+    /**
+     * Tells the journal {@code snapshot} is on disk, so the entry can go until the next edit.
+     */
+    public void markSaved(DocumentSnapshot snapshot) {
+        long version = snapshot.version();
+        timer.execute(() -> {
+            savedVersion = Math.max(savedVersion, version);
+            if (writtenVersion >= 0 && writtenVersion <= savedVersion) {
+                deleteEntry();
+                writtenVersion = -1;
+            }
+        });
+    }
+
+    /**
+     * Journals the latest offered snapshot now, without waiting for a pause.
+     */
+    public CompletableFuture<Void> flush() {
+        return CompletableFuture.runAsync(() -> {
+            DocumentSnapshot snapshot = latest.get();
+            if (snapshot != null && snapshot.version() > Math.max(writtenVersion, savedVersion)) write(snapshot);
+        }, timer);
+    }
+
+    private void tick() {
+        DocumentSnapshot snapshot = latest.get();
+        if (snapshot == null || snapshot.version() <= Math.max(writtenVersion, savedVersion)) return;
+        long now = System.nanoTime();
+        if (now - lastOfferNanos < TimeUnit.MILLISECONDS.toNanos(QUIET_MS)) return;
+        if (now - lastWriteNanos < intervalNanos) return;
+        write(snapshot);
+    }
+
+    private void write(DocumentSnapshot snapshot) {
+        lastWriteNanos = System.nanoTime();
+        Charset encoding = charset;
+        boolean bom = byteOrderMark;
+        try {
+            // 1. The text, like a save would write it. If the file's encoding can't hold it,
+            //    UTF-8 with a byte order mark still reopens correctly whatever the declaration says.
+            //    The entry then records UTF-8, so the recovered text isn't saved back in an encoding that fails.
+            try {
+                DocumentSaver.writeAtomically(snapshot, textFile, encoding, bom);
+            } catch (IOException e) {
+                if (encoding.equals(StandardCharsets.UTF_8)) throw e;
+                encoding = StandardCharsets.UTF_8;
+                bom = true;
+                DocumentSaver.writeAtomically(snapshot, textFile, encoding, bom);
+            }
+
+            // 2. Then what it belongs to; an entry only counts once this exists
+            Properties info = new Properties();
+            Path file = source;
+            if (file != null) info.setProperty("source", file.toAbsolutePath().toString());
+            info.setProperty("charset", encoding.name());
+            info.setProperty("byteOrderMark", Boolean.toString(bom));
+            info.setProperty("savedAt", Instant.now().toString());
+            StringWriter text = new StringWriter();
+            info.store(text, "TEI Editor autosave");
+            DocumentSaver.writeAtomically(text.toString(), infoFile, StandardCharsets.UTF_8, false);
+            writtenVersion = snapshot.version();
+        } catch (IOException e) {
+            System.err.println("Warning: Autosave failed. " + e.getMessage());
+        }
+    }
+
+    private void deleteEntry() {
+        try {
+            Files.deleteIfExists(infoFile);
+            Files.deleteIfExists(textFile);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not delete autosave " + textFile + ". " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ends the session normally: stops journaling and deletes this session's entry.
+     */
+    public void close() {
+        timer.shutdownNow();
+        try {
+            timer.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        deleteEntry();
+        try {
+            lock.release();
+            lockChannel.close();
+            Files.deleteIfExists(lockFile);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not release autosave lock. " + e.getMessage());
+        }
+    }
+
+    /**
+     * Entries in {@code dir} left by sessions that are no longer running, newest first.
+     */
+    public static List<Entry> findRecoverable(Path dir) {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return entries;
+        try (DirectoryStream<Path> locks = Files.newDirectoryStream(dir, "*.lock")) {
+            for (Path lockPath : locks) {
+                String session = sessionOf(lockPath);
+                if (isLive(lockPath)) continue;
+                Path info = dir.resolve(session + ".properties");
+                Path text = dir.resolve(session + ".xml");
+                if (!Files.exists(info) || !Files.exists(text)) {
+                    // Ended before its first write: nothing to recover
+                    Files.deleteIfExists(text);
+                    Files.deleteIfExists(lockPath);
+                    continue;
+                }
+                entries.add(readEntry(info, text));
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Could not read autosave directory. " + e.getMessage());
+        }
+        entries.sort(Comparator.comparing(Entry::savedAt).reversed());
+        return entries;
+    }
+
+    private static Entry readEntry(Path info, Path text) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(info, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String source = properties.getProperty("source");
+        Charset charset = StandardCharsets.UTF_8;
+        try {
+            charset = Charset.forName(properties.getProperty("charset", "UTF-8"));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: Unknown charset in " + info + ", using UTF-8.");
+        }
+        Instant savedAt;
+        try {
+            savedAt = Instant.parse(properties.getProperty("savedAt"));
+        } catch (RuntimeException e) {
+            savedAt = Files.getLastModifiedTime(text).toInstant();
+        }
+        return new Entry(text, source != null ? Path.of(source) : null, charset,
+                Boolean.parseBoolean(properties.getProperty("byteOrderMark")), savedAt);
+    }
+
+    // A session that is still running holds the lock on its lock file
+    private static boolean isLive(Path lockPath) {
+        try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.WRITE)) {
+            FileLock probe = channel.tryLock();
+            if (probe == null) return true;
+            probe.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            // Locked by this process: our own session
+            return true;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static String sessionOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+}
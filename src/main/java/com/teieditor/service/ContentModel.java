@@ -0,0 +1,225 @@
+package com.teieditor.service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Which elements may go inside which, and which attributes each may carry, per the TEI schema.
+ *
+ * The build compiles tei_all.rng into a small binary index (see {@link ContentModelCompiler})
+ * that loads in a few milliseconds, instead of the seconds Jing needs for the full schema.
+ * Each element's allowed children are a bit set over all element names, so
+ * {@link #canContain} is a hash lookup and a bit test whatever the size of the document.
+ * Answers ignore order and cardinality: they say whether the child may appear anywhere in
+ * the parent, which is what the sidebar and drop targets need.
+ */
+public final class ContentModel {
+
+    private static final String INDEX_RESOURCE = "/schema/tei_all.cmi";
+    private static final String SCHEMA_RESOURCE = "/schema/tei_all.rng";
+    private static final int MAGIC = 0x54454943; // "TEIC"
+    private static final int FORMAT_VERSION = 1;
+
+    // Per-element flags
+    static final byte TEXT = 1;
+    static final byte FOREIGN_ELEMENTS = 2;
+    static final byte ANY_ATTRIBUTE = 4;
+    static final byte ROOT = 8;
+
+    private final String[] elements;
+    private final Map<String, Integer> index;
+    private final long[][] children;
+    private final String[] attributeNames;
+    private final int[][] attributes;
+    private final byte[] flags;
+
+    ContentModel(String[] elements, long[][] children, String[] attributeNames, int[][] attributes, byte[] flags) {
+        this.elements = elements;
+        this.children = children;
+        this.attributeNames = attributeNames;
+        this.attributes = attributes;
+        this.flags = flags;
+        this.index = new HashMap<>(elements.length * 2);
+        for (int i = 0; i < elements.length; i++) index.put(elements[i], i);
+    }
+
+    /**
+     * The TEI content model, loaded once from the index built with the application.
+     */
+    public static ContentModel tei() {
+        return TeiHolder.MODEL;
+    }
+
+    private static final class TeiHolder {
+        static final ContentModel MODEL = loadTei();
+    }
+
+    private static ContentModel loadTei() {
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.SCHEMA_LOAD, "content model")) {
+            InputStream in = ContentModel.class.getResourceAsStream(INDEX_RESOURCE);
+            if (in != null) {
+                try (in) {
+                    return read(in);
+                } catch (IOException e) {
+                    System.err.println("Warning: Could not read the content model index, compiling the schema instead. " + e.getMessage());
+                }
+            }
+            // Running from sources without the generated index: slower, same answers
+            try (InputStream rng = ContentModel.class.getResourceAsStream(SCHEMA_RESOURCE)) {
+                if (rng == null) throw new IllegalStateException("Missing " + SCHEMA_RESOURCE);
+                return ContentModelCompiler.compile(rng);
+            } catch (Exception e) {
+                System.err.println("Warning: No TEI content model; element placement won't be checked. " + e.getMessage());
+                return new ContentModel(new String[0], new long[0][], new String[0], new int[0][], new byte[0]);
+            }
+        }
+    }
+
+    // ==========================================
+    // QUERIES
+    // ==========================================
+
+    /**
+     * Whether the schema defines {@code element}. Questions about unknown elements get permissive answers.
+     */
+    public boolean isKnown(String element) {
+        return index.containsKey(element);
+    }
+
+    /**
+     * Whether {@code child} may appear anywhere inside {@code parent}. True if the parent is
+     * unknown; an unknown child is only allowed where the schema accepts foreign elements.
+     */
+    public boolean canContain(String parent, String child) {
+        Integer p = index.get(parent);
+        if (p == null) return true;
+        Integer c = index.get(child);
+        if (c == null) return (flags[p] & FOREIGN_ELEMENTS) != 0;
+        return (children[p][c >>> 6] & (1L << c)) != 0;
+    }
+
+    /**
+     * Elements allowed inside {@code parent}, alphabetically; empty if it's unknown.
+     */
+    public List<String> allowedChildren(String parent) {
+        Integer p = index.get(parent);
+        if (p == null) return List.of();
+        List<String> result = new ArrayList<>();
+        long[] bits = children[p];
+        for (int word = 0; word < bits.length; word++) {
+            for (long w = bits[word]; w != 0; w &= w - 1) {
+                result.add(elements[(word << 6) + Long.numberOfTrailingZeros(w)]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Elements that may contain {@code child}, alphabetically; empty if it's unknown.
+     */
+    public List<String> allowedParents(String child) {
+        Integer c = index.get(child);
+        if (c == null) return List.of();
+        List<String> result = new ArrayList<>();
+        int word = c >>> 6;
+        long bit = 1L << c;
+        for (int p = 0; p < elements.length; p++) {
+            if ((children[p][word] & bit) != 0) result.add(elements[p]);
+        }
+        return result;
+    }
+
+    /**
+     * Attributes {@code element} may carry, alphabetically, including the global ones.
+     */
+    public List<String> attributes(String element) {
+        Integer e = index.get(element);
+        if (e == null) return List.of();
+        List<String> result = new ArrayList<>(attributes[e].length);
+        for (int a : attributes[e]) result.add(attributeNames[a]);
+        return result;
+    }
+
+    public boolean allowsText(String element) {
+        Integer e = index.get(element);
+        return e == null || (flags[e] & TEXT) != 0;
+    }
+
+    /**
+     * Whether {@code element} may be the document element.
+     */
+    public boolean isRoot(String element) {
+        Integer e = index.get(element);
+        return e != null && (flags[e] & ROOT) != 0;
+    }
+
+    /**
+     * Every element the schema defines, alphabetically.
+     */
+    public List<String> elementNames() {
+        return Collections.unmodifiableList(Arrays.asList(elements));
+    }
+
+    int attributeCount() {
+        return attributeNames.length;
+    }
+
+    // ==========================================
+    // BINARY FORMAT
+    // ==========================================
+
+    /**
+     * Writes the index: element and attribute name tables, then per element its flags,
+     * its children bit set and its attribute numbers.
+     */
+    void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(FORMAT_VERSION);
+        data.writeShort(elements.length);
+        for (String element : elements) data.writeUTF(element);
+        data.writeShort(attributeNames.length);
+        for (String attribute : attributeNames) data.writeUTF(attribute);
+        for (int i = 0; i < elements.length; i++) {
+            data.writeByte(flags[i]);
+            for (long word : children[i]) data.writeLong(word);
+            data.writeShort(attributes[i].length);
+            for (int a : attributes[i]) data.writeShort(a);
+        }
+        data.flush();
+    }
+
+    static ContentModel read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) throw new IOException("Not a content model index");
+        int version = data.readUnsignedShort();
+        if (version != FORMAT_VERSION) throw new IOException("Unsupported content model index version " + version);
+
+        String[] elements = new String[data.readUnsignedShort()];
+        for (int i = 0; i < elements.length; i++) elements[i] = data.readUTF();
+        String[] attributeNames = new String[data.readUnsignedShort()];
+        for (int i = 0; i < attributeNames.length; i++) attributeNames[i] = data.readUTF();
+
+        int words = (elements.length + 63) / 64;
+        long[][] children = new long[elements.length][words];
+        int[][] attributes = new int[elements.length][];
+        byte[] flags = new byte[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            flags[i] = data.readByte();
+            for (int w = 0; w < words; w++) children[i][w] = data.readLong();
+            attributes[i] = new int[data.readUnsignedShort()];
+            for (int a = 0; a < attributes[i].length; a++) attributes[i][a] = data.readUnsignedShort();
+        }
+        return new ContentModel(elements, children, attributeNames, attributes, flags);
+    }
+}
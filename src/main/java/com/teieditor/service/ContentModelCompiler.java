@@ -0,0 +1,195 @@
+package com.teieditor.service;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Reduces a RELAX NG schema (XML syntax, a single self-contained grammar like tei_all.rng)
+ * to a {@link ContentModel}: for each element, every element that may appear among its
+ * children, the attributes it may carry and whether it may contain text.
+ *
+ * Order and cardinality are dropped, so "allowed" means "allowed somewhere in the content";
+ * only a full validation can tell whether it's allowed at that exact position. Runs at build
+ * time (gradle contentModelIndex), writing the index that ships next to the schema.
+ */
+final class ContentModelCompiler {
+
+    private static final String RNG_NS = "http://relaxng.org/ns/structure/1.0";
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+
+    /**
+     * What one element's content may contain, as collected from its pattern.
+     */
+    private static final class Content {
+        final Set<String> children = new TreeSet<>();
+        final Set<String> attributes = new TreeSet<>();
+        boolean text;
+        boolean foreignElements;
+        boolean anyAttribute;
+    }
+
+    private final Map<String, Element> defines = new HashMap<>();
+    // Keyed by local name; the TEI doesn't reuse a name across namespaces for different elements
+    private final Map<String, Content> elements = new TreeMap<>();
+    private final Set<String> roots = new TreeSet<>();
+
+    private ContentModelCompiler() { }
+
+    static ContentModel compile(InputStream rng) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Element grammar = factory.newDocumentBuilder().parse(rng).getDocumentElement();
+
+        ContentModelCompiler compiler = new ContentModelCompiler();
+        // 1. Index the named patterns
+        for (Element define : rngChildren(grammar, "define")) {
+            if (define.hasAttribute("combine")) throw new IllegalArgumentException("Combined defines are not supported: " + define.getAttribute("name"));
+            compiler.defines.put(define.getAttribute("name"), define);
+        }
+        // 2. Start from the root elements and follow every element reachable from them
+        for (Element start : rngChildren(grammar, "start")) {
+            Content top = new Content();
+            compiler.collect(start, top, new HashSet<>());
+            compiler.roots.addAll(top.children);
+        }
+        for (Element define : compiler.defines.values()) compiler.findElements(define);
+        return compiler.build();
+    }
+
+    // Visits every named element definition, so elements only reachable through wildcards still get an entry
+    private void findElements(Element pattern) {
+        for (Element child : rngChildren(pattern, null)) {
+            if (child.getLocalName().equals("element") && child.hasAttribute("name")) {
+                String name = localName(child.getAttribute("name"));
+                if (!elements.containsKey(name)) {
+                    Content content = new Content();
+                    elements.put(name, content);
+                    for (Element part : rngChildren(child, null)) collect(part, content, new HashSet<>());
+                }
+            }
+            findElements(child);
+        }
+    }
+
+    /**
+     * Adds what {@code pattern} allows to {@code content}, without descending into child elements.
+     *
+     * @param followed defines already expanded for this element, so recursive patterns terminate
+     */
+    private void collect(Element pattern, Content content, Set<String> followed) {
+        switch (pattern.getLocalName()) {
+            case "element" -> {
+                if (pattern.hasAttribute("name")) content.children.add(localName(pattern.getAttribute("name")));
+                else content.foreignElements = true;
+            }
+            case "attribute" -> {
+                if (pattern.hasAttribute("name")) content.attributes.add(attributeName(pattern));
+                else content.anyAttribute = true;
+            }
+            case "text", "mixed" -> {
+                content.text = true;
+                for (Element child : rngChildren(pattern, null)) collect(child, content, followed);
+            }
+            case "ref" -> {
+                String name = pattern.getAttribute("name");
+                Element define = defines.get(name);
+                if (define == null) throw new IllegalArgumentException("Undefined pattern: " + name);
+                if (followed.add(name)) {
+                    for (Element child : rngChildren(define, null)) collect(child, content, followed);
+                }
+            }
+            // Datatypes constrain text, they don't add structure
+            case "data", "value", "list" -> content.text = true;
+            case "empty", "notAllowed", "param", "except", "name", "anyName", "nsName" -> { }
+            default -> {
+                for (Element child : rngChildren(pattern, null)) collect(child, content, followed);
+            }
+        }
+    }
+
+    private ContentModel build() {
+        String[] names = elements.keySet().toArray(String[]::new);
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < names.length; i++) index.put(names[i], i);
+        TreeSet<String> allAttributes = new TreeSet<>();
+        for (Content content : elements.values()) allAttributes.addAll(content.attributes);
+        String[] attributeNames = allAttributes.toArray(String[]::new);
+        Map<String, Integer> attributeIndex = new HashMap<>();
+        for (int i = 0; i < attributeNames.length; i++) attributeIndex.put(attributeNames[i], i);
+
+        long[][] children = new long[names.length][(names.length + 63) / 64];
+        int[][] attributes = new int[names.length][];
+        byte[] flags = new byte[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Content content = elements.get(names[i]);
+            for (String child : content.children) {
+                int c = index.get(child);
+                children[i][c >>> 6] |= 1L << c;
+            }
+            attributes[i] = content.attributes.stream().mapToInt(attributeIndex::get).toArray();
+            if (content.text) flags[i] |= ContentModel.TEXT;
+            if (content.foreignElements) flags[i] |= ContentModel.FOREIGN_ELEMENTS;
+            if (content.anyAttribute) flags[i] |= ContentModel.ANY_ATTRIBUTE;
+            if (roots.contains(names[i])) flags[i] |= ContentModel.ROOT;
+        }
+        return new ContentModel(names, children, attributeNames, attributes, flags);
+    }
+
+    private static List<Element> rngChildren(Element parent, String localName) {
+        List<Element> result = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && RNG_NS.equals(element.getNamespaceURI())
+                    && (localName == null || localName.equals(element.getLocalName()))) {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+
+    private static String localName(String qName) {
+        return qName.substring(qName.indexOf(':') + 1);
+    }
+
+    private static String attributeName(Element attribute) {
+        String name = attribute.getAttribute("name");
+        if (!name.contains(":") && XML_NS.equals(attribute.getAttribute("ns"))) return "xml:" + name;
+        return name;
+    }
+
+    /**
+     * Compiles {@code SCHEMA.rng} into {@code INDEX}; run by the build.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: ContentModelCompiler SCHEMA.rng INDEX");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        ContentModel model;
+        try (InputStream in = Files.newInputStream(Path.of(args[0]))) {
+            model = compile(in);
+        }
+        Path out = Path.of(args[1]);
+        Files.createDirectories(out.toAbsolutePath().getParent());
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(out))) {
+            model.write(os);
+        }
+        System.out.printf("Content model: %d elements, %d attributes, %d bytes in %d ms%n",
+                model.elementNames().size(), model.attributeCount(), Files.size(out), (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,177 @@
+package com.teieditor.service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Reads one TEI file in a single streaming pass and collects what {@link CorpusIndex} keeps
+ * of it: the words of its text, the elements it uses, and the named entities and identified
+ * elements it contains, each with its line, attributes and text.
+ */
+final class CorpusExtractor {
+
+    /** Elements kept as individual occurrences, searchable by attribute value and by their own words. */
+    static final Set<String> ENTITY_ELEMENTS = Set.of("persName", "placeName", "date");
+
+    private static final String XML_NS = "http://www.w3.org/XML/1998/namespace";
+    // Enough for any name or date; longer texts (a div with an xml:id) are cut here
+    private static final int MAX_TEXT = 300;
+    private static final int MAX_WORD = 64;
+    private static final int MAX_ATTRIBUTES = 1000;
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * An element worth finding by itself.
+     *
+     * @param attributes its attributes as written ({@code ref="#jane" type="fictional"})
+     */
+    record Occurrence(String element, int line, String xmlId, String attributes, String text,
+                      List<String[]> attributeValues) { }
+
+    /**
+     * What was found in one file.
+     *
+     * @param error why the file couldn't be read to the end, or null; whatever came before is still kept
+     */
+    record Extract(Set<String> words, Set<String> elements, List<Occurrence> occurrences, String error) { }
+
+    private CorpusExtractor() { }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            factory.setProperty("http://java.sun.com/xml/stream/properties/ignore-external-dtd", true);
+        } catch (IllegalArgumentException ignored) {
+            // Other StAX implementations don't need this
+        }
+        return factory;
+    }
+
+    static Extract extract(Path file) throws IOException {
+        Set<String> words = new TreeSet<>();
+        Set<String> elements = new TreeSet<>();
+        List<Occurrence> occurrences = new ArrayList<>();
+        // Occurrences whose end tag hasn't been reached, innermost last, with their text so far
+        Deque<Open> open = new ArrayDeque<>();
+        String error = null;
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+            try {
+                int depth = 0;
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                        case XMLStreamConstants.START_ELEMENT -> {
+                            depth++;
+                            String name = reader.getLocalName();
+                            elements.add(name);
+                            String xmlId = reader.getAttributeValue(XML_NS, "id");
+                            if (ENTITY_ELEMENTS.contains(name) || xmlId != null) {
+                                open.addLast(new Open(name, reader.getLocation().getLineNumber(), xmlId, attributes(reader), depth));
+                            }
+                        }
+                        case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                            String text = reader.getText();
+                            words(text, words::add);
+                            for (Open element : open) element.append(text);
+                        }
+                        case XMLStreamConstants.END_ELEMENT -> {
+                            if (!open.isEmpty() && open.peekLast().depth == depth) occurrences.add(open.removeLast().close());
+                            depth--;
+                        }
+                        default -> { }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            error = e.getMessage();
+        }
+        return new Extract(words, elements, occurrences, error);
+    }
+
+    /**
+     * Calls {@code out} with each word of {@code text}, lowercased: runs of letters and digits.
+     */
+    static void words(CharSequence text, Consumer<String> out) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_WORD) out.accept(text.subSequence(start, i).toString().toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    private static List<String[]> attributes(XMLStreamReader reader) {
+        List<String[]> attributes = new ArrayList<>(reader.getAttributeCount());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String name = prefix == null || prefix.isEmpty() ? reader.getAttributeLocalName(i) : prefix + ":" + reader.getAttributeLocalName(i);
+            attributes.add(new String[] { name, reader.getAttributeValue(i) });
+        }
+        return attributes;
+    }
+
+    private static final class Open {
+        final String element;
+        final int line;
+        final String xmlId;
+        final List<String[]> attributes;
+        final int depth;
+        final StringBuilder text = new StringBuilder();
+
+        Open(String element, int line, String xmlId, List<String[]> attributes, int depth) {
+            this.element = element;
+            this.line = line;
+            this.xmlId = xmlId;
+            this.attributes = attributes;
+            this.depth = depth;
+        }
+
+        // Whitespace collapsed as it comes, so the limit counts what's shown
+        void append(String chars) {
+            for (int i = 0; i < chars.length() && text.length() < MAX_TEXT; i++) {
+                char c = chars.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    if (!text.isEmpty() && text.charAt(text.length() - 1) != ' ') text.append(' ');
+                } else {
+                    text.append(c);
+                }
+            }
+        }
+
+        Occurrence close() {
+            StringBuilder written = new StringBuilder();
+            for (String[] attribute : attributes) {
+                if (!written.isEmpty()) written.append(' ');
+                written.append(attribute[0]).append("=\"").append(attribute[1]).append('"');
+            }
+            if (written.length() > MAX_ATTRIBUTES) written.setLength(MAX_ATTRIBUTES);
+            return new Occurrence(element, line, xmlId, written.toString(), text.toString().strip(), attributes);
+        }
+    }
+}
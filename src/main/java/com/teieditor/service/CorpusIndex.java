@@ -0,0 +1,685 @@
+package com.teieditor.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * A searchable index of every TEI file under a workspace folder, kept on disk between sessions.
+ *
+ * Files are read in parallel in the background (see {@link CorpusExtractor}) and their words,
+ * element names, xml:ids and persName/placeName/date occurrences go into an inverted index
+ * under ~/.tei-editor/corpus, one directory per workspace. The index is a list of immutable
+ * segment files (see {@link CorpusSegment}) named by a manifest, like a small Lucene: files
+ * that change are read again into a new segment and their old entries marked deleted, and
+ * small segments are merged once there are too many. Reopening a workspace loads the saved
+ * segments and re-reads only files whose size or modification time changed; while it's open,
+ * a {@link WatchService} on its folders triggers the same check.
+ *
+ * Searches run against the loaded segments, so they take milliseconds and never touch the
+ * files themselves. See {@link #search} for the query forms.
+ */
+public class CorpusIndex {
+
+    // Changes come in bursts (a save, a git pull): rescan once they've settled
+    private static final long QUIET_MS = 500;
+    // Files per segment while indexing; each batch is saved as it completes
+    private static final int BATCH_FILES = 500;
+    // More segments than this are merged, all but the largest
+    private static final int MAX_SEGMENTS = 8;
+    // Prefix queries ("jan*") stop expanding after this many terms
+    private static final int MAX_PREFIX_TERMS = 1000;
+    private static final String MANIFEST = "manifest.properties";
+    private static final String SEGMENT_SUFFIX = ".cix";
+
+    /**
+     * A search result: an occurrence at {@code line}, or a whole file (line -1, no element).
+     */
+    public record Hit(Path file, int line, String element, String attributes, String text) { }
+
+    /**
+     * @param total how many hits there were before the limit
+     */
+    public record Results(List<Hit> hits, int total, long micros) { }
+
+    /**
+     * @param files   files in the index
+     * @param pending files found changed that are still being read
+     * @param busy    whether a scan is running
+     * @param failed  indexed files that aren't well-formed, so were only indexed up to the error
+     */
+    public record Status(int files, int pending, boolean busy, int failed, int segments) { }
+
+    // Where a file's live entry is
+    private record Location(int segment, int file) { }
+
+    /**
+     * One consistent version of the index; replaced as a whole, never modified, so searches
+     * need no locks.
+     *
+     * @param deleted per segment, the files that have a newer entry or no longer exist
+     */
+    private record State(List<CorpusSegment> segments, List<BitSet> deleted, Map<String, Location> files, int nextSegment) {
+        static final State EMPTY = new State(List.of(), List.of(), Map.of(), 0);
+    }
+
+    private record FileInfo(long size, long modified) { }
+
+    private final Path root;
+    private final Path indexDir;
+    private volatile State state = State.EMPTY;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean busy = new AtomicBoolean(true);
+    private final AtomicBoolean scanQueued = new AtomicBoolean();
+    private volatile boolean closed;
+
+    // Scans run one at a time here; files are read on the pool
+    private final ExecutorService updater;
+    private final ExecutorService readers;
+
+    private WatchService watchService;
+    private final Map<Path, WatchKey> watchKeys = new HashMap<>();
+
+    /**
+     * Opens the index of {@code root}, kept in a directory of {@code indexesDir}, and starts
+     * bringing it up to date in the background.
+     */
+    public CorpusIndex(Path root, Path indexesDir) {
+        this.root = root.toAbsolutePath().normalize();
+        this.indexDir = indexesDir.resolve(digest(this.root.toString()));
+        this.updater = Executors.newSingleThreadExecutor(r -> daemon(r, "corpus-index-updater"));
+        AtomicInteger threadCount = new AtomicInteger();
+        this.readers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                r -> daemon(r, "corpus-indexer-" + threadCount.incrementAndGet()));
+
+        scanQueued.set(true);
+        updater.execute(() -> {
+            load();
+            scanQueued.set(false);
+            scan();
+        });
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        // Indexing a corpus must not make typing lag
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    public Status status() {
+        State current = state;
+        int failed = 0;
+        for (Location location : current.files().values()) {
+            if (current.segments().get(location.segment()).errors[location.file()] != null) failed++;
+        }
+        return new Status(current.files().size(), pending.get(), busy.get(), failed, current.segments().size());
+    }
+
+    /**
+     * Checks the folder for added, changed and removed files, unless a check is already waiting to run.
+     */
+    public void rescan() {
+        if (closed || !scanQueued.compareAndSet(false, true)) return;
+        updater.execute(() -> {
+            scanQueued.set(false);
+            scan();
+        });
+    }
+
+    // ==========================================
+    // SEARCHING
+    // ==========================================
+
+    /**
+     * Searches the files indexed so far. Forms of {@code query}:
+     * <ul>
+     *   <li>{@code jane austen} – files containing every word (case-insensitive)</li>
+     *   <li>{@code persName@ref=#jane} – every persName whose ref is, or includes, {@code #jane}; also
+     *       placeName and date, with any attribute; leave out the element for all three</li>
+     *   <li>{@code persName:austen} – every persName whose text contains the words</li>
+     *   <li>{@code @xml:id=ch1} – the element with that xml:id</li>
+     *   <li>{@code <lg>} – files using the element</li>
+     * </ul>
+     * A value or word ending in {@code *} matches by prefix ({@code date@when=1815*}).
+     *
+     * @param limit most hits to return, in file and line order
+     * @throws IllegalArgumentException if the query isn't one of these forms
+     */
+    public Results search(String query, int limit) {
+        long start = System.nanoTime();
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.CORPUS_SEARCH)) {
+            State current = state;
+            List<Match> matches = new ArrayList<>();
+            for (Clause clause : parse(query.strip())) {
+                for (int s = 0; s < current.segments().size(); s++) {
+                    collect(current, s, clause, matches);
+                }
+            }
+            matches.sort(Comparator.comparing(Match::path).thenComparingInt(Match::line));
+
+            List<Hit> hits = new ArrayList<>(Math.min(limit, matches.size()));
+            for (Match match : matches.subList(0, Math.min(limit, matches.size()))) {
+                CorpusSegment segment = current.segments().get(match.segment());
+                Path file = root.resolve(match.path());
+                hits.add(match.occurrence() < 0
+                        ? new Hit(file, -1, null, "", "")
+                        : new Hit(file, match.line(), segment.occurrenceElement[match.occurrence()],
+                                segment.occurrenceAttributes[match.occurrence()], segment.occurrenceText[match.occurrence()]));
+            }
+            return new Results(hits, matches.size(), (System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * Terms that must all match, and whether their postings are occurrences; a query of several
+     * clauses (an attribute over all entity elements) matches what any of them does.
+     */
+    private record Clause(List<String> terms, boolean occurrences, String element) { }
+
+    private record Match(String path, int line, int segment, int occurrence) { }
+
+    private static List<Clause> parse(String query) {
+        if (query.isEmpty()) return List.of();
+
+        // <element>
+        if (query.startsWith("<") && query.endsWith(">")) {
+            return List.of(new Clause(List.of("e:" + query.substring(1, query.length() - 1).strip()), false, null));
+        }
+
+        // element@attribute=value
+        int at = query.indexOf('@');
+        if (at >= 0) {
+            String element = query.substring(0, at).strip();
+            int equals = query.indexOf('=', at);
+            if (equals < 0) throw new IllegalArgumentException("Expected element@attribute=value, e.g. persName@ref=#jane");
+            String attribute = query.substring(at + 1, equals).strip();
+            String value = unquote(query.substring(equals + 1).strip());
+            if (attribute.equals("xml:id")) {
+                return List.of(new Clause(List.of("i:" + value), true, element.isEmpty() ? null : element));
+            }
+            if (element.isEmpty()) {
+                return CorpusExtractor.ENTITY_ELEMENTS.stream().sorted()
+                        .map(e -> new Clause(List.of("a:" + e + "@" + attribute + "=" + value), true, null))
+                        .toList();
+            }
+            requireEntity(element);
+            return List.of(new Clause(List.of("a:" + element + "@" + attribute + "=" + value), true, null));
+        }
+
+        // element:words
+        int colon = query.indexOf(':');
+        if (colon > 0 && query.substring(0, colon).strip().chars().allMatch(Character::isLetterOrDigit)) {
+            String element = query.substring(0, colon).strip();
+            requireEntity(element);
+            List<String> terms = words(query.substring(colon + 1)).stream().map(w -> "n:" + element + ":" + w).toList();
+            if (terms.isEmpty()) throw new IllegalArgumentException("Expected words after " + element + ":");
+            return List.of(new Clause(terms, true, null));
+        }
+
+        List<String> terms = words(query).stream().map(w -> "t:" + w).toList();
+        return terms.isEmpty() ? List.of() : List.of(new Clause(terms, false, null));
+    }
+
+    // Words as the index has them, keeping a trailing * for prefix search
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        for (String part : text.strip().split("\\s+")) {
+            boolean prefix = part.endsWith("*");
+            List<String> found = new ArrayList<>();
+            CorpusExtractor.words(part, found::add);
+            if (prefix && !found.isEmpty()) found.set(found.size() - 1, found.get(found.size() - 1) + "*");
+            words.addAll(found);
+        }
+        return words;
+    }
+
+    private static void requireEntity(String element) {
+        if (!CorpusExtractor.ENTITY_ELEMENTS.contains(element)) {
+            throw new IllegalArgumentException("Only " + String.join(", ", CorpusExtractor.ENTITY_ELEMENTS.stream().sorted().toList())
+                    + " are indexed by attribute and text; " + element + " isn't.");
+        }
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && (value.startsWith("\"") && value.endsWith("\"") || value.startsWith("'") && value.endsWith("'"))) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    private static void collect(State current, int s, Clause clause, List<Match> out) {
+        CorpusSegment segment = current.segments().get(s);
+        BitSet deleted = current.deleted().get(s);
+
+        // 1. Intersect the terms' postings, rarest first so the work shrinks fast
+        List<int[]> lists = new ArrayList<>();
+        for (String term : clause.terms()) lists.add(postings(segment, term));
+        lists.sort(Comparator.comparingInt(list -> list.length));
+        int[] ids = lists.get(0);
+        for (int i = 1; i < lists.size() && ids.length > 0; i++) ids = intersect(ids, lists.get(i));
+
+        // 2. Keep live entries
+        for (int id : ids) {
+            if (clause.occurrences()) {
+                int file = segment.occurrenceFile[id];
+                if (deleted.get(file)) continue;
+                if (clause.element() != null && !clause.element().equals(segment.occurrenceElement[id])) continue;
+                out.add(new Match(segment.paths[file], segment.occurrenceLine[id], s, id));
+            } else if (!deleted.get(id)) {
+                out.add(new Match(segment.paths[id], -1, s, -1));
+            }
+        }
+    }
+
+    private static int[] postings(CorpusSegment segment, String term) {
+        if (!term.endsWith("*")) return segment.postings(term);
+        String prefix = term.substring(0, term.length() - 1);
+        BitSet union = new BitSet();
+        int end = Math.min(segment.terms.length, segment.ceiling(prefix) + MAX_PREFIX_TERMS);
+        for (int t = segment.ceiling(prefix); t < end && segment.terms[t].startsWith(prefix); t++) {
+            for (int id : segment.postings[t]) union.set(id);
+        }
+        return union.stream().toArray();
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else { result[n++] = a[i]; i++; j++; }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    // ==========================================
+    // UPDATING
+    // ==========================================
+
+    private void scan() {
+        if (closed) return;
+        busy.set(true);
+        try {
+            // 1. What's on disk now
+            Map<String, FileInfo> found = new LinkedHashMap<>();
+            List<Path> directories = new ArrayList<>();
+            try {
+                walk(found, directories);
+            } catch (IOException e) {
+                System.err.println("Warning: Could not list workspace folder " + root + ". " + e.getMessage());
+                return;
+            }
+            watch(directories);
+
+            // 2. What the index doesn't have yet, or has an older version of
+            State current = state;
+            List<String> changed = new ArrayList<>();
+            for (Map.Entry<String, FileInfo> file : found.entrySet()) {
+                Location location = current.files().get(file.getKey());
+                if (location == null) {
+                    changed.add(file.getKey());
+                    continue;
+                }
+                CorpusSegment segment = current.segments().get(location.segment());
+                if (segment.sizes[location.file()] != file.getValue().size()
+                        || segment.modified[location.file()] != file.getValue().modified()) {
+                    changed.add(file.getKey());
+                }
+            }
+            Set<String> removed = new HashSet<>(current.files().keySet());
+            removed.removeAll(found.keySet());
+            if (changed.isEmpty() && removed.isEmpty()) return;
+
+            // 3. Read them in batches; each one is saved (and searchable) as soon as it's done.
+            // In path order, so each segment's hits come out nearly sorted already
+            changed.sort(null);
+            pending.set(changed.size());
+            if (changed.isEmpty()) commit(withFiles(state, null, removed));
+            for (int from = 0; from < changed.size() && !closed; from += BATCH_FILES) {
+                List<String> batch = changed.subList(from, Math.min(changed.size(), from + BATCH_FILES));
+                CorpusSegment segment = read(batch, found, state.nextSegment());
+                commit(withFiles(state, segment, from == 0 ? removed : Set.of()));
+                pending.addAndGet(-batch.size());
+            }
+
+            // 4. Keep the number of segments, and of dead entries, down
+            if (!closed) mergeIfNeeded();
+            deleteUnusedSegments();
+        } catch (IOException e) {
+            // Closing interrupts a write in progress; the manifest still names the last complete state
+            if (!closed) System.err.println("Warning: Could not update the index of " + root + ". " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pending.set(0);
+            busy.set(false);
+        }
+    }
+
+    // Regular .xml and .tei files under the root (skipping hidden folders like .git), and the folders to watch
+    private void walk(Map<String, FileInfo> found, List<Path> directories) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && dir.getFileName().toString().startsWith(".")) return FileVisitResult.SKIP_SUBTREE;
+                directories.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString().toLowerCase();
+                if (attrs.isRegularFile() && (name.endsWith(".xml") || name.endsWith(".tei"))) {
+                    found.put(relative(file), new FileInfo(attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Unreadable or vanished mid-walk: not indexed this time
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private String relative(Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Reads {@code batch} on the pool into a new segment, written to disk.
+     */
+    private CorpusSegment read(List<String> batch, Map<String, FileInfo> found, int number) throws IOException, InterruptedException {
+        List<Future<CorpusExtractor.Extract>> extracts = new ArrayList<>(batch.size());
+        for (String path : batch) {
+            extracts.add(readers.submit(() -> {
+                try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.CORPUS_INDEX, "file")) {
+                    timer.bytes(found.get(path).size());
+                    return CorpusExtractor.extract(root.resolve(path));
+                }
+            }));
+        }
+
+        CorpusSegment.Builder builder = new CorpusSegment.Builder(segmentName(number));
+        for (int i = 0; i < batch.size(); i++) {
+            String path = batch.get(i);
+            try {
+                FileInfo info = found.get(path);
+                builder.add(path, info.size(), info.modified(), extracts.get(i).get());
+            } catch (ExecutionException e) {
+                // Gone or unreadable since the walk: the next scan tries again
+                System.err.println("Warning: Could not index " + path + ". " + e.getCause().getMessage());
+            }
+        }
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.CORPUS_INDEX, "segment")) {
+            CorpusSegment segment = builder.build();
+            Files.createDirectories(indexDir);
+            segment.write(indexDir.resolve(segment.name));
+            return segment;
+        }
+    }
+
+    /**
+     * {@code base} with {@code added} appended (null for none) and the older entries of its
+     * files, and those of {@code removed}, marked deleted.
+     */
+    private static State withFiles(State base, CorpusSegment added, Set<String> removed) {
+        List<CorpusSegment> segments = new ArrayList<>(base.segments());
+        List<BitSet> deleted = new ArrayList<>();
+        for (BitSet bits : base.deleted()) deleted.add((BitSet) bits.clone());
+        Map<String, Location> files = new HashMap<>(base.files());
+
+        for (String path : removed) {
+            Location old = files.remove(path);
+            if (old != null) deleted.get(old.segment()).set(old.file());
+        }
+        if (added != null) {
+            segments.add(added);
+            deleted.add(new BitSet());
+            int s = segments.size() - 1;
+            for (int f = 0; f < added.fileCount(); f++) {
+                Location old = files.put(added.paths[f], new Location(s, f));
+                if (old != null) deleted.get(old.segment()).set(old.file());
+            }
+        }
+        return new State(List.copyOf(segments), List.copyOf(deleted), files, base.nextSegment() + (added != null ? 1 : 0));
+    }
+
+    /**
+     * Merges every segment but the largest once there are too many, and the largest too once
+     * a third of it is dead.
+     */
+    private void mergeIfNeeded() throws IOException {
+        State current = state;
+        List<CorpusSegment> segments = current.segments();
+        int largest = 0;
+        for (int s = 1; s < segments.size(); s++) {
+            if (segments.get(s).fileCount() > segments.get(largest).fileCount()) largest = s;
+        }
+        boolean largestStale = !segments.isEmpty() && current.deleted().get(largest).cardinality() * 3 > segments.get(largest).fileCount();
+        if (segments.size() <= MAX_SEGMENTS && !largestStale) return;
+
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.CORPUS_INDEX, "merge")) {
+            CorpusSegment.Builder builder = new CorpusSegment.Builder(segmentName(current.nextSegment()));
+            List<CorpusSegment> kept = new ArrayList<>();
+            List<BitSet> keptDeleted = new ArrayList<>();
+            for (int s = 0; s < segments.size(); s++) {
+                if (s == largest && !largestStale) {
+                    kept.add(segments.get(s));
+                    keptDeleted.add(current.deleted().get(s));
+                } else {
+                    builder.addLive(segments.get(s), current.deleted().get(s));
+                }
+            }
+            State next = locate(new State(List.copyOf(kept), List.copyOf(keptDeleted), Map.of(), current.nextSegment()));
+            if (!builder.isEmpty()) {
+                CorpusSegment merged = builder.build();
+                Files.createDirectories(indexDir);
+                merged.write(indexDir.resolve(merged.name));
+                next = withFiles(next, merged, Set.of());
+            }
+            commit(next);
+        }
+    }
+
+    // The state with its file locations rebuilt from the segments' live entries
+    private static State locate(State base) {
+        Map<String, Location> files = new HashMap<>();
+        for (int s = 0; s < base.segments().size(); s++) {
+            CorpusSegment segment = base.segments().get(s);
+            for (int f = 0; f < segment.fileCount(); f++) {
+                if (!base.deleted().get(s).get(f)) files.put(segment.paths[f], new Location(s, f));
+            }
+        }
+        return new State(base.segments(), base.deleted(), files, base.nextSegment());
+    }
+
+    private static String segmentName(int number) {
+        return "segment-" + number + SEGMENT_SUFFIX;
+    }
+
+    // ==========================================
+    // PERSISTENCE
+    // ==========================================
+
+    /**
+     * Saves the manifest naming {@code next}'s segments, then makes it the searchable state.
+     * The segments are already on disk, so a crash leaves either the old manifest or the new.
+     */
+    private void commit(State next) throws IOException {
+        Properties manifest = new Properties();
+        manifest.setProperty("root", root.toString());
+        manifest.setProperty("nextSegment", Integer.toString(next.nextSegment()));
+        for (int s = 0; s < next.segments().size(); s++) {
+            manifest.setProperty("segment." + s, next.segments().get(s).name);
+            BitSet deleted = next.deleted().get(s);
+            if (!deleted.isEmpty()) {
+                manifest.setProperty("segment." + s + ".deleted",
+                        deleted.stream().mapToObj(Integer::toString).collect(Collectors.joining(",")));
+            }
+        }
+        Files.createDirectories(indexDir);
+        StringWriter text = new StringWriter();
+        manifest.store(text, "TEI Editor corpus index of " + root);
+        DocumentSaver.writeAtomically(text.toString(), indexDir.resolve(MANIFEST), StandardCharsets.UTF_8, false);
+        state = next;
+    }
+
+    private void load() {
+        Path manifestFile = indexDir.resolve(MANIFEST);
+        if (!Files.exists(manifestFile)) return;
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.CORPUS_INDEX, "load")) {
+            Properties manifest = new Properties();
+            try (Reader reader = Files.newBufferedReader(manifestFile, StandardCharsets.UTF_8)) {
+                manifest.load(reader);
+            }
+            if (!root.toString().equals(manifest.getProperty("root"))) return;
+
+            List<CorpusSegment> segments = new ArrayList<>();
+            List<BitSet> deleted = new ArrayList<>();
+            for (int s = 0; manifest.containsKey("segment." + s); s++) {
+                segments.add(CorpusSegment.read(indexDir.resolve(manifest.getProperty("segment." + s))));
+                BitSet bits = new BitSet();
+                String list = manifest.getProperty("segment." + s + ".deleted", "");
+                for (String id : list.split(",")) {
+                    if (!id.isEmpty()) bits.set(Integer.parseInt(id));
+                }
+                deleted.add(bits);
+            }
+            int nextSegment = Integer.parseInt(manifest.getProperty("nextSegment", Integer.toString(segments.size())));
+            state = locate(new State(List.copyOf(segments), List.copyOf(deleted), Map.of(), nextSegment));
+        } catch (IOException | RuntimeException e) {
+            // Unusable: index from scratch, reusing nothing
+            System.err.println("Warning: Could not load the index of " + root + ", rebuilding it. " + e.getMessage());
+            state = State.EMPTY;
+        }
+    }
+
+    // Segment files no manifest refers to any more: merged away, or written by a scan that didn't commit
+    private void deleteUnusedSegments() {
+        Set<String> used = new HashSet<>();
+        for (CorpusSegment segment : state.segments()) used.add(segment.name);
+        try (var files = Files.list(indexDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SEGMENT_SUFFIX) && !used.contains(name)) Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Could not clean up " + indexDir + ". " + e.getMessage());
+        }
+    }
+
+    private static String digest(String text) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha.digest(text.getBytes(StandardCharsets.UTF_8)), 0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ==========================================
+    // WATCHING
+    // ==========================================
+
+    private synchronized void watch(List<Path> directories) {
+        if (closed) return;
+        try {
+            if (watchService == null) {
+                watchService = root.getFileSystem().newWatchService();
+                Thread watcher = new Thread(this::watchLoop, "corpus-index-watcher");
+                watcher.setDaemon(true);
+                watcher.setPriority(Thread.MIN_PRIORITY);
+                watcher.start();
+            }
+            // Folders that went away have invalid keys already; new ones get registered
+            watchKeys.values().removeIf(key -> !key.isValid());
+            for (Path dir : directories) {
+                if (!watchKeys.containsKey(dir)) {
+                    watchKeys.put(dir, dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+                }
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // Still correct without it, only stale until the workspace is reopened or rescanned
+            System.err.println("Warning: Not watching workspace folder for changes. " + e.getMessage());
+        }
+    }
+
+    private void watchLoop() {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        try {
+            while (true) {
+                // Wait for a change, then until changes stop coming
+                WatchKey key = service.take();
+                do {
+                    key.pollEvents();
+                    key.reset();
+                } while ((key = service.poll(QUIET_MS, TimeUnit.MILLISECONDS)) != null);
+                rescan();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Stops indexing and watching. The index stays on disk for the next time the folder is opened.
+     */
+    public void close() {
+        closed = true;
+        updater.shutdownNow();
+        readers.shutdownNow();
+        synchronized (this) {
+            if (watchService == null) return;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.err.println("Warning: Could not close workspace watcher. " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,397 @@
+package com.teieditor.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One immutable part of a {@link CorpusIndex}: a batch of files, their occurrences and the
+ * inverted index over both, as loaded from (or about to be written to) a segment file.
+ *
+ * Terms are sorted strings whose prefix says what they index and what their postings number:
+ * <ul>
+ *   <li>{@code t:word} – files whose text contains the word (lowercased)</li>
+ *   <li>{@code e:persName} – files using the element</li>
+ *   <li>{@code i:jane} – occurrences with that xml:id</li>
+ *   <li>{@code a:persName@ref=#jane} – occurrences of the entity element with that attribute value,
+ *       or that token of a multi-valued one</li>
+ *   <li>{@code n:persName:austen} – occurrences of the entity element whose text contains the word</li>
+ * </ul>
+ * A segment is never modified once written. Files indexed again later go into a newer one and
+ * {@link CorpusIndex} marks their old entries deleted until a merge drops them.
+ */
+final class CorpusSegment {
+
+    private static final int MAGIC = 0x54454958; // "TEIX"
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_TERM = 500;
+
+    final String name;
+    // Per file: path relative to the workspace root ('/'-separated), size and modification time when indexed
+    final String[] paths;
+    final long[] sizes;
+    final long[] modified;
+    // Files that could only be read in part, and why
+    final String[] errors;
+    // Per occurrence
+    final int[] occurrenceFile;
+    final int[] occurrenceLine;
+    final String[] occurrenceElement;
+    final String[] occurrenceId;
+    final String[] occurrenceAttributes;
+    final String[] occurrenceText;
+    // The inverted index: sorted terms, each with ascending file or occurrence numbers
+    final String[] terms;
+    final int[][] postings;
+
+    private CorpusSegment(String name, String[] paths, long[] sizes, long[] modified, String[] errors,
+                          int[] occurrenceFile, int[] occurrenceLine, String[] occurrenceElement, String[] occurrenceId,
+                          String[] occurrenceAttributes, String[] occurrenceText, String[] terms, int[][] postings) {
+        this.name = name;
+        this.paths = paths;
+        this.sizes = sizes;
+        this.modified = modified;
+        this.errors = errors;
+        this.occurrenceFile = occurrenceFile;
+        this.occurrenceLine = occurrenceLine;
+        this.occurrenceElement = occurrenceElement;
+        this.occurrenceId = occurrenceId;
+        this.occurrenceAttributes = occurrenceAttributes;
+        this.occurrenceText = occurrenceText;
+        this.terms = terms;
+        this.postings = postings;
+    }
+
+    int fileCount() {
+        return paths.length;
+    }
+
+    int occurrenceCount() {
+        return occurrenceFile.length;
+    }
+
+    /**
+     * Postings of {@code term}, or an empty array.
+     */
+    int[] postings(String term) {
+        int i = Arrays.binarySearch(terms, term);
+        return i >= 0 ? postings[i] : new int[0];
+    }
+
+    /**
+     * Index of the first term not less than {@code term}; with {@link #postings} per index, for prefix scans.
+     */
+    int ceiling(String term) {
+        int i = Arrays.binarySearch(terms, term);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    // ==========================================
+    // BUILDING
+    // ==========================================
+
+    /**
+     * Collects files, or live entries of other segments, into a new segment.
+     */
+    static final class Builder {
+        private final String name;
+        private final StringList paths = new StringList();
+        private final LongList sizes = new LongList();
+        private final LongList modified = new LongList();
+        private final StringList errors = new StringList();
+        private final IntList occurrenceFile = new IntList();
+        private final IntList occurrenceLine = new IntList();
+        private final StringList occurrenceElement = new StringList();
+        private final StringList occurrenceId = new StringList();
+        private final StringList occurrenceAttributes = new StringList();
+        private final StringList occurrenceText = new StringList();
+        private final Map<String, IntList> index = new TreeMap<>();
+
+        Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Adds a freshly read file.
+         */
+        void add(String path, long size, long modifiedTime, CorpusExtractor.Extract extract) {
+            int file = addFile(path, size, modifiedTime, extract.error());
+            for (String word : extract.words()) posting("t:" + word, file);
+            for (String element : extract.elements()) posting("e:" + element, file);
+            for (CorpusExtractor.Occurrence occurrence : extract.occurrences()) {
+                int o = addOccurrence(file, occurrence.line(), occurrence.element(), occurrence.xmlId(),
+                        occurrence.attributes(), occurrence.text());
+                if (occurrence.xmlId() != null) posting("i:" + occurrence.xmlId(), o);
+                if (!CorpusExtractor.ENTITY_ELEMENTS.contains(occurrence.element())) continue;
+                for (String[] attribute : occurrence.attributeValues()) {
+                    String key = "a:" + occurrence.element() + "@" + attribute[0] + "=";
+                    posting(key + attribute[1], o);
+                    // Each of several space-separated values (ref="#jane #john") on its own too
+                    String[] tokens = attribute[1].trim().split("\\s+");
+                    if (tokens.length > 1) for (String token : tokens) posting(key + token, o);
+                }
+                String wordKey = "n:" + occurrence.element() + ":";
+                CorpusExtractor.words(occurrence.text(), word -> posting(wordKey + word, o));
+            }
+        }
+
+        /**
+         * Adds every file of {@code segment} not set in {@code deleted}, with its postings.
+         */
+        void addLive(CorpusSegment segment, BitSet deleted) {
+            int[] fileMap = new int[segment.fileCount()];
+            for (int f = 0; f < fileMap.length; f++) {
+                fileMap[f] = deleted.get(f) ? -1
+                        : addFile(segment.paths[f], segment.sizes[f], segment.modified[f], segment.errors[f]);
+            }
+            int[] occurrenceMap = new int[segment.occurrenceCount()];
+            for (int o = 0; o < occurrenceMap.length; o++) {
+                int file = fileMap[segment.occurrenceFile[o]];
+                occurrenceMap[o] = file < 0 ? -1 : addOccurrence(file, segment.occurrenceLine[o], segment.occurrenceElement[o],
+                        segment.occurrenceId[o], segment.occurrenceAttributes[o], segment.occurrenceText[o]);
+            }
+            // Numbers only grow from one added segment to the next, so postings stay in order
+            for (int t = 0; t < segment.terms.length; t++) {
+                int[] map = numbersFiles(segment.terms[t]) ? fileMap : occurrenceMap;
+                for (int id : segment.postings[t]) {
+                    if (map[id] >= 0) posting(segment.terms[t], map[id]);
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return paths.size == 0;
+        }
+
+        CorpusSegment build() {
+            String[] terms = index.keySet().toArray(String[]::new);
+            int[][] postings = new int[terms.length][];
+            int i = 0;
+            for (IntList list : index.values()) postings[i++] = list.toArray();
+            return new CorpusSegment(name, paths.toArray(), sizes.toArray(), modified.toArray(), errors.toArray(),
+                    occurrenceFile.toArray(), occurrenceLine.toArray(), occurrenceElement.toArray(), occurrenceId.toArray(),
+                    occurrenceAttributes.toArray(), occurrenceText.toArray(), terms, postings);
+        }
+
+        private int addFile(String path, long size, long modifiedTime, String error) {
+            paths.add(path);
+            sizes.add(size);
+            modified.add(modifiedTime);
+            errors.add(error);
+            return paths.size - 1;
+        }
+
+        private int addOccurrence(int file, int line, String element, String xmlId, String attributes, String text) {
+            occurrenceFile.add(file);
+            occurrenceLine.add(line);
+            occurrenceElement.add(element);
+            occurrenceId.add(xmlId);
+            occurrenceAttributes.add(attributes);
+            occurrenceText.add(text);
+            return occurrenceFile.size - 1;
+        }
+
+        private void posting(String term, int id) {
+            // Nobody searches for a whole paragraph stuffed into an attribute
+            if (term.length() > MAX_TERM) return;
+            IntList list = index.computeIfAbsent(term, k -> new IntList());
+            // A word repeated in one file is posted once
+            if (list.size == 0 || list.values[list.size - 1] != id) list.add(id);
+        }
+    }
+
+    /**
+     * Whether {@code term}'s postings are file numbers (rather than occurrence numbers).
+     */
+    static boolean numbersFiles(String term) {
+        return term.startsWith("t:") || term.startsWith("e:");
+    }
+
+    // ==========================================
+    // BINARY FORMAT
+    // ==========================================
+
+    /**
+     * Writes the segment to {@code file} and forces it to disk, so a manifest naming it can be trusted.
+     */
+    void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            write(data);
+            data.flush();
+            channel.force(true);
+        }
+    }
+
+    private void write(DataOutputStream data) throws IOException {
+        data.writeInt(MAGIC);
+        data.writeShort(FORMAT_VERSION);
+        writeVarInt(data, paths.length);
+        for (int f = 0; f < paths.length; f++) {
+            data.writeUTF(paths[f]);
+            data.writeLong(sizes[f]);
+            data.writeLong(modified[f]);
+            writeNullable(data, errors[f]);
+        }
+        writeVarInt(data, occurrenceFile.length);
+        for (int o = 0; o < occurrenceFile.length; o++) {
+            writeVarInt(data, occurrenceFile[o]);
+            writeVarInt(data, occurrenceLine[o]);
+            data.writeUTF(occurrenceElement[o]);
+            writeNullable(data, occurrenceId[o]);
+            data.writeUTF(occurrenceAttributes[o]);
+            data.writeUTF(occurrenceText[o]);
+        }
+        // Postings as gaps between ascending numbers, which are mostly small
+        writeVarInt(data, terms.length);
+        for (int t = 0; t < terms.length; t++) {
+            data.writeUTF(terms[t]);
+            writeVarInt(data, postings[t].length);
+            int previous = 0;
+            for (int id : postings[t]) {
+                writeVarInt(data, id - previous);
+                previous = id;
+            }
+        }
+    }
+
+    static CorpusSegment read(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(file.getFileName().toString(), in);
+        }
+    }
+
+    private static CorpusSegment read(String name, InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+        if (data.readInt() != MAGIC) throw new IOException("Not a corpus index segment");
+        int version = data.readUnsignedShort();
+        if (version != FORMAT_VERSION) throw new IOException("Unsupported corpus index version " + version);
+
+        int files = readVarInt(data);
+        String[] paths = new String[files];
+        long[] sizes = new long[files];
+        long[] modified = new long[files];
+        String[] errors = new String[files];
+        for (int f = 0; f < files; f++) {
+            paths[f] = data.readUTF();
+            sizes[f] = data.readLong();
+            modified[f] = data.readLong();
+            errors[f] = readNullable(data);
+        }
+        int occurrences = readVarInt(data);
+        int[] occurrenceFile = new int[occurrences];
+        int[] occurrenceLine = new int[occurrences];
+        String[] occurrenceElement = new String[occurrences];
+        String[] occurrenceId = new String[occurrences];
+        String[] occurrenceAttributes = new String[occurrences];
+        String[] occurrenceText = new String[occurrences];
+        for (int o = 0; o < occurrences; o++) {
+            occurrenceFile[o] = readVarInt(data);
+            occurrenceLine[o] = readVarInt(data);
+            // Few distinct element names across many occurrences
+            occurrenceElement[o] = data.readUTF().intern();
+            occurrenceId[o] = readNullable(data);
+            occurrenceAttributes[o] = data.readUTF();
+            occurrenceText[o] = data.readUTF();
+        }
+        String[] terms = new String[readVarInt(data)];
+        int[][] postings = new int[terms.length][];
+        for (int t = 0; t < terms.length; t++) {
+            terms[t] = data.readUTF();
+            int[] ids = new int[readVarInt(data)];
+            int previous = 0;
+            for (int i = 0; i < ids.length; i++) ids[i] = previous += readVarInt(data);
+            postings[t] = ids;
+        }
+        return new CorpusSegment(name, paths, sizes, modified, errors, occurrenceFile, occurrenceLine,
+                occurrenceElement, occurrenceId, occurrenceAttributes, occurrenceText, terms, postings);
+    }
+
+    private static void writeNullable(DataOutput data, String value) throws IOException {
+        data.writeBoolean(value != null);
+        // The UTF form holds at most 64K bytes; parser messages and ids are far shorter
+        if (value != null) data.writeUTF(value.length() > 1000 ? value.substring(0, 1000) : value);
+    }
+
+    private static String readNullable(DataInput data) throws IOException {
+        return data.readBoolean() ? data.readUTF() : null;
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    // ==========================================
+    // GROWABLE ARRAYS
+    // ==========================================
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class LongList {
+        long[] values = new long[16];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class StringList {
+        String[] values = new String[16];
+        int size;
+
+        void add(String value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        String[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.teieditor.service;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Timings of the editor's hot paths, as Java Flight Recorder events and as in-process statistics.
+ *
+ * A measured step is wrapped in a {@link Timer}:
+ * <pre>try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.VALIDATION)) { ... }</pre>
+ * It becomes a JFR event in the "TEI Editor" category (recorded whenever a recording is running,
+ * e.g. with -XX:StartFlightRecording) and is added to a per-step summary: count, mean, maximum
+ * and percentiles of the most recent runs. Gauges, like undo memory, are sampled on demand and
+ * as periodic JFR events. The diagnostics panel shows the summaries, and {@link #toJson}
+ * writes them out for offline analysis.
+ */
+public final class Diagnostics {
+
+    // Percentiles are computed over this many recent runs of each step
+    private static final int RECENT_SAMPLES = 1024;
+
+    /**
+     * The measured paths, each with its own JFR event type.
+     */
+    public enum Operation {
+        SCHEMA_LOAD("Schema load", SchemaLoadEvent::new),
+        VALIDATION("Validation", ValidationEvent::new),
+        XSLT_COMPILE("XSLT compile", XsltCompileEvent::new),
+        TRANSFORM("XSLT transform", TransformEvent::new),
+        FOP_RENDER("FOP render", FopRenderEvent::new),
+        EXPORT_STEP("Export step", ExportStepEvent::new),
+        VISUAL_BRIDGE("Visual bridge", VisualBridgeEvent::new),
+        CORPUS_INDEX("Corpus index", CorpusIndexEvent::new),
+        CORPUS_SEARCH("Corpus search", CorpusSearchEvent::new),
+        STARTUP("Startup", StartupEvent::new);
+
+        private final String label;
+        private final Supplier<OperationEvent> eventFactory;
+
+        Operation(String label, Supplier<OperationEvent> eventFactory) {
+            this.label = label;
+            this.eventFactory = eventFactory;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    /**
+     * Timing summary of one step.
+     *
+     * @param name the operation, and the step within it if there is one ("XSLT transform: html.xsl")
+     */
+    public record Summary(String name, long count, double totalMs, double meanMs,
+                          double p50Ms, double p95Ms, double p99Ms, double maxMs) { }
+
+    /**
+     * Current value of a gauge.
+     */
+    public record GaugeValue(String name, String unit, long value) { }
+
+    private record Gauge(String unit, LongSupplier supplier) { }
+
+    private static final Map<String, Stats> STATS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> GAUGES = new ConcurrentHashMap<>();
+    private static final Instant STARTED = Instant.now();
+
+    static {
+        FlightRecorder.addPeriodicEvent(GaugeEvent.class, Diagnostics::emitGaugeEvents);
+    }
+
+    private Diagnostics() { }
+
+    /**
+     * Starts timing {@code operation}. Close the timer when the step ends.
+     */
+    public static Timer start(Operation operation) {
+        return new Timer(operation, null);
+    }
+
+    /**
+     * Starts timing one step of {@code operation}, summarized separately from its other steps.
+     *
+     * @param step e.g. the stylesheet or pipeline step; keep the set of values small
+     */
+    public static Timer start(Operation operation, String step) {
+        return new Timer(operation, step);
+    }
+
+    /**
+     * Records a step that was timed without a {@link Timer}, like the launch phases measured
+     * before this class was loaded. It goes into the summaries only: JFR can't back-date an
+     * event (and records the JVM's own startup anyway).
+     */
+    public static void record(Operation operation, String step, long nanos) {
+        String key = step == null ? operation.label() : operation.label() + ": " + step;
+        STATS.computeIfAbsent(key, k -> new Stats()).add(nanos);
+    }
+
+    /**
+     * Adds (or replaces) a gauge sampled for the panel, the JSON dump and JFR. The supplier
+     * is called from other threads and must tolerate that.
+     */
+    public static void registerGauge(String name, String unit, LongSupplier supplier) {
+        GAUGES.put(name, new Gauge(unit, supplier));
+    }
+
+    /**
+     * A running measurement; {@link #close()} records it.
+     */
+    public static final class Timer implements AutoCloseable {
+        private final OperationEvent event;
+        private final String key;
+        private final long startNanos;
+        private long bytes = -1;
+        private boolean closed;
+
+        private Timer(Operation operation, String step) {
+            this.key = step == null ? operation.label() : operation.label() + ": " + step;
+            this.event = operation.eventFactory.get();
+            event.step = step;
+            event.begin();
+            this.startNanos = System.nanoTime();
+        }
+
+        /**
+         * Records how much data the step handled (document or payload size).
+         */
+        public Timer bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            long elapsed = System.nanoTime() - startNanos;
+            event.end();
+            if (event.shouldCommit()) {
+                event.bytes = bytes;
+                event.commit();
+            }
+            STATS.computeIfAbsent(key, k -> new Stats()).add(elapsed);
+        }
+    }
+
+    // ==========================================
+    // READING
+    // ==========================================
+
+    /**
+     * Summaries of every step measured so far, by name.
+     */
+    public static List<Summary> summaries() {
+        List<Summary> summaries = new ArrayList<>();
+        STATS.forEach((name, stats) -> summaries.add(stats.summarize(name)));
+        return summaries;
+    }
+
+    public static List<GaugeValue> gauges() {
+        List<GaugeValue> values = new ArrayList<>();
+        GAUGES.forEach((name, gauge) -> values.add(new GaugeValue(name, gauge.unit(), gauge.supplier().getAsLong())));
+        values.sort((a, b) -> a.name().compareTo(b.name()));
+        return values;
+    }
+
+    /**
+     * Forgets the timings measured so far (gauges stay).
+     */
+    public static void reset() {
+        STATS.clear();
+    }
+
+    /**
+     * Everything the panel shows, as a JSON object.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"startedAt\": \"").append(STARTED).append("\",\n");
+        json.append("  \"heap\": {\"usedBytes\": ").append(heap.getUsed())
+            .append(", \"committedBytes\": ").append(heap.getCommitted())
+            .append(", \"maxBytes\": ").append(heap.getMax()).append("},\n");
+
+        json.append("  \"operations\": [");
+        List<Summary> summaries = summaries();
+        for (int i = 0; i < summaries.size(); i++) {
+            Summary s = summaries.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\"name\": ").append(quote(s.name()))
+                .append(", \"count\": ").append(s.count())
+                .append(", \"totalMs\": ").append(number(s.totalMs()))
+                .append(", \"meanMs\": ").append(number(s.meanMs()))
+                .append(", \"p50Ms\": ").append(number(s.p50Ms()))
+                .append(", \"p95Ms\": ").append(number(s.p95Ms()))
+                .append(", \"p99Ms\": ").append(number(s.p99Ms()))
+                .append(", \"maxMs\": ").append(number(s.maxMs())).append('}');
+        }
+        json.append(summaries.isEmpty() ? "],\n" : "\n  ],\n");
+
+        json.append("  \"gauges\": [");
+        List<GaugeValue> gauges = gauges();
+        for (int i = 0; i < gauges.size(); i++) {
+            GaugeValue g = gauges.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\"name\": ").append(quote(g.name()))
+                .append(", \"unit\": ").append(quote(g.unit()))
+                .append(", \"value\": ").append(g.value()).append('}');
+        }
+        json.append(gauges.isEmpty() ? "]\n" : "\n  ]\n");
+        return json.append("}\n").toString();
+    }
+
+    /**
+     * Writes {@link #toJson()} to {@code file}.
+     */
+    public static void writeJson(Path file) throws IOException {
+        DocumentSaver.writeAtomically(toJson(), file, StandardCharsets.UTF_8, false);
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder(text.length() + 2).append('"');
+        for (char c : text.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                default -> {
+                    if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+                    else quoted.append(c);
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static void emitGaugeEvents() {
+        GAUGES.forEach((name, gauge) -> {
+            GaugeEvent event = new GaugeEvent();
+            event.name = name;
+            event.unit = gauge.unit();
+            event.value = gauge.supplier().getAsLong();
+            event.commit();
+        });
+    }
+
+    /**
+     * Running totals of one step, plus its most recent durations for percentiles.
+     */
+    private static final class Stats {
+        private final long[] recent = new long[RECENT_SAMPLES];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void add(long nanos) {
+            recent[(int) (count % RECENT_SAMPLES)] = nanos;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized Summary summarize(String name) {
+            long[] sorted = Arrays.copyOf(recent, (int) Math.min(count, RECENT_SAMPLES));
+            Arrays.sort(sorted);
+            return new Summary(name, count, millis(totalNanos), count == 0 ? 0 : millis(totalNanos) / count,
+                    millis(percentile(sorted, 0.50)), millis(percentile(sorted, 0.95)),
+                    millis(percentile(sorted, 0.99)), millis(maxNanos));
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) return 0;
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    // ==========================================
+    // JFR EVENTS
+    // ==========================================
+
+    @Category({ "TEI Editor" })
+    @StackTrace(false)
+    abstract static class OperationEvent extends Event {
+        @Label("Step")
+        String step;
+
+        @Label("Size")
+        @Description("Data handled: bytes, or chars for text passed to the visual editor; -1 if not recorded")
+        long bytes;
+    }
+
+    @Name("com.teieditor.SchemaLoad")
+    @Label("Schema Load")
+    @Description("Compiling tei_all.rng")
+    static final class SchemaLoadEvent extends OperationEvent { }
+
+    @Name("com.teieditor.Validation")
+    @Label("Validation")
+    @Description("Validating a document against the TEI schema")
+    static final class ValidationEvent extends OperationEvent { }
+
+    @Name("com.teieditor.XsltCompile")
+    @Label("XSLT Compile")
+    @Description("Compiling a stylesheet and the modules it imports")
+    static final class XsltCompileEvent extends OperationEvent { }
+
+    @Name("com.teieditor.Transform")
+    @Label("XSLT Transform")
+    @Description("Running a compiled stylesheet over a document")
+    static final class TransformEvent extends OperationEvent { }
+
+    @Name("com.teieditor.FopRender")
+    @Label("FOP Render")
+    @Description("Producing a PDF through XSL-FO")
+    static final class FopRenderEvent extends OperationEvent { }
+
+    @Name("com.teieditor.ExportStep")
+    @Label("Export Step")
+    @Description("One step of a DOCX/EPUB3 package export, native or through Ant")
+    static final class ExportStepEvent extends OperationEvent { }
+
+    @Name("com.teieditor.VisualBridge")
+    @Label("Visual Bridge")
+    @Description("A call between the code editor and the visual editor page")
+    static final class VisualBridgeEvent extends OperationEvent { }
+
+    @Name("com.teieditor.CorpusIndex")
+    @Label("Corpus Index")
+    @Description("Indexing workspace files, or writing and merging index segments")
+    static final class CorpusIndexEvent extends OperationEvent { }
+
+    @Name("com.teieditor.CorpusSearch")
+    @Label("Corpus Search")
+    @Description("Answering a workspace search from the index")
+    static final class CorpusSearchEvent extends OperationEvent { }
+
+    @Name("com.teieditor.Startup")
+    @Label("Startup")
+    @Description("A startup step, e.g. warming a service after the window was shown")
+    static final class StartupEvent extends OperationEvent { }
+
+    @Name("com.teieditor.Gauge")
+    @Label("Gauge")
+    @Category({ "TEI Editor" })
+    @Period("5 s")
+    @StackTrace(false)
+    static final class GaugeEvent extends Event {
+        @Label("Name")
+        String name;
+
+        @Label("Unit")
+        String unit;
+
+        @Label("Value")
+        long value;
+    }
+}
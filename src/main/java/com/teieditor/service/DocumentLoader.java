@@ -0,0 +1,187 @@
+package com.teieditor.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads XML files in the background.
+ *
+ * The encoding comes from the byte order mark, or failing that the XML declaration
+ * (UTF-8 if neither names one), as an XML parser would pick it. The file is streamed
+ * through a decoder in fixed-size blocks, reporting progress after each, and the read
+ * stops at the next block once the returned future is cancelled.
+ */
+public class DocumentLoader {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    // The XML declaration, if any, is within the first few hundred bytes
+    private static final int PROLOG_SIZE = 1024;
+    private static final Pattern DECLARED_ENCODING =
+            Pattern.compile("^<\\?xml[^>]*?\\sencoding\\s*=\\s*[\"']([A-Za-z][A-Za-z0-9._-]*)[\"']");
+
+    /**
+     * Receives progress while a file is read. Called on the loader thread.
+     */
+    public interface ProgressListener {
+        void onProgress(long bytesRead, long totalBytes);
+    }
+
+    /**
+     * A decoded file.
+     *
+     * @param text          the content, without the byte order mark
+     * @param charset       the encoding it was read with
+     * @param byteOrderMark whether the file started with a byte order mark
+     */
+    public record LoadedDocument(String text, Charset charset, boolean byteOrderMark) { }
+
+    /**
+     * The encoding of an XML file and the length of its byte order mark.
+     */
+    public record DetectedEncoding(Charset charset, int bomLength) { }
+
+    /**
+     * Starts reading {@code file} on a background thread.
+     *
+     * @return completes with the document, or exceptionally with the IOException that stopped it;
+     *         cancel it to abandon the read
+     */
+    public CompletableFuture<LoadedDocument> load(Path file, ProgressListener listener) {
+        CompletableFuture<LoadedDocument> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            try {
+                result.complete(read(file, listener, result));
+            } catch (CancellationException e) {
+                // Cancelled by the caller; the future is already done
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        }, "document-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    private LoadedDocument read(Path file, ProgressListener listener, CompletableFuture<?> result) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("File is too large to edit (" + size / (1024 * 1024) + " MB).");
+
+            // 1. Encoding from the first block
+            ByteBuffer bytes = ByteBuffer.allocate((int) Math.min(BLOCK_SIZE, Math.max(size, PROLOG_SIZE)));
+            fillFrom(channel, bytes);
+            bytes.flip();
+            DetectedEncoding encoding = detectEncoding(bytes.array(), bytes.limit());
+            bytes.position(encoding.bomLength());
+
+            // 2. Decode block by block; a file has at least as many bytes as chars, so the builder is sized once
+            CharsetDecoder decoder = encoding.charset().newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            StringBuilder text = new StringBuilder((int) size);
+            CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+            long consumed = 0;
+            boolean endOfInput = false;
+            while (true) {
+                if (result.isDone()) throw new CancellationException();
+                int before = bytes.position();
+                CoderResult coderResult = decoder.decode(bytes, chars, endOfInput);
+                consumed += bytes.position() - before;
+                if (coderResult.isError()) throw decodingError(encoding.charset(), consumed);
+                chars.flip();
+                text.append(chars);
+                chars.clear();
+                if (coderResult.isOverflow()) continue;
+
+                if (endOfInput) break;
+                listener.onProgress(consumed, size);
+                bytes.compact();
+                endOfInput = fillFrom(channel, bytes) < 0;
+                bytes.flip();
+            }
+            if (decoder.flush(chars).isError()) throw decodingError(encoding.charset(), consumed);
+            text.append(chars.flip());
+            listener.onProgress(size, size);
+            return new LoadedDocument(text.toString(), encoding.charset(), encoding.bomLength() > 0);
+        }
+    }
+
+    /**
+     * Reads until {@code buffer} is full or the file ends.
+     *
+     * @return the bytes read, or -1 if the file had already ended
+     */
+    private static int fillFrom(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer);
+            if (n < 0) return total == 0 ? -1 : total;
+            total += n;
+        }
+        return total;
+    }
+
+    private static IOException decodingError(Charset charset, long offset) {
+        return new IOException("The file is not valid " + charset.name() + " (near byte " + offset + ").");
+    }
+
+    /**
+     * Detects the encoding of an XML file from its first bytes.
+     */
+    public static DetectedEncoding detectEncoding(byte[] head, int length) {
+        // 1. Byte order mark (UTF-32 before UTF-16, which shares its first two bytes)
+        if (startsWith(head, length, 0x00, 0x00, 0xFE, 0xFF)) return supported("UTF-32BE", 4);
+        if (startsWith(head, length, 0xFF, 0xFE, 0x00, 0x00)) return supported("UTF-32LE", 4);
+        if (startsWith(head, length, 0xEF, 0xBB, 0xBF)) return new DetectedEncoding(StandardCharsets.UTF_8, 3);
+        if (startsWith(head, length, 0xFE, 0xFF)) return new DetectedEncoding(StandardCharsets.UTF_16BE, 2);
+        if (startsWith(head, length, 0xFF, 0xFE)) return new DetectedEncoding(StandardCharsets.UTF_16LE, 2);
+
+        // 2. "<?" in a 16-bit encoding without a byte order mark
+        if (startsWith(head, length, 0x00, 0x3C, 0x00, 0x3F)) return new DetectedEncoding(StandardCharsets.UTF_16BE, 0);
+        if (startsWith(head, length, 0x3C, 0x00, 0x3F, 0x00)) return new DetectedEncoding(StandardCharsets.UTF_16LE, 0);
+
+        // 3. The XML declaration, in any ASCII-compatible encoding
+        String prolog = new String(head, 0, Math.min(length, PROLOG_SIZE), StandardCharsets.ISO_8859_1);
+        Matcher matcher = DECLARED_ENCODING.matcher(prolog);
+        if (matcher.find()) {
+            String name = matcher.group(1);
+            try {
+                Charset declared = Charset.forName(name);
+                // A 16-bit encoding named in an 8-bit declaration is wrong; the bytes say otherwise
+                if (!declared.name().startsWith("UTF-16") && !declared.name().startsWith("UTF-32")) {
+                    return new DetectedEncoding(declared, 0);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Warning: Unsupported encoding '" + name + "' in XML declaration, reading as UTF-8.");
+            }
+        }
+        return new DetectedEncoding(StandardCharsets.UTF_8, 0);
+    }
+
+    private static DetectedEncoding supported(String charsetName, int bomLength) {
+        return Charset.isSupported(charsetName)
+                ? new DetectedEncoding(Charset.forName(charsetName), bomLength)
+                : new DetectedEncoding(StandardCharsets.UTF_8, 0);
+    }
+
+    private static boolean startsWith(byte[] head, int length, int... prefix) {
+        if (length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if ((head[i] & 0xFF) != prefix[i]) return false;
+        }
+        return true;
+    }
+}
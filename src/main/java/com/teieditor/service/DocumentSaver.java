@@ -0,0 +1,168 @@
+package com.teieditor.service;
+
+import com.teieditor.model.DocumentSnapshot;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes documents to disk off the JavaFX thread, without ever leaving a half-written file.
+ *
+ * Each save encodes an immutable snapshot into a temporary file next to the target, forces
+ * it to the device and renames it over the target in one atomic step, so a crash or a full
+ * disk leaves either the old file or the new one. Saves run one at a time, in the order
+ * they were requested.
+ */
+public class DocumentSaver {
+
+    private static final int BLOCK_SIZE = 256 * 1024;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "document-saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Saves {@code snapshot} to {@code target} in the background.
+     *
+     * @param byteOrderMark whether to start the file with a byte order mark
+     * @return completes once the file is durably replaced, or exceptionally with the IOException that stopped it
+     */
+    public CompletableFuture<Void> save(DocumentSnapshot snapshot, Path target, Charset charset, boolean byteOrderMark) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                writeAtomically(snapshot, target, charset, byteOrderMark);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, writer);
+    }
+
+    /**
+     * Replaces {@code target} with {@code text}: write to a temporary file, fsync, atomic rename.
+     */
+    public static void writeAtomically(CharSequence text, Path target, Charset charset, boolean byteOrderMark) throws IOException {
+        Path temp = tempFileFor(target);
+        try {
+            // 1. Write and force the new content
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                if (byteOrderMark) writeFully(channel, ByteBuffer.wrap("\uFEFF".getBytes(charset)));
+                encode(text, charset, channel);
+                channel.force(true);
+            }
+
+            // 2. Swap it in
+            moveIntoPlace(temp, target);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * A fresh hidden name next to {@code target}, for writing a file that replaces it.
+     */
+    public static Path tempFileFor(Path target) {
+        // Same directory, so the rename never crosses file systems; created with the usual default permissions
+        return target.toAbsolutePath().getParent()
+                .resolve("." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+    }
+
+    /**
+     * Renames the finished {@code temp} over {@code target} in one step, keeping target's permissions.
+     */
+    public static void moveIntoPlace(Path temp, Path target) throws IOException {
+        Path dir = target.toAbsolutePath().getParent();
+        copyPermissions(target, temp);
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            System.err.println("Warning: Atomic rename not supported in " + dir + ", replacing in place.");
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Make the rename itself durable (not possible on every platform)
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (IOException | UnsupportedOperationException ignored) {
+            // e.g. Windows can't open a directory as a channel; the rename is still atomic there
+        }
+    }
+
+    private static void encode(CharSequence text, Charset charset, FileChannel channel) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder();
+        ByteBuffer bytes = ByteBuffer.allocate(BLOCK_SIZE);
+        CharBuffer chars = CharBuffer.allocate(BLOCK_SIZE);
+        try (Reader reader = text instanceof DocumentSnapshot snapshot ? snapshot.openReader() : new StringReader(text.toString())) {
+            boolean endOfInput = false;
+            while (!endOfInput) {
+                endOfInput = reader.read(chars) < 0;
+                chars.flip();
+                CoderResult result;
+                do {
+                    result = encoder.encode(chars, bytes, endOfInput);
+                    if (result.isError()) throw unencodable(charset);
+                    bytes.flip();
+                    writeFully(channel, bytes);
+                    bytes.clear();
+                } while (result.isOverflow());
+                chars.compact();
+            }
+            CoderResult result;
+            do {
+                result = encoder.flush(bytes);
+                bytes.flip();
+                writeFully(channel, bytes);
+                bytes.clear();
+            } while (result.isOverflow());
+        }
+    }
+
+    private static IOException unencodable(Charset charset) {
+        return new IOException("The document contains characters that can't be written in this file's encoding (" + charset.name() + ").");
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    // A replaced file keeps its permissions
+    private static void copyPermissions(Path from, Path to) {
+        if (!Files.exists(from)) return;
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException | IOException ignored) {
+            // Not a POSIX file system
+        }
+    }
+
+    /**
+     * Lets saves already requested finish (up to a limit), then stops the writer thread.
+     */
+    public void shutdown() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) System.err.println("Warning: A save was still running at exit.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.teieditor.service;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Registry of export formats and the TEI stylesheet each one runs,
+ * shared by the editor and the headless batch converter.
+ */
+public final class ExportFormats {
+
+    // --- XSLT MAPPING REGISTRY ---
+    public static final Map<String, String> XSLT_MAPPINGS = Map.of(
+        "HTML",     "html/html.xsl",
+        "PDF",      "fo/fo.xsl",
+        "LaTeX",    "latex/latex.xsl",
+        "Markdown", "profiles/default/markdown/to.xsl",
+        "BibTeX",   "profiles/default/bibtex/to.xsl",
+        "EPUB3",    "epub/build-to.xml",
+        "Docx",     "docx/build-to.xml"
+    );
+
+    public static final Map<String, String> EXTENSIONS = Map.of(
+        "HTML",     "html",
+        "PDF",      "pdf",
+        "LaTeX",    "tex",
+        "Markdown", "md",
+        "BibTeX",   "bib",
+        "EPUB3",    "epub",
+        "Docx",     "docx"
+    );
+
+    private ExportFormats() { }
+
+    /**
+     * Formats produced by a multi-step build pipeline rather than a single stylesheet.
+     */
+    public static boolean isComplex(String formatName) {
+        return formatName.equals("Docx") || formatName.equals("EPUB3");
+    }
+
+    /**
+     * Locates a stylesheet relative to the TEI Stylesheets root, accepting either the
+     * release layout or a checkout/zip that nests it under xml/tei/stylesheet.
+     */
+    public static File resolveSmartPath(File rootDir, String relativePath) {
+        File direct = new File(rootDir, relativePath);
+        if (direct.exists()) return direct;
+
+        File nested = new File(new File(rootDir, "xml/tei/stylesheet"), relativePath);
+        if (nested.exists()) return nested;
+        
+        File[] subs = rootDir.listFiles(File::isDirectory);
+        if (subs != null) {
+            for (File sub : subs) {
+                File subCheck = new File(new File(sub, "xml/tei/stylesheet"), relativePath);
+                if (subCheck.exists()) return subCheck;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,136 @@
+package com.teieditor.service;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One export submitted to an {@link ExportJobManager}: what it produces, where it has got to,
+ * and how it ended. Fields are updated by the worker and read by the UI, so every getter
+ * returns the latest value without locking.
+ */
+public final class ExportJob {
+
+    public enum State {
+        QUEUED, RUNNING, SUCCEEDED, FAILED, CANCELLED;
+
+        public boolean isFinished() {
+            return this == SUCCEEDED || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    private final long id;
+    private final String formatName;
+    private final File outputFile;
+    private final Instant submittedAt = Instant.now();
+    private final CompletableFuture<File> result = new CompletableFuture<>();
+    private final ExportJobManager manager;
+    final ExportJobManager.Task task;
+
+    private volatile State state = State.QUEUED;
+    private volatile double progress = -1;
+    private volatile String message = "Waiting";
+    private volatile long startNanos;
+    private volatile long endNanos;
+    private volatile boolean cancelRequested;
+
+    // What the task reports to; cancelled as soon as the user asks
+    final ExportMonitor monitor = new ExportMonitor() {
+        @Override
+        public boolean isCancelled() {
+            return cancelRequested;
+        }
+
+        @Override
+        public void progress(double fraction, String text) {
+            progress = fraction;
+            message = text;
+        }
+    };
+
+    ExportJob(long id, String formatName, File outputFile, ExportJobManager manager, ExportJobManager.Task task) {
+        this.id = id;
+        this.formatName = formatName;
+        this.outputFile = outputFile;
+        this.manager = manager;
+        this.task = task;
+    }
+
+    public long id() { return id; }
+    public String formatName() { return formatName; }
+    public File outputFile() { return outputFile; }
+    public Instant submittedAt() { return submittedAt; }
+    public State state() { return state; }
+    public String message() { return message; }
+
+    /**
+     * Fraction done, from 0 to 1, or -1 while that can't be told.
+     */
+    public double progress() {
+        return progress;
+    }
+
+    /**
+     * How long the job has been running, or ran; zero while queued.
+     */
+    public Duration elapsed() {
+        if (startNanos == 0) return Duration.ZERO;
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return Duration.ofNanos(end - startNanos);
+    }
+
+    /**
+     * Completes with the output file, or exceptionally with the failure
+     * ({@link java.util.concurrent.CancellationException} if cancelled).
+     */
+    public CompletableFuture<File> result() {
+        return result;
+    }
+
+    /**
+     * Drops the job if it's still queued, otherwise asks it to stop at its next check.
+     * Its partial output is deleted and any earlier file at {@link #outputFile()} kept.
+     */
+    public void cancel() {
+        if (state.isFinished()) return;
+        cancelRequested = true;
+        manager.cancelQueued(this);
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    // ==========================================
+    // TRANSITIONS (called by the manager)
+    // ==========================================
+
+    void started() {
+        startNanos = System.nanoTime();
+        state = State.RUNNING;
+        message = "Starting";
+    }
+
+    void succeeded() {
+        finish(State.SUCCEEDED, "Done", 1);
+        result.complete(outputFile);
+    }
+
+    void failed(Throwable error) {
+        finish(State.FAILED, error.getMessage() != null ? error.getMessage() : error.toString(), progress);
+        result.completeExceptionally(error);
+    }
+
+    void cancelled() {
+        finish(State.CANCELLED, "Cancelled", progress);
+        result.cancel(false);
+    }
+
+    private void finish(State finalState, String finalMessage, double finalProgress) {
+        if (startNanos != 0) endNanos = System.nanoTime();
+        progress = finalProgress;
+        message = finalMessage;
+        state = finalState;
+    }
+}
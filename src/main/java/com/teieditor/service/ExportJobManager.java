@@ -0,0 +1,194 @@
+package com.teieditor.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs exports in the background, a bounded number at a time.
+ *
+ * Each job works from an immutable document snapshot taken when it was submitted, so the
+ * user can keep editing (or export again) while it runs. At most {@code maxConcurrent} jobs
+ * run at once and each format has its own limit on top of that: a PDF or a package build
+ * holds the whole document and its output in memory, so two of them at once are rarely
+ * faster than one after the other. Jobs that can't start yet wait in submission order,
+ * but never hold up a job of another format that can.
+ *
+ * A task writes to a hidden file next to the output and the manager renames it over the
+ * output only once the task succeeds, so an export that fails or is cancelled leaves any
+ * earlier file of that name as it was.
+ */
+public class ExportJobManager {
+
+    /**
+     * The export work itself, run on a worker thread.
+     */
+    @FunctionalInterface
+    public interface Task {
+        /**
+         * @param output where to write the export; moved to the job's output file if this returns normally
+         */
+        void run(ExportMonitor monitor, File output) throws Exception;
+    }
+
+    public static final int DEFAULT_MAX_CONCURRENT = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int DEFAULT_FORMAT_LIMIT = 2;
+    private static final Map<String, Integer> FORMAT_LIMITS = Map.of("PDF", 1, "Docx", 1, "EPUB3", 1);
+
+    // Finished jobs kept for the panel until cleared
+    private static final int MAX_FINISHED = 100;
+
+    private final int maxConcurrent;
+    private final ExecutorService workers;
+    private final AtomicLong nextId = new AtomicLong(1);
+
+    // Guarded by this
+    private final List<ExportJob> jobs = new ArrayList<>();
+    private final Deque<ExportJob> queued = new ArrayDeque<>();
+    private final Map<String, Integer> runningByFormat = new HashMap<>();
+    private int running;
+
+    public ExportJobManager() {
+        this(DEFAULT_MAX_CONCURRENT);
+    }
+
+    public ExportJobManager(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(maxConcurrent, r -> {
+            Thread thread = new Thread(r, "export-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues an export of {@code formatName} to {@code outputFile}; it starts as soon as the limits allow.
+     * The task should read only data captured before submitting, like a {@link com.teieditor.model.DocumentSnapshot}.
+     */
+    public synchronized ExportJob submit(String formatName, File outputFile, Task task) {
+        ExportJob job = new ExportJob(nextId.getAndIncrement(), formatName, outputFile, this, task);
+        jobs.add(job);
+        queued.add(job);
+        dispatch();
+        return job;
+    }
+
+    /**
+     * Every job not yet cleared, oldest first.
+     */
+    public synchronized List<ExportJob> jobs() {
+        return List.copyOf(jobs);
+    }
+
+    public synchronized void clearFinished() {
+        jobs.removeIf(job -> job.state().isFinished());
+    }
+
+    /**
+     * Cancels every job and waits briefly for running ones to stop, so their partial output is deleted.
+     */
+    public void shutdown() {
+        List<ExportJob> all;
+        synchronized (this) {
+            all = List.copyOf(jobs);
+        }
+        for (ExportJob job : all) job.cancel();
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println("Warning: Exports still running at exit were abandoned.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ==========================================
+    // SCHEDULING
+    // ==========================================
+
+    // Starts every queued job the limits allow, oldest first
+    private synchronized void dispatch() {
+        Iterator<ExportJob> it = queued.iterator();
+        while (it.hasNext() && running < maxConcurrent) {
+            ExportJob job = it.next();
+            String format = job.formatName();
+            if (runningByFormat.getOrDefault(format, 0) >= FORMAT_LIMITS.getOrDefault(format, DEFAULT_FORMAT_LIMIT)) continue;
+
+            it.remove();
+            running++;
+            runningByFormat.merge(format, 1, Integer::sum);
+            job.started();
+            workers.execute(() -> run(job));
+        }
+    }
+
+    synchronized void cancelQueued(ExportJob job) {
+        if (queued.remove(job)) job.cancelled();
+    }
+
+    private void run(ExportJob job) {
+        Path staged = DocumentSaver.tempFileFor(job.outputFile().toPath());
+        try {
+            job.task.run(job.monitor, staged.toFile());
+            if (job.isCancelRequested()) {
+                // Cancelled after its last check: the output is complete but unwanted
+                job.cancelled();
+            } else {
+                if (!Files.exists(staged)) throw new IOException("The " + job.formatName() + " export produced no output.");
+                DocumentSaver.moveIntoPlace(staged, job.outputFile().toPath());
+                job.succeeded();
+            }
+        } catch (Throwable e) {
+            // A cancelled export fails wherever it noticed, with whatever exception that point throws
+            if (job.isCancelRequested()) {
+                job.cancelled();
+            } else {
+                job.failed(e);
+            }
+        } finally {
+            deleteStagedOutput(staged);
+            synchronized (this) {
+                running--;
+                runningByFormat.merge(job.formatName(), -1, Integer::sum);
+                trimFinished();
+                dispatch();
+            }
+        }
+    }
+
+    // Whatever a failed or cancelled task left; the output file itself is never touched
+    private static void deleteStagedOutput(Path staged) {
+        try {
+            Files.deleteIfExists(staged);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not delete partial export " + staged + ". " + e.getMessage());
+        }
+    }
+
+    private void trimFinished() {
+        int finished = 0;
+        for (ExportJob job : jobs) if (job.state().isFinished()) finished++;
+        Iterator<ExportJob> it = jobs.iterator();
+        while (finished > MAX_FINISHED && it.hasNext()) {
+            if (it.next().state().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.teieditor.service;
+
+import java.io.InterruptedIOException;
+
+/**
+ * What a running export reports to, and asks whether it should stop.
+ *
+ * Saxon and FOP have no way to abort a transformation from outside, so exports check
+ * {@link #isCancelled()} wherever data passes through the editor's own code: as the
+ * document is read, as output is written, between SAX events fed to FOP and between
+ * pipeline steps. A cancelled export fails at the next such point.
+ */
+public interface ExportMonitor {
+
+    /**
+     * A monitor that is never cancelled and ignores progress.
+     */
+    ExportMonitor NONE = new ExportMonitor() {
+        @Override public boolean isCancelled() { return false; }
+        @Override public void progress(double fraction, String message) { }
+    };
+
+    boolean isCancelled();
+
+    /**
+     * @param fraction how much of the work is done, from 0 to 1, or -1 if that isn't known
+     * @param message  what is happening now, e.g. "Reading document"
+     */
+    void progress(double fraction, String message);
+
+    /**
+     * Stops the export if it has been cancelled.
+     */
+    default void checkCancelled() throws InterruptedIOException {
+        if (isCancelled()) throw new InterruptedIOException("Export cancelled.");
+    }
+}
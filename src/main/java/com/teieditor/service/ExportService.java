@@ -1,58 +1,133 @@
 package com.teieditor.service;
 
+import com.teieditor.model.DocumentSnapshot;
 import net.sf.saxon.TransformerFactoryImpl;
 import org.apache.fop.apps.Fop;
-import org.apache.fop.apps.FopFactory;
-import org.apache.fop.apps.MimeConstants;
 
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
+import java.util.List;
 
 public class ExportService {
 
     private final TransformerFactory transformerFactory;
-    private final FopFactory fopFactory;
+    private final FopEngine fopEngine;
+    private final TemplatesCache templatesCache;
+    private final PackageExportPipeline packagePipeline;
 
     public ExportService() {
+        this(FopEngine.createDefault());
+    }
+
+    public ExportService(FopEngine fopEngine) {
         this.transformerFactory = new TransformerFactoryImpl();
-        this.fopFactory = FopFactory.newInstance(new File(".").toURI());
+        this.fopEngine = fopEngine;
+        this.templatesCache = new TemplatesCache(transformerFactory);
+        this.packagePipeline = new PackageExportPipeline(templatesCache);
+    }
+
+    /**
+     * Compiles the given stylesheets in the background so the first export doesn't wait for them.
+     */
+    public void precompile(List<File> xsltFiles) {
+        templatesCache.precompileAsync(xsltFiles);
     }
 
     public void transform(String xmlContent, File xsltFile, File outputFile) throws Exception {
+        transform(new StreamSource(new StringReader(xmlContent)), xsltFile, outputFile, ExportMonitor.NONE);
+    }
+
+    /**
+     * Transforms a document on disk, streaming it instead of loading it into a String first.
+     */
+    public void transform(File inputFile, File xsltFile, File outputFile) throws Exception {
+        transform(new StreamSource(inputFile), xsltFile, outputFile, ExportMonitor.NONE);
+    }
+
+    /**
+     * Transforms an editor snapshot, reporting to {@code monitor} and stopping if it's cancelled.
+     */
+    public void transform(DocumentSnapshot snapshot, File xsltFile, File outputFile, ExportMonitor monitor) throws Exception {
+        transform(monitoredSource(snapshot, monitor, "Transforming"), xsltFile, outputFile, monitor);
+    }
+
+    private void transform(Source xmlSource, File xsltFile, File outputFile, ExportMonitor monitor) throws Exception {
         if (xsltFile == null || !xsltFile.exists()) {
             throw new FileNotFoundException("XSLT Stylesheet not found.");
         }
 
-        Source xmlSource = new StreamSource(new StringReader(xmlContent));
-        Source xsltSource = new StreamSource(xsltFile);
+        monitor.progress(-1, "Loading stylesheet");
+        Transformer transformer = templatesCache.get(xsltFile).newTransformer();
+        monitor.checkCancelled();
         
-        Transformer transformer = transformerFactory.newTransformer(xsltSource);
-        
-        try (FileOutputStream out = new FileOutputStream(outputFile)) {
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.TRANSFORM, xsltFile.getName());
+             OutputStream out = MonitoredStreams.output(new BufferedOutputStream(new FileOutputStream(outputFile)), monitor, "Writing")) {
             StreamResult result = new StreamResult(out);
             transformer.transform(xmlSource, result);
         }
     }
 
     public void transformToPdf(String xmlContent, File xsltFoFile, File outputFile) throws Exception {
+        transformToPdf(new StreamSource(new StringReader(xmlContent)), xmlContent.length(), xsltFoFile, outputFile, ExportMonitor.NONE);
+    }
+
+    public void transformToPdf(File inputFile, File xsltFoFile, File outputFile) throws Exception {
+        transformToPdf(new StreamSource(inputFile), inputFile.length(), xsltFoFile, outputFile, ExportMonitor.NONE);
+    }
+
+    /**
+     * Renders an editor snapshot to PDF, reporting to {@code monitor} and stopping if it's cancelled.
+     */
+    public void transformToPdf(DocumentSnapshot snapshot, File xsltFoFile, File outputFile, ExportMonitor monitor) throws Exception {
+        transformToPdf(monitoredSource(snapshot, monitor, "Laying out pages"), snapshot.length(), xsltFoFile, outputFile, monitor);
+    }
+
+    private void transformToPdf(Source xmlSource, long inputSize, File xsltFoFile, File outputFile, ExportMonitor monitor) throws Exception {
         if (xsltFoFile == null || !xsltFoFile.exists()) {
             throw new FileNotFoundException("PDF XSLT (FO) not found.");
         }
 
-        Source xmlSource = new StreamSource(new StringReader(xmlContent));
-        Source xsltSource = new StreamSource(xsltFoFile);
+        monitor.progress(-1, "Loading stylesheet");
+        Templates templates = templatesCache.get(xsltFoFile);
+        monitor.checkCancelled();
 
-        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-            Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, out);
-            Transformer transformer = transformerFactory.newTransformer(xsltSource);
-            Result res = new SAXResult(fop.getDefaultHandler());
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.FOP_RENDER).bytes(inputSize);
+             OutputStream out = MonitoredStreams.output(new BufferedOutputStream(new FileOutputStream(outputFile)), monitor, "Writing PDF")) {
+            Fop fop = fopEngine.newPdfFop(out, inputSize);
+            Transformer transformer = templates.newTransformer();
+            // FOP lays out each page sequence as its events arrive, so checking between events stops it promptly
+            Result res = new SAXResult(MonitoredStreams.contentHandler(fop.getDefaultHandler(), monitor));
             transformer.transform(xmlSource, res);
         }
+        fopEngine.saveFontCache();
+    }
+
+    /**
+     * Builds a DOCX or EPUB3 package in-process (see {@link PackageExportPipeline}).
+     *
+     * @throws RecipeUnavailableException if the stylesheet installation lacks the files this pipeline needs
+     */
+    public void exportPackage(String xmlContent, File stylesheetsDir, File outputFile, String formatType) throws Exception {
+        packagePipeline.export(new StreamSource(new StringReader(xmlContent)), stylesheetsDir, outputFile, formatType, ExportMonitor.NONE);
+    }
+
+    public void exportPackage(File inputFile, File stylesheetsDir, File outputFile, String formatType) throws Exception {
+        packagePipeline.export(new StreamSource(inputFile), stylesheetsDir, outputFile, formatType, ExportMonitor.NONE);
+    }
+
+    public void exportPackage(DocumentSnapshot snapshot, File stylesheetsDir, File outputFile, String formatType,
+                              ExportMonitor monitor) throws Exception {
+        packagePipeline.export(monitoredSource(snapshot, monitor, "Transforming"), stylesheetsDir, outputFile, formatType, monitor);
+    }
+
+    private static Source monitoredSource(DocumentSnapshot snapshot, ExportMonitor monitor, String next) {
+        return new StreamSource(MonitoredStreams.reader(snapshot.openReader(), snapshot.length(), monitor, next));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,103 @@
+package com.teieditor.service;
+
+import org.apache.fop.apps.FOPException;
+import org.apache.fop.apps.FOUserAgent;
+import org.apache.fop.apps.Fop;
+import org.apache.fop.apps.FopConfParser;
+import org.apache.fop.apps.FopFactory;
+import org.apache.fop.apps.FopFactoryBuilder;
+import org.apache.fop.apps.MimeConstants;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * A configured, reusable FOP engine. The underlying FopFactory is thread-safe and is
+ * built once, so font discovery and configuration parsing are shared by every export.
+ *
+ * Configuration is read from ~/.tei-editor/fop.xconf if present, otherwise from the
+ * bundled /fop/fop.xconf. Discovered fonts are cached on disk between sessions.
+ */
+public class FopEngine {
+
+    private static final String USER_CONFIG_FILE = "fop.xconf";
+    private static final String DEFAULT_CONFIG_RESOURCE = "/fop/fop.xconf";
+    private static final String FONT_CACHE_FILE = "fop-fonts.cache";
+
+    // Inputs at least this large are laid out with FOP's conserve-memory policy,
+    // which serializes finished pages to disk instead of keeping them on the heap.
+    public static final long DEFAULT_LOW_MEMORY_THRESHOLD = 5L * 1024 * 1024;
+
+    private final FopFactory fopFactory;
+    private final long lowMemoryThreshold;
+
+    /**
+     * @param configDir          directory holding fop.xconf overrides and the font cache
+     * @param lowMemoryThreshold input size (chars/bytes) from which low-memory mode is used;
+     *                           0 means always, a negative value means never
+     */
+    public FopEngine(File configDir, long lowMemoryThreshold) {
+        this.lowMemoryThreshold = lowMemoryThreshold;
+        this.fopFactory = buildFactory(configDir);
+    }
+
+    /**
+     * Engine using ~/.tei-editor. The threshold can be overridden with -Dteieditor.fop.lowMemoryThreshold=BYTES.
+     */
+    public static FopEngine createDefault() {
+        File configDir = new File(System.getProperty("user.home"), ".tei-editor");
+        long threshold = Long.getLong("teieditor.fop.lowMemoryThreshold", DEFAULT_LOW_MEMORY_THRESHOLD);
+        return new FopEngine(configDir, threshold);
+    }
+
+    private static FopFactory buildFactory(File configDir) {
+        URI baseUri = new File(".").toURI();
+        FopFactoryBuilder builder;
+
+        // 1. Load configuration (user override first, then the bundled default)
+        File userConfig = new File(configDir, USER_CONFIG_FILE);
+        try {
+            if (userConfig.isFile()) {
+                builder = new FopConfParser(userConfig, baseUri).getFopFactoryBuilder();
+            } else {
+                try (InputStream in = FopEngine.class.getResourceAsStream(DEFAULT_CONFIG_RESOURCE)) {
+                    builder = in != null ? new FopConfParser(in, baseUri).getFopFactoryBuilder() : new FopFactoryBuilder(baseUri);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Warning: Could not read FOP configuration, using defaults. " + e.getMessage());
+            builder = new FopFactoryBuilder(baseUri);
+        }
+
+        // 2. Persist discovered fonts between sessions
+        if (configDir.isDirectory() || configDir.mkdirs()) {
+            builder.getFontManager().setCacheFile(new File(configDir, FONT_CACHE_FILE).toURI());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Creates a PDF renderer writing to {@code out}.
+     *
+     * @param inputSize size of the source document, used to decide on low-memory mode
+     */
+    public Fop newPdfFop(OutputStream out, long inputSize) throws FOPException {
+        FOUserAgent userAgent = fopFactory.newFOUserAgent();
+        userAgent.setConserveMemoryPolicy(lowMemoryThreshold >= 0 && inputSize >= lowMemoryThreshold);
+        return fopFactory.newFop(MimeConstants.MIME_PDF, userAgent, out);
+    }
+
+    /**
+     * Writes newly discovered fonts to the on-disk cache (a no-op if nothing changed).
+     */
+    public void saveFontCache() {
+        try {
+            fopFactory.getFontManager().saveCache();
+        } catch (FOPException e) {
+            System.err.println("Warning: Could not save FOP font cache. " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.teieditor.service;
+
+import com.teieditor.model.DocumentSnapshot;
+import com.teieditor.model.XmlSubtreeLocator;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Validates successive versions of a document by re-checking only the element that changed.
+ *
+ * After an edit, the innermost element whose start and end tags the edit left alone is
+ * validated on its own, against that element's definition (every TEI element has exactly
+ * one, so its validity doesn't depend on where it sits). Its ancestors' content models see
+ * the same element as before, so nothing outside it needs checking again: the new report is
+ * the previous one with that element's errors replaced and the positions after it shifted.
+ * Results are also kept per subtree content, so undoing an edit or retyping the same text
+ * doesn't validate anything.
+ *
+ * The whole document is validated instead when there's no usable previous report (none yet,
+ * cut short by the error limit, or not well-formed), when the change can't be pinned to an
+ * element below the root, when the document has a DOCTYPE (its entities wouldn't resolve in
+ * a lone subtree), and until the subtree schema has been compiled in the background.
+ */
+public class IncrementalValidator {
+
+    // Subtree results kept for reuse, most recently used first out last
+    private static final int CACHE_SIZE = 256;
+    // A DOCTYPE, if any, comes before the root element, well within this many chars
+    private static final int PROLOG_SCAN_CHARS = 64 * 1024;
+    private static final Pattern XMLNS = Pattern.compile("\\sxmlns(?::([^\\s=]+))?\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+
+    private final ValidationService validationService;
+
+    // The last version validated and its report, which edits are compared against
+    private DocumentSnapshot baseline;
+    private ValidationReport baselineReport;
+    // Tag scanner states along the baseline, so finding the next change doesn't start from the top
+    private XmlSubtreeLocator.Checkpoints checkpoints = XmlSubtreeLocator.Checkpoints.NONE;
+
+    // Errors found in a subtree validated on its own (positions relative to it), by content digest
+    private final Map<String, ValidationReport> subtreeResults = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ValidationReport> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public IncrementalValidator(ValidationService validationService) {
+        this.validationService = validationService;
+    }
+
+    /**
+     * Validates {@code snapshot}, reusing the previous run's result for everything the edits
+     * since then didn't touch.
+     *
+     * @throws java.util.concurrent.CancellationException once {@code cancelled} returns true
+     */
+    public synchronized ValidationReport validate(DocumentSnapshot snapshot, int maxErrors, BooleanSupplier cancelled) {
+        ValidationReport report = validateChange(snapshot, maxErrors, cancelled);
+        return report != null ? report : validateAll(snapshot, maxErrors, cancelled);
+    }
+
+    /**
+     * Validates the whole of {@code snapshot}, and makes it the base for later incremental runs.
+     */
+    public synchronized ValidationReport validateAll(DocumentSnapshot snapshot, int maxErrors, BooleanSupplier cancelled) {
+        ValidationReport report = validationService.validate(snapshot.openReader(), maxErrors, null, cancelled);
+        // A fraction of the validation's cost, and every later edit resumes from these
+        checkpoints = XmlSubtreeLocator.checkpoints(snapshot);
+        baseline = snapshot;
+        baselineReport = report;
+        return report;
+    }
+
+    /**
+     * The report for {@code snapshot} built from the baseline's, or null if it has to be validated in full.
+     */
+    private ValidationReport validateChange(DocumentSnapshot snapshot, int maxErrors, BooleanSupplier cancelled) {
+        DocumentSnapshot before = baseline;
+        ValidationReport beforeReport = baselineReport;
+
+        // 1. Only from a complete report on a well-formed document
+        if (before == null || beforeReport.truncated()) return null;
+        for (ValidationError error : beforeReport.errors()) {
+            if (error.fatal() || error.line() < 0) return null;
+        }
+        if (!ValidationService.isFragmentSchemaReady()) return null;
+        if (snapshot.subSequence(0, Math.min(snapshot.length(), PROLOG_SCAN_CHARS)).toString().contains("<!DOCTYPE")) return null;
+
+        long start = System.nanoTime();
+        int prefix = snapshot.commonPrefixLength(before);
+        if (prefix == before.length() && prefix == snapshot.length()) return beforeReport;
+        int suffix = snapshot.commonSuffixLength(before, prefix);
+
+        // 2. The innermost element enclosing the change, and what's in scope where it sits
+        XmlSubtreeLocator.Change change = XmlSubtreeLocator.locateChange(before, snapshot, prefix, suffix, checkpoints);
+        if (change == null || change.subtree().path().length == 0) return null;
+        XmlSubtreeLocator.Subtree subtree = change.subtree();
+        String fragment = snapshot.subSequence(subtree.start(), subtree.end()).toString();
+        int startTagLength = startTagLength(fragment);
+        if (startTagLength < 0) return null;
+
+        // 3. Validate it on its own, unless that very content was validated in the same context before
+        String declarations = namespaceDeclarations(change.ancestorTags(), fragment.substring(0, startTagLength));
+        int nameEnd = nameEnd(fragment);
+        String standalone = fragment.substring(0, nameEnd) + declarations + fragment.substring(nameEnd);
+        String key = digest(standalone);
+        ValidationReport fragmentReport = subtreeResults.get(key);
+        if (fragmentReport == null) {
+            fragmentReport = validationService.validateFragment(new StringReader(standalone), maxErrors, cancelled);
+            subtreeResults.put(key, fragmentReport);
+        }
+
+        // 4. Splice its errors into the previous report
+        List<ValidationError> errors;
+        if (fragmentReport.errors().isEmpty() && beforeReport.errors().isEmpty()) {
+            errors = List.of();
+        } else {
+            String oldFragment = before.subSequence(subtree.start(), subtree.end() - (snapshot.length() - before.length())).toString();
+            errors = merge(beforeReport, change, fragment, oldFragment, startTagLength, declarations.length(), nameEnd, fragmentReport);
+        }
+        boolean truncated = fragmentReport.truncated() || maxErrors > 0 && errors.size() > maxErrors;
+        if (maxErrors > 0 && errors.size() > maxErrors) errors = errors.subList(0, maxErrors);
+        ValidationReport report = new ValidationReport(List.copyOf(errors), truncated, (System.nanoTime() - start) / 1_000_000);
+        baseline = snapshot;
+        baselineReport = report;
+        checkpoints = change.checkpoints();
+        return report;
+    }
+
+    /**
+     * Errors before the subtree (and on its unchanged start tag) from the previous report, then
+     * the subtree's own, then the previous report's errors after it, moved to their new lines.
+     */
+    private static List<ValidationError> merge(ValidationReport beforeReport, XmlSubtreeLocator.Change change,
+                                               String fragment, String oldFragment, int startTagLength, int injected,
+                                               int nameEnd, ValidationReport fragmentReport) {
+        // Positions as the parser reports them: the line and column just past what it had read
+        Position start = new Position(change.line(), change.column());
+        Position startTagEnd = start.advance(fragment, 0, startTagLength);
+        Position oldEndPosition = start.advance(oldFragment, 0, oldFragment.length());
+        Position newEndPosition = start.advance(fragment, 0, fragment.length());
+
+        List<ValidationError> merged = new ArrayList<>();
+        List<ValidationError> following = new ArrayList<>();
+        for (ValidationError error : beforeReport.errors()) {
+            Position at = new Position(error.line(), error.column());
+            if (at.compareTo(startTagEnd) <= 0) {
+                merged.add(error);
+            } else if (at.compareTo(oldEndPosition) > 0) {
+                // Same offset from the subtree's end as before
+                int line = error.line() + newEndPosition.line() - oldEndPosition.line();
+                int column = error.line() == oldEndPosition.line()
+                        ? error.column() + newEndPosition.column() - oldEndPosition.column()
+                        : error.column();
+                following.add(new ValidationError(line, column, error.message(), error.elementPath(), error.fatal()));
+            }
+        }
+
+        boolean fatal = false;
+        for (ValidationError error : fragmentReport.errors()) {
+            // The start tag didn't change, so its errors are already in the previous report
+            int column = error.column();
+            if (error.line() == 1 && column > nameEnd) column = Math.max(nameEnd + 1, column - injected);
+            Position relative = new Position(error.line(), column);
+            if (error.line() > 0 && relative.compareTo(new Position(1, 1).advance(fragment, 0, startTagLength)) <= 0) continue;
+
+            int line = error.line() > 0 ? start.line() + error.line() - 1 : start.line();
+            if (error.line() == 1) column = start.column() + column - 1;
+            merged.add(new ValidationError(line, column, error.message(), absolutePath(change.elementPath(), error.elementPath()), error.fatal()));
+            fatal |= error.fatal();
+        }
+        // The parser stops at the first well-formedness error, and so would a whole-document run
+        if (!fatal) merged.addAll(following);
+        return merged;
+    }
+
+    // "/p[1]/hi[2]" within the subtree, for the subtree at /TEI[1]/text[1]/body[1]/p[4]
+    private static String absolutePath(String elementPath, String relative) {
+        int step = relative.indexOf('/', 1);
+        return step < 0 ? elementPath : elementPath + relative.substring(step);
+    }
+
+    /**
+     * The namespace declarations in scope from {@code ancestorTags}, except those the subtree's
+     * own start tag makes, as attributes to add to it.
+     */
+    private static String namespaceDeclarations(List<String> ancestorTags, String startTag) {
+        Map<String, String> inScope = new LinkedHashMap<>();
+        for (String tag : ancestorTags) {
+            Matcher matcher = XMLNS.matcher(tag);
+            while (matcher.find()) inScope.put(matcher.group(1) == null ? "" : matcher.group(1), matcher.group(2));
+        }
+        Matcher own = XMLNS.matcher(startTag);
+        while (own.find()) inScope.remove(own.group(1) == null ? "" : own.group(1));
+
+        StringBuilder declarations = new StringBuilder();
+        inScope.forEach((prefix, value) ->
+                declarations.append(" xmlns").append(prefix.isEmpty() ? "" : ":" + prefix).append('=').append(value));
+        return declarations.toString();
+    }
+
+    // Length of the start tag at the beginning of the fragment, honouring quoted attribute values
+    private static int startTagLength(String fragment) {
+        int quote = 0;
+        for (int i = 1; i < fragment.length(); i++) {
+            char c = fragment.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int nameEnd(String fragment) {
+        int i = 1;
+        while (i < fragment.length()) {
+            char c = fragment.charAt(i);
+            if (Character.isWhitespace(c) || c == '>' || c == '/') break;
+            i++;
+        }
+        return i;
+    }
+
+    private static String digest(String text) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Position(int line, int column) implements Comparable<Position> {
+
+        Position advance(CharSequence text, int from, int to) {
+            int l = line, c = column;
+            for (int i = from; i < to; i++) {
+                if (text.charAt(i) == '\n') { l++; c = 1; } else c++;
+            }
+            return new Position(l, c);
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            return line != other.line ? Integer.compare(line, other.line) : Integer.compare(column, other.column);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.teieditor.service;
+
+import java.util.function.Supplier;
+
+/**
+ * A value created on first use, once, by whichever thread needs it first.
+ *
+ * Services that are expensive to build (Saxon and FOP factories, the stylesheet index) are
+ * held in one of these so launching the editor doesn't wait for them; a background warm-up
+ * usually calls {@link #get()} before the user does.
+ */
+public final class Lazy<T> implements Supplier<T> {
+
+    private Supplier<T> factory;
+    private volatile T value;
+
+    public Lazy(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public T get() {
+        T current = value;
+        if (current != null) return current;
+        synchronized (this) {
+            if (value == null) {
+                value = factory.get();
+                factory = null;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Whether {@link #get()} has already created the value; never creates it.
+     */
+    public boolean isCreated() {
+        return value != null;
+    }
+}
@@ -0,0 +1,134 @@
+package com.teieditor.service;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+import java.io.FilterOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+
+/**
+ * Wrappers that let an {@link ExportMonitor} see, and stop, data flowing into and out of
+ * Saxon and FOP.
+ */
+final class MonitoredStreams {
+
+    // Report (and check for cancellation) about this often, not on every buffer
+    private static final long REPORT_EVERY_CHARS = 64 * 1024;
+    private static final long REPORT_EVERY_BYTES = 64 * 1024;
+    private static final int CHECK_EVERY_EVENTS = 256;
+
+    private MonitoredStreams() { }
+
+    /**
+     * The document being read, reporting how much of its {@code length} chars has been consumed.
+     *
+     * @param next what happens once it has all been read, e.g. "Transforming"
+     */
+    static Reader reader(Reader in, long length, ExportMonitor monitor, String next) {
+        return new FilterReader(in) {
+            private long read;
+            private long lastReport = -REPORT_EVERY_CHARS;
+            private boolean finished;
+
+            @Override
+            public int read() throws IOException {
+                char[] one = new char[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0];
+            }
+
+            @Override
+            public int read(char[] buffer, int off, int len) throws IOException {
+                monitor.checkCancelled();
+                int n = super.read(buffer, off, len);
+                if (n < 0) {
+                    if (!finished) monitor.progress(-1, next);
+                    finished = true;
+                    return n;
+                }
+                read += n;
+                if (read - lastReport >= REPORT_EVERY_CHARS) {
+                    lastReport = read;
+                    monitor.progress(length > 0 ? Math.min(1.0, (double) read / length) : -1, "Reading document");
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * The export's output, reporting how much has been written.
+     *
+     * @param what e.g. "Writing HTML"
+     */
+    static OutputStream output(OutputStream out, ExportMonitor monitor, String what) {
+        return new FilterOutputStream(out) {
+            private long written;
+            private long lastReport;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count(1);
+            }
+
+            @Override
+            public void write(byte[] bytes, int off, int len) throws IOException {
+                out.write(bytes, off, len);
+                count(len);
+            }
+
+            private void count(int n) throws IOException {
+                written += n;
+                if (written - lastReport >= REPORT_EVERY_BYTES) {
+                    lastReport = written;
+                    monitor.checkCancelled();
+                    monitor.progress(-1, String.format("%s: %.1f MB", what, written / 1048576.0));
+                }
+            }
+        };
+    }
+
+    /**
+     * Passes SAX events to {@code handler} (FOP's), failing the transform once the export is cancelled.
+     */
+    static ContentHandler contentHandler(ContentHandler handler, ExportMonitor monitor) {
+        return new ContentHandler() {
+            private int events;
+
+            private void check() throws SAXException {
+                if (++events % CHECK_EVERY_EVENTS == 0 && monitor.isCancelled()) {
+                    throw new SAXException("Export cancelled.");
+                }
+            }
+
+            @Override public void setDocumentLocator(Locator locator) { handler.setDocumentLocator(locator); }
+            @Override public void startDocument() throws SAXException { handler.startDocument(); }
+            @Override public void endDocument() throws SAXException { handler.endDocument(); }
+            @Override public void startPrefixMapping(String prefix, String uri) throws SAXException { handler.startPrefixMapping(prefix, uri); }
+            @Override public void endPrefixMapping(String prefix) throws SAXException { handler.endPrefixMapping(prefix); }
+
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+                check();
+                handler.startElement(uri, localName, qName, atts);
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName) throws SAXException {
+                check();
+                handler.endElement(uri, localName, qName);
+            }
+
+            @Override public void characters(char[] ch, int start, int length) throws SAXException { handler.characters(ch, start, length); }
+            @Override public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException { handler.ignorableWhitespace(ch, start, length); }
+            @Override public void processingInstruction(String target, String data) throws SAXException { handler.processingInstruction(target, data); }
+            @Override public void skippedEntity(String name) throws SAXException { handler.skippedEntity(name); }
+        };
+    }
+}
@@ -0,0 +1,223 @@
+package com.teieditor.service;
+
+import net.sf.saxon.jaxp.TransformerImpl;
+import net.sf.saxon.s9api.Serializer;
+import net.sf.saxon.s9api.XsltTransformer;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Builds DOCX and EPUB3 packages in-process, running the same stylesheet steps as the
+ * TEI Stylesheets' docx/build-to.xml and epub/build-to.xml without Ant.
+ *
+ * Each export gets its own virtual working directory (a unique URI that never exists on
+ * disk). Files the stylesheet writes there with xsl:result-document are captured in memory,
+ * files it reads back from there are served from memory by a URIResolver, and the result
+ * is zipped straight to the output file. Nothing touches user.dir or the temp directory,
+ * so several exports can run at the same time.
+ */
+class PackageExportPipeline {
+
+    /**
+     * One packaging recipe, mirroring the properties of the corresponding build-to.xml.
+     *
+     * @param stylesheetCandidates stylesheet paths relative to the TEI root, first existing one wins
+     * @param templateCandidates   archive unpacked into the working directory first (DOCX only)
+     * @param directoryParams      stylesheet parameters that receive a path inside the working directory
+     * @param staticResources      files copied into the package (source relative to TEI root -> entry name)
+     * @param storedFirstEntry     entry written first and uncompressed, as EPUB requires for "mimetype"
+     * @param storedFirstContent   content for that entry if the stylesheet didn't write it
+     */
+    private record Recipe(List<String> stylesheetCandidates, List<String> templateCandidates,
+                          Map<String, String> directoryParams, Map<String, String> staticResources,
+                          String storedFirstEntry, String storedFirstContent) { }
+
+    private static final Recipe DOCX = new Recipe(
+        List.of("profiles/default/docx/to.xsl", "docx/to.xsl"),
+        List.of("docx/template.docx", "docx/templates/template.docx"),
+        Map.of("word-directory", ""),
+        Map.of(),
+        null, null
+    );
+
+    private static final Recipe EPUB3 = new Recipe(
+        List.of("profiles/default/epub3/to.xsl", "epub3/tei-to-epub3.xsl", "profiles/default/epub/to.xsl"),
+        List.of(),
+        Map.of("directory", "", "outputDir", "OEBPS"),
+        Map.of("css/tei.css", "OEBPS/stylesheet.css", "css/tei-print.css", "OEBPS/print.css"),
+        "mimetype", "application/epub+zip"
+    );
+
+    private final TemplatesCache templatesCache;
+
+    PackageExportPipeline(TemplatesCache templatesCache) {
+        this.templatesCache = templatesCache;
+    }
+
+    /**
+     * @throws RecipeUnavailableException if this stylesheet installation doesn't contain the files the recipe needs
+     */
+    void export(Source xmlSource, File stylesheetsDir, File outputFile, String formatType, ExportMonitor monitor) throws Exception {
+        Recipe recipe;
+        if ("DOCX".equalsIgnoreCase(formatType)) {
+            recipe = DOCX;
+        } else if ("EPUB3".equalsIgnoreCase(formatType)) {
+            recipe = EPUB3;
+        } else {
+            throw new IllegalArgumentException("Unsupported complex format: " + formatType);
+        }
+
+        // 1. Locate the stylesheet (and template) for this recipe
+        File xsltFile = firstExisting(stylesheetsDir, recipe.stylesheetCandidates());
+        if (xsltFile == null) {
+            throw new RecipeUnavailableException("No " + formatType + " stylesheet found in " + stylesheetsDir.getAbsolutePath());
+        }
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        if (!recipe.templateCandidates().isEmpty()) {
+            File template = firstExisting(stylesheetsDir, recipe.templateCandidates());
+            if (template == null) {
+                throw new RecipeUnavailableException("No " + formatType + " template found in " + stylesheetsDir.getAbsolutePath());
+            }
+            try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.EXPORT_STEP, formatType + ": template")) {
+                readArchive(template, entries);
+            }
+        }
+
+        // 2. Set up the virtual working directory
+        String workBase = "file:/tei-export-" + UUID.randomUUID();
+        TransformerImpl transformer = (TransformerImpl) templatesCache.get(xsltFile).newTransformer();
+        for (Map.Entry<String, String> param : recipe.directoryParams().entrySet()) {
+            String value = param.getValue().isEmpty() ? workBase : workBase + "/" + param.getValue();
+            transformer.setParameter(param.getKey(), value);
+        }
+
+        XsltTransformer xslt = transformer.getUnderlyingXsltTransformer();
+        xslt.setResultDocumentHandler(uri -> {
+            String entryName = entryName(workBase, uri.toString());
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Serializer serializer = transformer.getUnderlyingXsltExecutable().getProcessor().newSerializer(buffer);
+            if (entryName != null) serializer.onClose(() -> entries.put(entryName, buffer.toByteArray()));
+            return serializer;
+        });
+        transformer.setURIResolver(new WorkDirResolver(workBase, entries));
+
+        // 3. Run the stylesheet; the principal output is not part of the package
+        monitor.checkCancelled();
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.EXPORT_STEP, formatType + ": transform")) {
+            transformer.transform(xmlSource, new StreamResult(OutputStream.nullOutputStream()));
+        }
+
+        // 4. Add static resources the build file would have copied in
+        for (Map.Entry<String, String> resource : recipe.staticResources().entrySet()) {
+            if (entries.containsKey(resource.getValue())) continue;
+            File source = ExportFormats.resolveSmartPath(stylesheetsDir, resource.getKey());
+            if (source != null) entries.put(resource.getValue(), Files.readAllBytes(source.toPath()));
+        }
+
+        // 5. Zip straight to the output file
+        monitor.checkCancelled();
+        monitor.progress(-1, "Packaging " + entries.size() + " files");
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.EXPORT_STEP, formatType + ": package")) {
+            writeArchive(outputFile, entries, recipe.storedFirstEntry(), recipe.storedFirstContent());
+        }
+    }
+
+    private static File firstExisting(File stylesheetsDir, List<String> candidates) {
+        for (String candidate : candidates) {
+            File file = ExportFormats.resolveSmartPath(stylesheetsDir, candidate);
+            if (file != null) return file;
+        }
+        return null;
+    }
+
+    /**
+     * Maps a URI inside the virtual working directory to a package entry name, or null if it's elsewhere.
+     */
+    private static String entryName(String workBase, String uri) {
+        // Compare paths only: Saxon may spell the same file URI as file:/x or file:///x
+        URI candidate = URI.create(uri).normalize();
+        String basePath = URI.create(workBase).getPath() + "/";
+        if (!"file".equals(candidate.getScheme()) || candidate.getPath() == null) return null;
+        if (!candidate.getPath().startsWith(basePath)) return null;
+        return candidate.getPath().substring(basePath.length());
+    }
+
+    private static void readArchive(File archive, Map<String, byte[]> entries) throws IOException {
+        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(new FileInputStream(archive)))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zis.getNextEntry()) != null) {
+                if (!zipEntry.isDirectory()) entries.put(zipEntry.getName(), zis.readAllBytes());
+            }
+        }
+    }
+
+    private static void writeArchive(File outputFile, Map<String, byte[]> entries,
+                                     String storedFirstEntry, String storedFirstContent) throws IOException {
+        try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+            if (storedFirstEntry != null) {
+                byte[] data = entries.containsKey(storedFirstEntry)
+                        ? entries.get(storedFirstEntry)
+                        : storedFirstContent.getBytes(StandardCharsets.US_ASCII);
+                CRC32 crc = new CRC32();
+                crc.update(data);
+                ZipEntry stored = new ZipEntry(storedFirstEntry);
+                stored.setMethod(ZipEntry.STORED);
+                stored.setSize(data.length);
+                stored.setCrc(crc.getValue());
+                zos.putNextEntry(stored);
+                zos.write(data);
+                zos.closeEntry();
+            }
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                if (entry.getKey().equals(storedFirstEntry)) continue;
+                zos.putNextEntry(new ZipEntry(entry.getKey()));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Serves documents the stylesheet reads back from its working directory (e.g. the
+     * template's word/styles.xml) out of memory. Everything else resolves normally,
+     * relative to the stylesheet's own absolute location rather than user.dir.
+     */
+    private static class WorkDirResolver implements URIResolver {
+        private final String workBase;
+        private final Map<String, byte[]> entries;
+
+        WorkDirResolver(String workBase, Map<String, byte[]> entries) {
+            this.workBase = workBase;
+            this.entries = entries;
+        }
+
+        @Override
+        public Source resolve(String href, String base) throws TransformerException {
+            URI resolved = base == null ? URI.create(href) : URI.create(base).resolve(href);
+            String entryName = entryName(workBase, resolved.toString());
+            if (entryName == null) return null;
+
+            byte[] data = entries.get(entryName);
+            if (data == null) throw new TransformerException("Not found in package: " + entryName);
+            StreamSource source = new StreamSource(new ByteArrayInputStream(data));
+            source.setSystemId(resolved.toString());
+            return source;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.teieditor.service;
+
+/**
+ * The stylesheet installation lacks the files an in-process package recipe needs (an
+ * unfamiliar layout), so the export has to go through the stylesheets' own Ant build.
+ * Distinct from I/O errors on the output, which mean the export itself failed.
+ */
+public class RecipeUnavailableException extends Exception {
+
+    public RecipeUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,350 @@
+package com.teieditor.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where each export format's stylesheet is in the chosen TEI Stylesheets installation.
+ *
+ * Resolving a stylesheet means probing several layouts and scanning subdirectories, which
+ * is slow on network home directories, so it happens once when a folder is chosen and the
+ * answer is kept in a properties file under ~/.tei-editor along with the folder itself.
+ * At launch the saved index is reused as long as the directories it depends on haven't
+ * been modified since; while the editor runs, a {@link WatchService} on those directories
+ * rebuilds it whenever files there are added, removed or renamed.
+ *
+ * Formats the installation doesn't have are recorded as such, so asking for one again
+ * costs nothing until the folder changes.
+ */
+public class StylesheetIndex {
+
+    // Changes come in bursts (an install, a git pull): rebuild once they've settled
+    private static final long QUIET_MS = 500;
+
+    /**
+     * A built index.
+     *
+     * @param root    the folder the user chose
+     * @param baseDir the directory the mapped relative paths resolve against (the root, or a nested xml/tei/stylesheet)
+     * @param formats stylesheet file per format key of {@link ExportFormats#XSLT_MAPPINGS}; formats not found are
+     *                absent here and saved with an empty value
+     * @param watched directories whose listing the index depends on, with their modification times
+     */
+    private record Entry(File root, File baseDir, Map<String, File> formats, Map<Path, Long> watched) { }
+
+    private final Path indexFile;
+    private volatile Entry entry;
+
+    // Created with the watcher thread, once there is a folder to watch
+    private WatchService watchService;
+    private final List<WatchKey> watchKeys = new ArrayList<>();
+    // Whether watchKeys has any, readable without waiting for a rebuild to finish
+    private volatile boolean watching;
+
+    public StylesheetIndex(Path indexFile) {
+        this.indexFile = indexFile;
+        Entry saved = read();
+        if (saved == null) return;
+        if (!saved.root().isDirectory()) {
+            System.err.println("Warning: Stylesheets folder " + saved.root() + " no longer exists.");
+            return;
+        }
+        if (isCurrent(saved)) {
+            entry = saved;
+            watch(saved);
+        } else {
+            rebuild(saved.root());
+        }
+    }
+
+    /**
+     * The remembered stylesheets folder, or null if none has been chosen.
+     */
+    public File getRoot() {
+        Entry current = entry;
+        return current != null ? current.root() : null;
+    }
+
+    /**
+     * The directory stylesheet paths are relative to, which is where the export pipelines
+     * should look; null if no folder is set.
+     */
+    public File getBaseDir() {
+        Entry current = entry;
+        return current != null ? current.baseDir() : null;
+    }
+
+    /**
+     * Indexes {@code root}, remembers it for the next session and watches it for changes.
+     * Null forgets the folder.
+     */
+    public synchronized void setRoot(File root) {
+        if (root == null) {
+            entry = null;
+            unwatch();
+            try {
+                Files.deleteIfExists(indexFile);
+            } catch (IOException e) {
+                System.err.println("Warning: Could not delete " + indexFile + ". " + e.getMessage());
+            }
+            return;
+        }
+        rebuild(root);
+    }
+
+    /**
+     * The stylesheet for {@code formatName}, or null if the installation doesn't have one.
+     */
+    public File resolve(String formatName) {
+        Entry current = entry;
+        if (current == null) return null;
+        File file = current.formats().get(formatName);
+        if (file == null) {
+            // Known to be missing; the watcher re-indexes when the folder changes, or without one the modification times tell
+            if (watching || isCurrent(current)) return null;
+        } else if (file.exists()) {
+            return file;
+        }
+
+        // Gone before the watcher noticed, or the folder changed unwatched: look again rather than trust the index
+        synchronized (this) {
+            if (entry == current) rebuild(current.root());
+            current = entry;
+        }
+        return current != null ? current.formats().get(formatName) : null;
+    }
+
+    // ==========================================
+    // BUILDING
+    // ==========================================
+
+    private synchronized void rebuild(File root) {
+        Entry built = build(root);
+        entry = built;
+        write(built);
+        watch(built);
+    }
+
+    private static Entry build(File root) {
+        // 1. Resolve every mapped stylesheet the slow way, once
+        Map<String, File> formats = new LinkedHashMap<>();
+        Map<File, Integer> bases = new HashMap<>();
+        for (Map.Entry<String, String> mapping : ExportFormats.XSLT_MAPPINGS.entrySet()) {
+            File file = ExportFormats.resolveSmartPath(root, mapping.getValue());
+            if (file == null) continue;
+            formats.put(mapping.getKey(), file.getAbsoluteFile());
+            bases.merge(baseOf(file.getAbsoluteFile(), mapping.getValue()), 1, Integer::sum);
+        }
+
+        // 2. The layout most of them were found in
+        File baseDir = bases.entrySet().stream()
+                .max(Map.Entry.comparingByValue())
+                .map(Map.Entry::getKey)
+                .orElse(root.getAbsoluteFile());
+
+        // 3. The directories whose contents decide those answers
+        Set<Path> dirs = new LinkedHashSet<>();
+        dirs.add(root.toPath().toAbsolutePath());
+        dirs.add(baseDir.toPath());
+        for (String relativePath : ExportFormats.XSLT_MAPPINGS.values()) {
+            dirs.add(nearestExisting(baseDir.toPath().resolve(relativePath).getParent()));
+        }
+        Map<Path, Long> watched = new LinkedHashMap<>();
+        for (Path dir : dirs) watched.put(dir, modifiedTime(dir));
+        return new Entry(root.getAbsoluteFile(), baseDir, formats, watched);
+    }
+
+    // The directory relativePath was resolved against to give file
+    private static File baseOf(File file, String relativePath) {
+        File base = file;
+        for (int i = relativePath.split("/").length; i > 0 && base != null; i--) base = base.getParentFile();
+        return base;
+    }
+
+    private static Path nearestExisting(Path dir) {
+        while (dir != null && !Files.isDirectory(dir)) dir = dir.getParent();
+        return dir;
+    }
+
+    private static long modifiedTime(Path dir) {
+        try {
+            return Files.getLastModifiedTime(dir).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // Nothing was added, removed or renamed in any directory the index looked at
+    private static boolean isCurrent(Entry saved) {
+        for (Map.Entry<Path, Long> dir : saved.watched().entrySet()) {
+            if (modifiedTime(dir.getKey()) != dir.getValue()) return false;
+        }
+        return true;
+    }
+
+    // ==========================================
+    // PERSISTENCE
+    // ==========================================
+
+    private Entry read() {
+        if (!Files.exists(indexFile)) return null;
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not read " + indexFile + ". " + e.getMessage());
+            return null;
+        }
+        String root = properties.getProperty("root");
+        String baseDir = properties.getProperty("baseDir");
+        if (root == null || baseDir == null) return null;
+
+        Map<String, File> formats = new LinkedHashMap<>();
+        boolean complete = true;
+        for (String format : ExportFormats.XSLT_MAPPINGS.keySet()) {
+            String file = properties.getProperty("format." + format);
+            if (file == null) complete = false;
+            else if (!file.isEmpty()) formats.put(format, new File(file));
+        }
+        Map<Path, Long> watched = new LinkedHashMap<>();
+        for (int i = 0; properties.containsKey("watch." + i); i++) {
+            try {
+                watched.put(Path.of(properties.getProperty("watch." + i)),
+                        Long.parseLong(properties.getProperty("watch." + i + ".modified", "-1")));
+            } catch (RuntimeException e) {
+                // Unreadable entry: the index can't be checked, so treat it as stale
+                watched.put(Path.of(root), -2L);
+            }
+        }
+        // A format the index never looked for (an older index, or a new format): treat it as stale
+        if (!complete) watched.put(Path.of(root), -2L);
+        return new Entry(new File(root), new File(baseDir), formats, watched);
+    }
+
+    private void write(Entry built) {
+        Properties properties = new Properties();
+        properties.setProperty("root", built.root().getPath());
+        properties.setProperty("baseDir", built.baseDir().getPath());
+        for (String format : ExportFormats.XSLT_MAPPINGS.keySet()) {
+            File file = built.formats().get(format);
+            properties.setProperty("format." + format, file != null ? file.getPath() : "");
+        }
+        int i = 0;
+        for (Map.Entry<Path, Long> dir : built.watched().entrySet()) {
+            properties.setProperty("watch." + i, dir.getKey().toString());
+            properties.setProperty("watch." + i + ".modified", Long.toString(dir.getValue()));
+            i++;
+        }
+        try {
+            Files.createDirectories(indexFile.toAbsolutePath().getParent());
+            StringWriter text = new StringWriter();
+            properties.store(text, "TEI Editor stylesheet index");
+            DocumentSaver.writeAtomically(text.toString(), indexFile, StandardCharsets.UTF_8, false);
+        } catch (IOException e) {
+            System.err.println("Warning: Could not save stylesheet index. " + e.getMessage());
+        }
+    }
+
+    // ==========================================
+    // WATCHING
+    // ==========================================
+
+    private synchronized void watch(Entry built) {
+        unwatch();
+        try {
+            if (watchService == null) {
+                watchService = built.root().toPath().getFileSystem().newWatchService();
+                Thread watcher = new Thread(this::watchLoop, "stylesheet-index-watcher");
+                watcher.setDaemon(true);
+                watcher.setPriority(Thread.MIN_PRIORITY);
+                watcher.start();
+            }
+            for (Path dir : built.watched().keySet()) {
+                // Only the listings matter: editing a stylesheet doesn't move it
+                watchKeys.add(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE));
+            }
+            watching = true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Still correct without it: resolve() re-checks a stylesheet that has gone missing
+            System.err.println("Warning: Not watching stylesheets folder for changes. " + e.getMessage());
+        }
+    }
+
+    private synchronized void unwatch() {
+        watching = false;
+        for (WatchKey key : watchKeys) key.cancel();
+        watchKeys.clear();
+    }
+
+    private void watchLoop() {
+        WatchService service;
+        synchronized (this) {
+            service = watchService;
+        }
+        try {
+            while (true) {
+                // 1. Wait for a change, then until changes stop coming
+                WatchKey key = service.take();
+                boolean changed = false;
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) changed |= !isOwnWrite(event);
+                    key.reset();
+                } while ((key = service.poll(QUIET_MS, TimeUnit.MILLISECONDS)) != null);
+                if (!changed) continue;
+
+                // 2. Re-index whatever folder is current
+                synchronized (this) {
+                    Entry current = entry;
+                    if (current != null && current.root().isDirectory()) {
+                        rebuild(current.root());
+                    } else if (current != null) {
+                        System.err.println("Warning: Stylesheets folder " + current.root() + " was removed.");
+                        entry = null;
+                        unwatch();
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    // Saving the index (if it lives in a watched folder) must not trigger another rebuild
+    private boolean isOwnWrite(WatchEvent<?> event) {
+        String name = String.valueOf(event.context());
+        String own = indexFile.getFileName().toString();
+        return name.equals(own) || name.startsWith("." + own + ".");
+    }
+
+    /**
+     * Stops watching. The saved index stays for the next session.
+     */
+    public synchronized void close() {
+        unwatch();
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            System.err.println("Warning: Could not close stylesheet watcher. " + e.getMessage());
+        }
+    }
+}
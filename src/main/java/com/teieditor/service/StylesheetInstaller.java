@@ -0,0 +1,420 @@
+package com.teieditor.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Downloads and installs a zipped stylesheet distribution.
+ *
+ * <ol>
+ *   <li>Stage: an http(s) archive is downloaded to {@code <downloadDir>/<name>.part} and
+ *       renamed once complete. An interrupted download resumes with an HTTP Range request
+ *       (guarded by If-Range, so a changed file starts over). A {@code file:} archive is
+ *       used where it is.</li>
+ *   <li>Verify: the archive's SHA-256 must match the expected digest, when one is given;
+ *       every entry's CRC-32 is checked as it is extracted. A downloaded archive that fails
+ *       either check is deleted, so the next attempt fetches it afresh.</li>
+ *   <li>Extract: entries are read through {@link ZipFile}'s random access and written in
+ *       parallel into a hidden staging directory next to the target.</li>
+ *   <li>Install: the staging directory is renamed to {@code <targetDir>/tei-stylesheets},
+ *       replacing any previous install, so a half-extracted tree is never in use.</li>
+ * </ol>
+ */
+public class StylesheetInstaller {
+
+    public static final String INSTALL_DIR_NAME = "tei-stylesheets";
+
+    private static final String STAGING_PREFIX = "." + INSTALL_DIR_NAME + ".installing-";
+    private static final String RETIRED_PREFIX = "." + INSTALL_DIR_NAME + ".old-";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Progress is reported at most this often
+    private static final long PROGRESS_INTERVAL_NANOS = 50_000_000;
+
+    /**
+     * Receives progress. Called on background threads.
+     */
+    public interface Progress {
+        /** @param totalBytes -1 if the server didn't say */
+        void onDownload(long bytes, long totalBytes);
+
+        void onExtract(int entries, int totalEntries, long bytes, long totalBytes);
+    }
+
+    private final Path downloadDir;
+    private final int threads;
+    private final Object installLock = new Object();
+    private final HttpClient client = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(20))
+            .build();
+
+    public StylesheetInstaller(Path downloadDir) {
+        this(downloadDir, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public StylesheetInstaller(Path downloadDir, int threads) {
+        this.downloadDir = downloadDir;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Installs the archive at {@code source} into {@code targetDir} on a background thread.
+     *
+     * @param expectedSha256 hex digest the archive must have, or null to rely on the entry CRCs
+     * @return completes with the installed directory; cancel it to stop (the download resumes next time)
+     */
+    public CompletableFuture<Path> install(URI source, String expectedSha256, Path targetDir, Progress progress) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        Thread thread = new Thread(() -> {
+            // One at a time: a retry right after a cancel waits for the first to let go of the .part file
+            synchronized (installLock) {
+                if (result.isDone()) return;
+                try {
+                    result.complete(run(source, expectedSha256, targetDir, progress, result));
+                } catch (CancellationException e) {
+                    // Cancelled by the caller; the future is already done
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }, "stylesheet-installer");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    private Path run(URI source, String expectedSha256, Path targetDir, Progress progress, Future<?> job)
+            throws IOException, InterruptedException {
+        Files.createDirectories(targetDir);
+        removeLeftovers(targetDir);
+
+        // 1. Stage
+        boolean local = "file".equalsIgnoreCase(source.getScheme());
+        Path archive = local ? Path.of(source) : download(source, progress, job);
+
+        // 2. Verify
+        String digest = sha256(archive, job);
+        if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(digest)) {
+            if (!local) Files.deleteIfExists(archive);
+            throw new IOException("Checksum mismatch for " + archive.getFileName() + ": expected " + expectedSha256 + ", got " + digest + ".");
+        }
+
+        // 3. Extract next to the target, then 4. swap it in
+        Path staging = Files.createTempDirectory(targetDir, STAGING_PREFIX);
+        try {
+            try {
+                extract(archive, staging, progress, job);
+            } catch (IOException e) {
+                // A corrupt or truncated download would fail the same way on every retry
+                if (!local) Files.deleteIfExists(archive);
+                throw e;
+            }
+            Files.writeString(staging.resolve(".install-info"),
+                    "source=" + source + "\nsha256=" + digest + "\ninstalled=" + Instant.now() + "\n");
+            Path installed = swapIn(staging, targetDir.resolve(INSTALL_DIR_NAME));
+            if (!local) Files.deleteIfExists(archive);
+            return installed;
+        } finally {
+            if (Files.exists(staging)) deleteRecursively(staging);
+        }
+    }
+
+    // ==========================================
+    // STAGE
+    // ==========================================
+
+    private Path download(URI source, Progress progress, Future<?> job) throws IOException, InterruptedException {
+        Files.createDirectories(downloadDir);
+        String name = Path.of(source.getPath()).getFileName().toString();
+        Path complete = downloadDir.resolve(name);
+        if (Files.exists(complete)) return complete;
+        Path part = downloadDir.resolve(name + ".part");
+        // ETag or Last-Modified of the partial download, so a resume only continues the same file
+        Path validatorFile = downloadDir.resolve(name + ".part.validator");
+
+        long have = Files.exists(part) ? Files.size(part) : 0;
+        String validator = have > 0 && Files.exists(validatorFile) ? Files.readString(validatorFile).trim() : null;
+
+        HttpRequest.Builder request = HttpRequest.newBuilder(source).timeout(Duration.ofMinutes(2)).GET();
+        if (validator != null) {
+            request.header("Range", "bytes=" + have + "-");
+            // Without a validator the checksums are what catch a file that changed in between
+            if (!validator.isEmpty()) request.header("If-Range", validator);
+        }
+        HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+
+        int status = response.statusCode();
+        long total;
+        try (InputStream body = response.body()) {
+            if (status == 416 && validator != null) {
+                // Nothing left to fetch, if the part is as long as the file; the checksums decide whether it's good
+                if (rangeTotal(response) != have) {
+                    Files.deleteIfExists(part);
+                    Files.deleteIfExists(validatorFile);
+                    System.out.println("Partial download of " + name + " doesn't match the file on the server; starting over.");
+                    return download(source, progress, job);
+                }
+                Files.move(part, complete, StandardCopyOption.REPLACE_EXISTING);
+                Files.deleteIfExists(validatorFile);
+                return complete;
+            } else if (status == 206 && rangeStart(response) == have) {
+                long remaining = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+                total = remaining < 0 ? -1 : have + remaining;
+                System.out.println("Resuming download of " + name + " at " + have + " bytes.");
+            } else if (status == 206) {
+                // Not the range asked for: start over next time
+                Files.deleteIfExists(part);
+                Files.deleteIfExists(validatorFile);
+                throw new IOException("Download could not be resumed; it will restart next time.");
+            } else if (status == 200) {
+                have = 0;
+                total = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+                String newValidator = response.headers().firstValue("ETag")
+                        .or(() -> response.headers().firstValue("Last-Modified")).orElse("");
+                Files.writeString(validatorFile, newValidator);
+            } else {
+                throw new IOException("Download failed: HTTP " + status);
+            }
+
+            try (FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                out.truncate(have);
+                out.position(have);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long lastReport = 0;
+                int n;
+                while ((n = body.read(buffer)) >= 0) {
+                    if (job.isDone()) throw new CancellationException();
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                    while (chunk.hasRemaining()) out.write(chunk);
+                    have += n;
+                    long now = System.nanoTime();
+                    if (now - lastReport >= PROGRESS_INTERVAL_NANOS) {
+                        progress.onDownload(have, total);
+                        lastReport = now;
+                    }
+                }
+                out.force(true);
+            }
+        }
+        if (total >= 0 && have != total) throw new IOException("Download incomplete (" + have + " of " + total + " bytes); it will resume next time.");
+        progress.onDownload(have, total);
+        Files.move(part, complete, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(validatorFile);
+        return complete;
+    }
+
+    // "Content-Range: bytes 100-199/200" -> 100
+    private static long rangeStart(HttpResponse<?> response) {
+        String range = response.headers().firstValue("Content-Range").orElse("");
+        int space = range.indexOf(' ');
+        int dash = range.indexOf('-');
+        if (space < 0 || dash < space) return -1;
+        try {
+            return Long.parseLong(range.substring(space + 1, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // "Content-Range: bytes */200" -> 200
+    private static long rangeTotal(HttpResponse<?> response) {
+        String range = response.headers().firstValue("Content-Range").orElse("");
+        int slash = range.indexOf('/');
+        if (slash < 0) return -1;
+        try {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // ==========================================
+    // VERIFY
+    // ==========================================
+
+    private static String sha256(Path file, Future<?> job) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                if (job.isDone()) throw new CancellationException();
+                digest.update(buffer, 0, n);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    // ==========================================
+    // EXTRACT
+    // ==========================================
+
+    private void extract(Path archive, Path staging, Progress progress, Future<?> job) throws IOException, InterruptedException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            // 1. Check every name and create the directories up front, so the file tasks never race on them
+            List<ZipEntry> files = new ArrayList<>();
+            long totalBytes = 0;
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                Path path = resolveEntry(staging, entry);
+                if (entry.isDirectory()) {
+                    Files.createDirectories(path);
+                } else {
+                    Files.createDirectories(path.getParent());
+                    files.add(entry);
+                    totalBytes += Math.max(0, entry.getSize());
+                }
+            }
+
+            // 2. Write the files in parallel
+            AtomicInteger entriesDone = new AtomicInteger();
+            AtomicLong bytesDone = new AtomicLong();
+            AtomicLong lastReport = new AtomicLong();
+            long total = totalBytes;
+            ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "stylesheet-extract");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> tasks = new ArrayList<>(files.size());
+                for (ZipEntry entry : files) {
+                    tasks.add(pool.submit(() -> {
+                        if (job.isDone()) throw new CancellationException();
+                        extractEntry(zip, entry, resolveEntry(staging, entry));
+                        int entries = entriesDone.incrementAndGet();
+                        long bytes = bytesDone.addAndGet(Math.max(0, entry.getSize()));
+                        long now = System.nanoTime();
+                        long last = lastReport.get();
+                        if (now - last >= PROGRESS_INTERVAL_NANOS && lastReport.compareAndSet(last, now)) {
+                            progress.onExtract(entries, files.size(), bytes, total);
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> task : tasks) {
+                    try {
+                        task.get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof IOException io) throw io;
+                        if (e.getCause() instanceof CancellationException cancelled) throw cancelled;
+                        throw new IOException(e.getCause());
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+            progress.onExtract(files.size(), files.size(), total, total);
+        }
+    }
+
+    private static Path resolveEntry(Path staging, ZipEntry entry) throws IOException {
+        Path path = staging.resolve(entry.getName()).normalize();
+        if (!path.startsWith(staging)) throw new IOException("Bad zip entry: " + entry.getName());
+        return path;
+    }
+
+    private static void extractEntry(ZipFile zip, ZipEntry entry, Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = zip.getInputStream(entry);
+             OutputStream out = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                crc.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        }
+        if (entry.getCrc() != -1 && crc.getValue() != entry.getCrc()) {
+            throw new IOException("Corrupt archive: CRC mismatch in " + entry.getName());
+        }
+    }
+
+    // ==========================================
+    // INSTALL
+    // ==========================================
+
+    private static Path swapIn(Path staging, Path installed) throws IOException {
+        Path retired = null;
+        if (Files.exists(installed)) {
+            retired = installed.resolveSibling(RETIRED_PREFIX + Long.toHexString(System.nanoTime()));
+            Files.move(installed, retired, StandardCopyOption.ATOMIC_MOVE);
+        }
+        try {
+            Files.move(staging, installed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Put the previous install back rather than leave none
+            if (retired != null) Files.move(retired, installed, StandardCopyOption.ATOMIC_MOVE);
+            throw e;
+        }
+        if (retired != null) deleteRecursively(retired);
+        return installed;
+    }
+
+    // Staging and retired trees left by an install that was killed part-way
+    private static void removeLeftovers(Path targetDir) throws IOException {
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(targetDir,
+                entry -> entry.getFileName().toString().startsWith(STAGING_PREFIX)
+                        || entry.getFileName().toString().startsWith(RETIRED_PREFIX))) {
+            for (Path leftover : leftovers) deleteRecursively(leftover);
+        }
+    }
+
+    private static void deleteRecursively(Path root) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Warning: Could not delete " + root + ". " + e.getMessage());
+        }
+    }
+}
@@ -1,69 +1,47 @@
 package com.teieditor.service;
 
-import javafx.application.Platform;
-import java.io.*;
+import java.io.File;
 import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.file.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 public class StylesheetManager {
 
     private static final String DOWNLOAD_URL = "https://github.com/TEIC/Stylesheets/releases/download/v7.56.0/tei-xsl-7.56.0.zip";
-    
+    // Overrides for mirrors, offline installs (a file: URI) and testing against a local server
+    private static final String URL_PROPERTY = "teieditor.stylesheets.url";
+    // Hex SHA-256 the archive must match; without it only the zip's own CRCs are checked
+    private static final String SHA256_PROPERTY = "teieditor.stylesheets.sha256";
+
+    private final StylesheetInstaller installer =
+            new StylesheetInstaller(Path.of(System.getProperty("user.home"), ".tei-editor", "downloads"));
+
     // Default location (Fall back to this if user doesn't specify one)
     public File getDefaultDir() {
         return new File(System.getProperty("user.home"), ".tei-editor/stylesheets");
     }
 
-    // UPDATED: Now accepts a specific target directory
-    public void downloadAndInstall(File targetDir, Runnable onSuccess, Runnable onError) {
-        Thread thread = new Thread(() -> {
-            try {
-                if (!targetDir.exists()) targetDir.mkdirs();
-
-                System.out.println("Downloading stylesheets to: " + targetDir.getAbsolutePath());
-                
-                HttpClient client = HttpClient.newHttpClient();
-                HttpRequest request = HttpRequest.newBuilder().uri(URI.create(DOWNLOAD_URL)).build();
-                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-
-                if (response.statusCode() != 200) throw new IOException("Download failed: HTTP " + response.statusCode());
-
-                System.out.println("Extracting...");
-                unzip(response.body(), targetDir.toPath());
-
-                System.out.println("Installation complete.");
-                Platform.runLater(onSuccess);
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                Platform.runLater(onError);
-            }
+    /**
+     * Downloads (or resumes downloading) the TEI Stylesheets and installs them under {@code targetDir}.
+     *
+     * @return completes on a background thread with the installed stylesheets root, which is
+     *         {@code targetDir/tei-stylesheets}; cancel it to stop
+     */
+    public CompletableFuture<File> downloadAndInstall(File targetDir, StylesheetInstaller.Progress progress) {
+        URI source = toUri(System.getProperty(URL_PROPERTY, DOWNLOAD_URL));
+        System.out.println("Installing stylesheets from " + source + " to: " + targetDir.getAbsolutePath());
+        CompletableFuture<Path> install = installer.install(source, System.getProperty(SHA256_PROPERTY), targetDir.toPath(), progress);
+        CompletableFuture<File> result = install.thenApply(Path::toFile);
+        // Cancelling a derived future doesn't reach the one the installer checks
+        result.whenComplete((file, error) -> {
+            if (result.isCancelled()) install.cancel(false);
         });
-        thread.setDaemon(true);
-        thread.start();
+        return result;
     }
 
-    private void unzip(InputStream source, Path targetDir) throws IOException {
-        try (ZipInputStream zis = new ZipInputStream(source)) {
-            ZipEntry zipEntry = zis.getNextEntry();
-            while (zipEntry != null) {
-                Path newPath = targetDir.resolve(zipEntry.getName());
-                if (!newPath.normalize().startsWith(targetDir.normalize())) {
-                    throw new IOException("Bad zip entry: " + zipEntry.getName());
-                }
-                if (zipEntry.isDirectory()) {
-                    Files.createDirectories(newPath);
-                } else {
-                    if (newPath.getParent() != null) Files.createDirectories(newPath.getParent());
-                    Files.copy(zis, newPath, StandardCopyOption.REPLACE_EXISTING);
-                }
-                zipEntry = zis.getNextEntry();
-            }
-        }
+    // A plain path is accepted as well as a URI
+    private static URI toUri(String location) {
+        URI uri = URI.create(location.replace(File.separatorChar, '/').replace(" ", "%20"));
+        return uri.getScheme() == null || uri.getScheme().length() == 1 ? Path.of(location).toUri() : uri;
     }
-}
\ No newline at end of file
+}
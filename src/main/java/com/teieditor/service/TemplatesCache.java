@@ -0,0 +1,188 @@
+package com.teieditor.service;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Caches compiled XSLT stylesheets ({@link Templates}) so repeated exports only pay
+ * for the transform, not for compiling the TEI import tree again.
+ *
+ * Entries are keyed by the canonical stylesheet path and are recompiled when the
+ * stylesheet or any module it imports/includes changes on disk. The cache is LRU
+ * with both an entry limit and a memory budget. Since compiled size cannot be
+ * measured directly, the weight of an entry is the total source size of the
+ * modules it was compiled from.
+ */
+public class TemplatesCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 8;
+    private static final long DEFAULT_MAX_SOURCE_BYTES = 32L * 1024 * 1024;
+
+    private record Entry(Templates templates, Map<File, Long> moduleTimestamps, long weight) {
+        boolean isStale() {
+            for (Map.Entry<File, Long> module : moduleTimestamps.entrySet()) {
+                if (module.getKey().lastModified() != module.getValue()) return true;
+            }
+            return false;
+        }
+    }
+
+    private final TransformerFactory transformerFactory;
+    private final int maxEntries;
+    private final long maxWeight;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Entry>> inFlight = new HashMap<>();
+    private long totalWeight = 0;
+
+    // Modules resolved by the compile running on the current thread
+    private final ThreadLocal<Map<File, Long>> modulesBeingCompiled = new ThreadLocal<>();
+
+    public TemplatesCache(TransformerFactory transformerFactory) {
+        this(transformerFactory, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_SOURCE_BYTES);
+    }
+
+    public TemplatesCache(TransformerFactory transformerFactory, int maxEntries, long maxSourceBytes) {
+        this.transformerFactory = transformerFactory;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxSourceBytes;
+        this.transformerFactory.setURIResolver(this::recordModule);
+    }
+
+    /**
+     * Returns the compiled stylesheet, compiling it (once, even with concurrent callers) if needed.
+     */
+    public Templates get(File xsltFile) throws TransformerException, IOException {
+        String key = xsltFile.getCanonicalPath();
+        CompletableFuture<Entry> compile;
+        boolean owner = false;
+
+        synchronized (this) {
+            Entry cached = entries.get(key);
+            if (cached != null && !cached.isStale()) return cached.templates();
+            if (cached != null) remove(key);
+
+            compile = inFlight.get(key);
+            if (compile == null) {
+                compile = new CompletableFuture<>();
+                inFlight.put(key, compile);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                Entry entry = compile(new File(key));
+                synchronized (this) {
+                    put(key, entry);
+                    inFlight.remove(key);
+                }
+                compile.complete(entry);
+            } catch (Throwable e) {
+                // Errors too (a deep stylesheet can overflow the stack): waiting callers must not block forever
+                synchronized (this) { inFlight.remove(key); }
+                compile.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        try {
+            return compile.join().templates();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TransformerException te) throw te;
+            throw e;
+        }
+    }
+
+    /**
+     * Compiles the given stylesheets on a low-priority background thread.
+     * Missing files and compile errors are logged and otherwise ignored.
+     */
+    public void precompileAsync(List<File> xsltFiles) {
+        Thread thread = new Thread(() -> {
+            for (File xsltFile : xsltFiles) {
+                if (xsltFile == null || !xsltFile.exists()) continue;
+                try {
+                    // Timed by the XSLT_COMPILE diagnostics event
+                    get(xsltFile);
+                } catch (Exception e) {
+                    System.err.println("Warning: Could not precompile " + xsltFile + ": " + e.getMessage());
+                }
+            }
+        }, "xslt-precompiler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    private Entry compile(File xsltFile) throws TransformerException {
+        Map<File, Long> modules = new HashMap<>();
+        modules.put(xsltFile, xsltFile.lastModified());
+        modulesBeingCompiled.set(modules);
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.XSLT_COMPILE, xsltFile.getName())) {
+            Templates templates = transformerFactory.newTemplates(new StreamSource(xsltFile));
+            long weight = 0;
+            for (File module : modules.keySet()) weight += module.length();
+            return new Entry(templates, Map.copyOf(modules), weight);
+        } finally {
+            modulesBeingCompiled.remove();
+        }
+    }
+
+    /**
+     * URIResolver hook: notes every xsl:import/xsl:include resolved during a compile,
+     * then returns null so the factory resolves the module as usual.
+     */
+    private Source recordModule(String href, String base) {
+        Map<File, Long> modules = modulesBeingCompiled.get();
+        if (modules == null) return null;
+        try {
+            URI resolved = base == null ? new URI(href) : new URI(base).resolve(href);
+            if ("file".equals(resolved.getScheme())) {
+                File module = new File(resolved);
+                modules.put(module, module.lastModified());
+            }
+        } catch (Exception ignored) {
+            // Not a local file; it simply won't take part in staleness checks
+        }
+        return null;
+    }
+
+    private void put(String key, Entry entry) {
+        Entry previous = entries.put(key, entry);
+        if (previous != null) totalWeight -= previous.weight();
+        totalWeight += entry.weight();
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalWeight > maxWeight) && entries.size() > 1 && eldest.hasNext()) {
+            Map.Entry<String, Entry> victim = eldest.next();
+            if (victim.getKey().equals(key)) continue;
+            totalWeight -= victim.getValue().weight();
+            eldest.remove();
+        }
+    }
+
+    private void remove(String key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) totalWeight -= removed.weight();
+    }
+}
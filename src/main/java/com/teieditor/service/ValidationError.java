@@ -0,0 +1,18 @@
+package com.teieditor.service;
+
+/**
+ * A single diagnostic reported while validating a document.
+ *
+ * @param line        1-based line number, or -1 if unknown
+ * @param column      1-based column number, or -1 if unknown
+ * @param message     the message reported by the parser or by Jing
+ * @param elementPath XPath-like location of the element being validated, e.g. /TEI/text/body/div[2]/p[1]
+ * @param fatal       true if the document is not well-formed and parsing stopped
+ */
+public record ValidationError(int line, int column, String message, String elementPath, boolean fatal) {
+
+    @Override
+    public String toString() {
+        return "Line " + line + ", Col " + column + " (" + elementPath + "): " + message;
+    }
+}
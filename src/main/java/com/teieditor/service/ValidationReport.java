@@ -0,0 +1,21 @@
+package com.teieditor.service;
+
+import java.util.List;
+
+/**
+ * Result of a validation run.
+ *
+ * @param errors    diagnostics in the order they were found
+ * @param truncated true if validation stopped early because the error limit was reached
+ * @param elapsedMs wall-clock time of the run (excluding any wait for the schema compile)
+ */
+public record ValidationReport(List<ValidationError> errors, boolean truncated, long elapsedMs) {
+
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+
+    public ValidationError firstError() {
+        return errors.isEmpty() ? null : errors.get(0);
+    }
+}
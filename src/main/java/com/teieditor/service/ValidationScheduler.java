@@ -0,0 +1,108 @@
+package com.teieditor.service;
+
+import com.teieditor.model.DocumentSnapshot;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Debounced, single-flight background validation.
+ *
+ * Callers submit immutable document snapshots, each tagged with its version.
+ * Submissions inside the debounce window are coalesced, a newer version cancels
+ * any run still working on an older one, and only the report for the latest
+ * version is ever published. Edits are validated incrementally (see {@link IncrementalValidator});
+ * an explicit request checks the whole document.
+ */
+public class ValidationScheduler {
+
+    /**
+     * Receives the report for the most recent version. Called on a background thread.
+     */
+    public interface ResultListener {
+        void onValidated(long version, ValidationReport report);
+    }
+
+    private final IncrementalValidator validator;
+    private final long debounceMs;
+    private final int maxErrors;
+    private final ResultListener listener;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "validation-debounce");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicLong latestVersion = new AtomicLong(-1);
+    private ScheduledFuture<?> pending;
+    private Future<?> running;
+
+    public ValidationScheduler(ValidationService validationService, long debounceMs, int maxErrors, ResultListener listener) {
+        this.validator = new IncrementalValidator(validationService);
+        this.debounceMs = debounceMs;
+        this.maxErrors = maxErrors;
+        this.listener = listener;
+    }
+
+    /**
+     * Schedules validation of {@code snapshot} once the document has been quiet for the debounce delay.
+     */
+    public void submit(DocumentSnapshot snapshot) {
+        schedule(snapshot, debounceMs, false);
+    }
+
+    /**
+     * Validates the whole of {@code snapshot} immediately (e.g. from the "Validate XML" button).
+     */
+    public void submitNow(DocumentSnapshot snapshot) {
+        schedule(snapshot, 0, true);
+    }
+
+    private synchronized void schedule(DocumentSnapshot snapshot, long delayMs, boolean whole) {
+        // Edits made while the window closes aren't validated any more
+        if (timer.isShutdown()) return;
+        // Marking a newer version makes any in-flight run stale, which stops it at its next element
+        latestVersion.set(snapshot.version());
+        if (pending != null) pending.cancel(false);
+        pending = timer.schedule(() -> start(snapshot, whole), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void start(DocumentSnapshot snapshot, boolean whole) {
+        if (snapshot.version() != latestVersion.get()) return;
+        if (running != null) running.cancel(true);
+        running = workers.submit(() -> run(snapshot, whole));
+    }
+
+    private void run(DocumentSnapshot snapshot, boolean whole) {
+        long version = snapshot.version();
+        BooleanSupplier cancelled = () -> version != latestVersion.get() || Thread.currentThread().isInterrupted();
+        ValidationReport report;
+        try {
+            report = whole ? validator.validateAll(snapshot, maxErrors, cancelled)
+                           : validator.validate(snapshot, maxErrors, cancelled);
+        } catch (CancellationException e) {
+            return;
+        }
+        if (version == latestVersion.get()) listener.onValidated(version, report);
+    }
+
+    /**
+     * Stops the debounce timer and any run in progress; no report is published after this.
+     */
+    public synchronized void shutdown() {
+        latestVersion.set(-1);
+        if (pending != null) pending.cancel(false);
+        if (running != null) running.cancel(true);
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+}
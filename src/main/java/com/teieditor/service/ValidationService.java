@@ -1,55 +1,380 @@
 package com.teieditor.service;
 
 import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.IncorrectSchemaException;
+import com.thaiopensource.validate.Schema;
 import com.thaiopensource.validate.ValidateProperty;
-import com.thaiopensource.validate.ValidationDriver;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.rng.SAXSchemaReader;
+import com.thaiopensource.xml.sax.Jaxp11XMLReaderCreator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
 
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Reader;
 import java.io.StringReader;
 import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 
 public class ValidationService {
 
-    public boolean validateTei(String xmlContent) {
-        // 1. Create the PropertyMapBuilder
-        PropertyMapBuilder properties = new PropertyMapBuilder();
-        
-        // FIX: Use the builder's put method instead of the PropertyId's put method
-        // Old (Deprecated): ValidateProperty.ERROR_HANDLER.put(properties, new DefaultHandler());
-        // New (Correct):
-        properties.put(ValidateProperty.ERROR_HANDLER, new DefaultHandler());
-        
-        // 2. Initialize the Driver with the map
-        ValidationDriver driver = new ValidationDriver(properties.toPropertyMap());
+    private static final String SCHEMA_RESOURCE = "/schema/tei_all.rng";
+    private static final String RNG_NS = "http://relaxng.org/ns/structure/1.0";
 
-        try {
-            // 3. Load Schema
-            // Ensure you have src/main/resources/schema/tei_all.rng
-            URL schemaUrl = getClass().getResource("/schema/tei_all.rng");
-            
-            if (schemaUrl == null) {
-                System.err.println("CRITICAL ERROR: 'schema/tei_all.rng' not found in resources.");
-                return false;
+    // The compiled Jing Schema is immutable and thread-safe, so it is shared by
+    // every ValidationService instance. Each validation run only creates a Validator.
+    private static CompletableFuture<Schema> schemaFuture;
+    // The same grammar accepting any TEI element as the root, for validating a subtree on its own
+    private static CompletableFuture<Schema> fragmentSchemaFuture;
+
+    /**
+     * Starts compiling tei_all.rng on a background thread so the first
+     * validation after launch does not pay for the schema compile.
+     */
+    public static void warmUp() {
+        getSchemaFuture();
+    }
+
+    private static synchronized CompletableFuture<Schema> getSchemaFuture() {
+        if (schemaFuture == null) {
+            CompletableFuture<Schema> future = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    future.complete(compileSchema());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }, "tei-schema-compiler");
+            thread.setDaemon(true);
+            thread.start();
+            schemaFuture = future;
+        }
+        return schemaFuture;
+    }
+
+    private static synchronized CompletableFuture<Schema> getFragmentSchemaFuture() {
+        if (fragmentSchemaFuture == null) {
+            // Same treatment as the main schema, at the lowest priority: nothing waits for it
+            CompletableFuture<Schema> future = new CompletableFuture<>();
+            Thread thread = new Thread(() -> {
+                try {
+                    future.complete(compileFragmentSchema());
+                } catch (Exception e) {
+                    System.err.println("Warning: Could not compile the subtree schema; validating whole documents only. " + e.getMessage());
+                    future.completeExceptionally(e);
+                }
+            }, "tei-fragment-schema-compiler");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+            fragmentSchemaFuture = future;
+        }
+        return fragmentSchemaFuture;
+    }
+
+    private static synchronized void discardFailedSchema(CompletableFuture<Schema> failed) {
+        // Allow a later call to retry instead of caching the failure forever
+        if (schemaFuture == failed) schemaFuture = null;
+    }
+
+    private static Schema compileSchema() throws IOException, SAXException, IncorrectSchemaException {
+        // Ensure you have src/main/resources/schema/tei_all.rng
+        URL schemaUrl = ValidationService.class.getResource(SCHEMA_RESOURCE);
+        if (schemaUrl == null) {
+            throw new IOException("'schema/tei_all.rng' not found in resources.");
+        }
+
+        // Use the URL as system id so relative references inside the schema still resolve
+        InputSource schemaSource = new InputSource(schemaUrl.toExternalForm());
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.SCHEMA_LOAD)) {
+            return createSchema(schemaSource);
+        }
+    }
+
+    /**
+     * Compiles tei_all.rng with its start pattern widened to every element definition. Each
+     * TEI element has exactly one definition, so an element that is valid as the root of this
+     * grammar is valid wherever the full schema allows that element.
+     */
+    private static Schema compileFragmentSchema() throws Exception {
+        URL schemaUrl = ValidationService.class.getResource(SCHEMA_RESOURCE);
+        if (schemaUrl == null) {
+            throw new IOException("'schema/tei_all.rng' not found in resources.");
+        }
+
+        // 1. Replace the content of <start> with a choice of every define that is a single named element
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document grammar = factory.newDocumentBuilder().parse(schemaUrl.toExternalForm());
+        Element choice = grammar.createElementNS(RNG_NS, "choice");
+        Element start = null;
+        for (Node node = grammar.getDocumentElement().getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!(node instanceof Element child) || !RNG_NS.equals(child.getNamespaceURI())) continue;
+            if (child.getLocalName().equals("start")) start = child;
+            if (child.getLocalName().equals("define") && definesElement(child)) {
+                Element ref = grammar.createElementNS(RNG_NS, "ref");
+                ref.setAttribute("name", child.getAttribute("name"));
+                choice.appendChild(ref);
             }
+        }
+        if (start == null) throw new IOException("No start pattern in " + SCHEMA_RESOURCE);
+        while (start.hasChildNodes()) start.removeChild(start.getFirstChild());
+        start.appendChild(choice);
+
+        // 2. Compile the modified grammar
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(grammar), new StreamResult(bytes));
+        InputSource schemaSource = new InputSource(new ByteArrayInputStream(bytes.toByteArray()));
+        schemaSource.setSystemId(schemaUrl.toExternalForm());
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.SCHEMA_LOAD, "subtree schema")) {
+            return createSchema(schemaSource);
+        }
+    }
 
-            InputSource schemaSource = new InputSource(schemaUrl.openStream());
-            
-            // Load the schema into the driver
-            if (!driver.loadSchema(schemaSource)) {
-                System.err.println("Error loading schema definition. Check if tei_all.rng is valid.");
-                return false;
+    private static boolean definesElement(Element define) {
+        Element only = null;
+        for (Node node = define.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element child) {
+                if (only != null) return false;
+                only = child;
             }
+        }
+        return only != null && RNG_NS.equals(only.getNamespaceURI())
+                && only.getLocalName().equals("element") && only.hasAttribute("name");
+    }
+
+    private static Schema createSchema(InputSource schemaSource) throws IOException, SAXException, IncorrectSchemaException {
+        PropertyMapBuilder properties = new PropertyMapBuilder();
+        properties.put(ValidateProperty.ERROR_HANDLER, new SchemaErrorHandler());
+        return SAXSchemaReader.getInstance().createSchema(schemaSource, properties.toPropertyMap());
+    }
 
-            // 4. Validate the XML content
-            InputSource xmlSource = new InputSource(new StringReader(xmlContent));
-            return driver.validate(xmlSource);
+    /**
+     * Returns the shared compiled schema, waiting for the background compile if needed.
+     */
+    Schema getSchema() {
+        CompletableFuture<Schema> future = getSchemaFuture();
+        try {
+            return future.join();
+        } catch (Exception e) {
+            discardFailedSchema(future);
+            System.err.println("CRITICAL ERROR: Could not compile " + SCHEMA_RESOURCE + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean validateTei(String xmlContent) {
+        // A yes/no answer only needs the first error, so stop as soon as one is found
+        return validate(xmlContent, 1, null).isValid();
+    }
+
+    /**
+     * Validates the document against tei_all.rng, streaming diagnostics to the
+     * listener as they are found.
+     *
+     * @param xmlContent the document to validate
+     * @param maxErrors  stop after this many errors (0 or less means no limit)
+     * @param listener   called for each error as it is found; may be null
+     */
+    public ValidationReport validate(String xmlContent, int maxErrors, Consumer<ValidationError> listener) {
+        return validate(new StringReader(xmlContent), maxErrors, listener, () -> false);
+    }
 
+    /**
+     * Same as {@link #validate(String, int, Consumer)}, but reads the document from
+     * {@code xmlReader} (e.g. a document snapshot) and polls {@code cancelled} at
+     * every element, throwing {@link CancellationException} once it returns true.
+     */
+    public ValidationReport validate(Reader xmlReader, int maxErrors, Consumer<ValidationError> listener,
+                                     BooleanSupplier cancelled) {
+        // 1. Get the shared schema (compiled once per process)
+        Schema schema = getSchema();
+        if (schema == null) {
+            List<ValidationError> errors = List.of(new ValidationError(-1, -1, "TEI schema could not be loaded.", "/", true));
+            return new ValidationReport(errors, false, 0);
+        }
+        return validate(schema, null, xmlReader, maxErrors, listener, cancelled);
+    }
+
+    /**
+     * Starts compiling the subtree schema if it isn't yet, and returns whether it's ready.
+     * Never waits, so callers can validate the whole document meanwhile.
+     */
+    static boolean isFragmentSchemaReady() {
+        CompletableFuture<Schema> future = getFragmentSchemaFuture();
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * Validates a single element (with the namespace declarations it needs) against the
+     * definition of that element, wherever it sits in a document; see {@link IncrementalValidator}.
+     * Only call once {@link #isFragmentSchemaReady()}.
+     */
+    ValidationReport validateFragment(Reader fragmentReader, int maxErrors, BooleanSupplier cancelled) {
+        Schema schema = getFragmentSchemaFuture().join();
+        return validate(schema, "subtree", fragmentReader, maxErrors, null, cancelled);
+    }
+
+    // step tells subtree runs apart from whole documents in the diagnostics
+    private ValidationReport validate(Schema schema, String step, Reader xmlReader,
+                                      int maxErrors, Consumer<ValidationError> listener, BooleanSupplier cancelled) {
+        List<ValidationError> errors = new ArrayList<>();
+        long start = System.nanoTime();
+        ElementPathTracker pathTracker = new ElementPathTracker(cancelled);
+        ReportingErrorHandler errorHandler = new ReportingErrorHandler(errors, pathTracker, maxErrors, listener);
+
+        // 2. Create a cheap, single-use validator for this run
+        PropertyMapBuilder properties = new PropertyMapBuilder();
+        properties.put(ValidateProperty.ERROR_HANDLER, errorHandler);
+        Validator validator = schema.createValidator(properties.toPropertyMap());
+        pathTracker.setDelegate(validator.getContentHandler());
+
+        boolean truncated = false;
+        try (Diagnostics.Timer timer = Diagnostics.start(Diagnostics.Operation.VALIDATION, step)) {
+            // 3. Stream the document through the validator
+            XMLReader reader = new Jaxp11XMLReaderCreator().createXMLReader();
+            reader.setContentHandler(pathTracker);
+            reader.setDTDHandler(validator.getDTDHandler());
+            reader.setErrorHandler(errorHandler);
+            reader.parse(new InputSource(xmlReader));
+
+        } catch (ValidationCancelledException e) {
+            throw new CancellationException("Validation cancelled.");
+        } catch (ErrorLimitReachedException e) {
+            truncated = true;
+        } catch (SAXParseException e) {
+            // Already recorded by fatalError()
         } catch (IOException | SAXException e) {
-            e.printStackTrace();
-            return false;
+            errors.add(new ValidationError(-1, -1, e.getMessage(), pathTracker.currentPath(), true));
+        }
+
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        return new ValidationReport(List.copyOf(errors), truncated, elapsedMs);
+    }
+
+    /**
+     * Reports schema-level problems while compiling tei_all.rng.
+     */
+    private static class SchemaErrorHandler implements ErrorHandler {
+        @Override public void warning(SAXParseException e) { }
+        @Override public void error(SAXParseException e) { System.err.println("Schema error: " + e.getMessage()); }
+        @Override public void fatalError(SAXParseException e) throws SAXException { throw e; }
+    }
+
+    /**
+     * Collects diagnostics with their location and aborts the parse once the
+     * configured error limit is hit.
+     */
+    private static class ReportingErrorHandler implements ErrorHandler {
+        private final List<ValidationError> errors;
+        private final ElementPathTracker pathTracker;
+        private final int maxErrors;
+        private final Consumer<ValidationError> listener;
+
+        ReportingErrorHandler(List<ValidationError> errors, ElementPathTracker pathTracker,
+                              int maxErrors, Consumer<ValidationError> listener) {
+            this.errors = errors;
+            this.pathTracker = pathTracker;
+            this.maxErrors = maxErrors;
+            this.listener = listener;
+        }
+
+        @Override public void warning(SAXParseException e) { }
+
+        @Override
+        public void error(SAXParseException e) throws SAXException {
+            record(e, false);
+            if (maxErrors > 0 && errors.size() >= maxErrors) throw new ErrorLimitReachedException();
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) throws SAXException {
+            record(e, true);
+            throw e;
+        }
+
+        private void record(SAXParseException e, boolean fatal) {
+            ValidationError error = new ValidationError(e.getLineNumber(), e.getColumnNumber(),
+                    e.getMessage(), pathTracker.currentPath(), fatal);
+            errors.add(error);
+            if (listener != null) listener.accept(error);
+        }
+    }
+
+    /**
+     * Thrown from the error handler to stop parsing once enough errors were found.
+     */
+    private static class ErrorLimitReachedException extends SAXException {
+        ErrorLimitReachedException() { super("Validation error limit reached."); }
+    }
+
+    /**
+     * Thrown from the content handler to unwind the parser when the run is cancelled.
+     */
+    private static class ValidationCancelledException extends SAXException {
+        ValidationCancelledException() { super("Validation cancelled."); }
+    }
+
+    /**
+     * Forwards SAX events to the validator while keeping track of the current
+     * element path (with sibling positions) for error reporting.
+     */
+    private static class ElementPathTracker extends XMLFilterImpl {
+        private final Deque<String> path = new ArrayDeque<>();
+        private final Deque<Map<String, Integer>> siblingCounts = new ArrayDeque<>();
+        private final BooleanSupplier cancelled;
+
+        ElementPathTracker(BooleanSupplier cancelled) {
+            this.cancelled = cancelled;
+            siblingCounts.push(new HashMap<>());
+        }
+
+        void setDelegate(ContentHandler handler) {
+            setContentHandler(handler);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+            if (cancelled.getAsBoolean()) throw new ValidationCancelledException();
+            int position = siblingCounts.peek().merge(localName, 1, Integer::sum);
+            path.addLast(localName + "[" + position + "]");
+            siblingCounts.push(new HashMap<>());
+            super.startElement(uri, localName, qName, atts);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            super.endElement(uri, localName, qName);
+            siblingCounts.pop();
+            path.pollLast();
+        }
+
+        String currentPath() {
+            return path.isEmpty() ? "/" : "/" + String.join("/", path);
         }
     }
-}
\ No newline at end of file
+}
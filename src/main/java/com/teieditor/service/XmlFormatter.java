@@ -0,0 +1,346 @@
+package com.teieditor.service;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Streaming (StAX) pretty-printer for TEI documents.
+ *
+ * Element-only content is re-indented; everything else is written back unchanged:
+ * <ul>
+ *   <li>mixed content (an element with any non-whitespace text, CDATA or entity reference
+ *       among its children, e.g. {@code <p>text <hi>word</hi></p>}) keeps its whitespace exactly,
+ *       so formatting never changes the text of a paragraph</li>
+ *   <li>so does an element whose children touch with no whitespace between them or its
+ *       tags ({@code <p><w>foo</w><pc>.</pc></p>}), if the content model lets it hold text:
+ *       indenting there would add words' worth of space to the text</li>
+ *   <li>elements under {@code xml:space="preserve"} are copied verbatim</li>
+ * </ul>
+ *
+ * Whether an element is mixed is only known at its end tag, so the input is read twice: a
+ * first pass records one bit per element, the second writes. Nothing else is buffered, and
+ * the StAX factory is created once per process.
+ */
+public class XmlFormatter {
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    private final String indentUnit;
+
+    public XmlFormatter() {
+        this(2);
+    }
+
+    public XmlFormatter(int indentSize) {
+        this.indentUnit = " ".repeat(indentSize);
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            // JDK-specific: keep the DOCTYPE but never fetch an external DTD, and keep CDATA sections as such
+            factory.setProperty("http://java.sun.com/xml/stream/properties/ignore-external-dtd", true);
+            factory.setProperty("http://java.sun.com/xml/stream/properties/report-cdata-event", true);
+        } catch (IllegalArgumentException ignored) {
+            // Other StAX implementations don't need these
+        }
+        return factory;
+    }
+
+    /**
+     * Formats a whole document, writing an XML declaration.
+     *
+     * @throws XMLStreamException if the input is not well-formed
+     */
+    public String format(String xml) throws XMLStreamException {
+        return new FormattingPass(xml, "", true).write(findMixedElements(xml));
+    }
+
+    /**
+     * Formats a single element (e.g. the one subtree that changed) to be spliced into a
+     * document at {@code baseIndent}: every line after the first starts with it.
+     *
+     * The element's ancestors are not known, so an {@code xml:space} or mixed-content
+     * context they'd impose is not applied; callers splice elements at their own position.
+     *
+     * @throws XMLStreamException if the input is not well-formed
+     */
+    public String formatElement(String xml, String baseIndent) throws XMLStreamException {
+        return new FormattingPass(xml, baseIndent, false).write(findMixedElements(xml));
+    }
+
+    private static XMLStreamReader open(String xml) throws XMLStreamException {
+        synchronized (INPUT_FACTORY) {
+            return INPUT_FACTORY.createXMLStreamReader(new StringReader(xml));
+        }
+    }
+
+    /**
+     * First pass: the document-order ordinals of elements whose whitespace must be kept: those
+     * that contain text, and those that may contain text and have a child with no whitespace
+     * before or after it.
+     */
+    private static BitSet findMixedElements(String xml) throws XMLStreamException {
+        BitSet mixed = new BitSet();
+        int[] open = new int[32];
+        // Per open element: whether it has child markup, whether any of it touched the previous
+        // tag, and whether whitespace has come since the last one
+        boolean[] children = new boolean[32];
+        boolean[] tight = new boolean[32];
+        boolean[] spaced = new boolean[32];
+        int depth = 0;
+        int ordinal = 0;
+        XMLStreamReader reader = open(xml);
+        try {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        childMarkup(children, tight, spaced, depth);
+                        if (depth == open.length) {
+                            open = Arrays.copyOf(open, depth * 2);
+                            children = Arrays.copyOf(children, depth * 2);
+                            tight = Arrays.copyOf(tight, depth * 2);
+                            spaced = Arrays.copyOf(spaced, depth * 2);
+                        }
+                        open[depth] = ordinal++;
+                        children[depth] = tight[depth] = spaced[depth] = false;
+                        depth++;
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        depth--;
+                        boolean touchesEndTag = children[depth] && !spaced[depth];
+                        if ((tight[depth] || touchesEndTag) && ContentModel.tei().allowsText(reader.getLocalName())) {
+                            mixed.set(open[depth]);
+                        }
+                        if (depth > 0) spaced[depth - 1] = false;
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                        if (depth > 0 && !reader.isWhiteSpace()) mixed.set(open[depth - 1]);
+                        if (depth > 0) spaced[depth - 1] = true;
+                    }
+                    case XMLStreamConstants.CDATA, XMLStreamConstants.ENTITY_REFERENCE -> {
+                        if (depth > 0) mixed.set(open[depth - 1]);
+                    }
+                    case XMLStreamConstants.COMMENT, XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                        childMarkup(children, tight, spaced, depth);
+                        if (depth > 0) spaced[depth - 1] = false;
+                    }
+                    default -> { }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return mixed;
+    }
+
+    // Child markup starts in the element open at depth - 1: indenting it adds space unless some was there
+    private static void childMarkup(boolean[] children, boolean[] tight, boolean[] spaced, int depth) {
+        if (depth == 0) return;
+        children[depth - 1] = true;
+        tight[depth - 1] |= !spaced[depth - 1];
+    }
+
+    /**
+     * Second pass: writes the formatted output.
+     */
+    private final class FormattingPass {
+        private final String xml;
+        private final String baseIndent;
+        private final boolean document;
+        private final StringBuilder out;
+
+        // Per open element: keep its content verbatim (mixed or xml:space="preserve"),
+        // whether xml:space="preserve" is in effect, and whether it has child markup
+        private boolean[] verbatim = new boolean[32];
+        private boolean[] preserve = new boolean[32];
+        private boolean[] hasChildren = new boolean[32];
+        private int depth = 0;
+        private int ordinal = 0;
+
+        // A start tag written without its closing '>', so an empty element can become <x/>
+        private boolean startTagOpen = false;
+
+        FormattingPass(String xml, String baseIndent, boolean document) {
+            this.xml = xml;
+            this.baseIndent = baseIndent;
+            this.document = document;
+            this.out = new StringBuilder(xml.length() + xml.length() / 8);
+        }
+
+        String write(BitSet mixed) throws XMLStreamException {
+            XMLStreamReader reader = open(xml);
+            try {
+                // The reader starts positioned on the document itself
+                if (document) writeDeclaration(reader);
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    switch (event) {
+                        case XMLStreamConstants.START_ELEMENT -> startElement(reader, mixed);
+                        case XMLStreamConstants.END_ELEMENT -> endElement(reader);
+                        case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                            if (depth > 0 && verbatim[depth - 1]) {
+                                closeStartTag();
+                                escapeText(reader.getText());
+                            }
+                            // Otherwise it's whitespace between elements, which indentation replaces
+                        }
+                        case XMLStreamConstants.CDATA -> {
+                            closeStartTag();
+                            out.append("<![CDATA[").append(reader.getText()).append("]]>");
+                        }
+                        case XMLStreamConstants.ENTITY_REFERENCE -> {
+                            closeStartTag();
+                            out.append('&').append(reader.getLocalName()).append(';');
+                        }
+                        case XMLStreamConstants.COMMENT -> markup("<!--" + reader.getText() + "-->");
+                        case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                            String data = reader.getPIData();
+                            markup("<?" + reader.getPITarget() + (data == null || data.isEmpty() ? "" : " " + data) + "?>");
+                        }
+                        case XMLStreamConstants.DTD -> markup(reader.getText());
+                        default -> { }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (document) out.append('\n');
+            return out.toString();
+        }
+
+        private void writeDeclaration(XMLStreamReader reader) {
+            String version = reader.getVersion() != null ? reader.getVersion() : "1.0";
+            String encoding = reader.getCharacterEncodingScheme() != null ? reader.getCharacterEncodingScheme() : "UTF-8";
+            out.append("<?xml version=\"").append(version).append("\" encoding=\"").append(encoding).append('"');
+            if (reader.standaloneSet()) out.append(" standalone=\"").append(reader.isStandalone() ? "yes" : "no").append('"');
+            out.append("?>");
+        }
+
+        private void startElement(XMLStreamReader reader, BitSet mixed) {
+            closeStartTag();
+            boolean parentVerbatim = depth > 0 && verbatim[depth - 1];
+            if (!parentVerbatim) newLine();
+            if (depth > 0) hasChildren[depth - 1] = true;
+
+            out.append('<');
+            appendName(reader.getPrefix(), reader.getLocalName());
+            for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                out.append(prefix == null || prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix).append("=\"");
+                escapeAttribute(reader.getNamespaceURI(i));
+                out.append('"');
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                out.append(' ');
+                appendName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+                out.append("=\"");
+                escapeAttribute(reader.getAttributeValue(i));
+                out.append('"');
+            }
+            startTagOpen = true;
+
+            String space = reader.getAttributeValue(XMLConstants.XML_NS_URI, "space");
+            boolean preserved = space != null ? space.equals("preserve") : depth > 0 && preserve[depth - 1];
+            boolean isMixed = mixed.get(ordinal++);
+            push(parentVerbatim || preserved || isMixed, preserved);
+        }
+
+        private void endElement(XMLStreamReader reader) {
+            depth--;
+            if (startTagOpen) {
+                out.append("/>");
+                startTagOpen = false;
+                return;
+            }
+            if (!verbatim[depth] && hasChildren[depth]) newLine();
+            out.append("</");
+            appendName(reader.getPrefix(), reader.getLocalName());
+            out.append('>');
+        }
+
+        /**
+         * A comment, PI or DOCTYPE: on its own line between elements, as-is inside text.
+         */
+        private void markup(String text) {
+            closeStartTag();
+            if (depth > 0 && verbatim[depth - 1]) {
+                out.append(text);
+                return;
+            }
+            newLine();
+            if (depth > 0) hasChildren[depth - 1] = true;
+            out.append(text);
+        }
+
+        private void push(boolean isVerbatim, boolean isPreserve) {
+            if (depth == verbatim.length) {
+                verbatim = Arrays.copyOf(verbatim, depth * 2);
+                preserve = Arrays.copyOf(preserve, depth * 2);
+                hasChildren = Arrays.copyOf(hasChildren, depth * 2);
+            }
+            verbatim[depth] = isVerbatim;
+            preserve[depth] = isPreserve;
+            hasChildren[depth] = false;
+            depth++;
+        }
+
+        private void closeStartTag() {
+            if (startTagOpen) {
+                out.append('>');
+                startTagOpen = false;
+            }
+        }
+
+        private void newLine() {
+            // Nothing goes before the first node
+            if (out.length() == 0) return;
+            out.append('\n').append(baseIndent);
+            for (int i = 0; i < depth; i++) out.append(indentUnit);
+        }
+
+        private void appendName(String prefix, String localName) {
+            if (prefix != null && !prefix.isEmpty()) out.append(prefix).append(':');
+            out.append(localName);
+        }
+
+        private void escapeText(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '&' -> out.append("&amp;");
+                    case '<' -> out.append("&lt;");
+                    case '>' -> out.append("&gt;");
+                    case '\r' -> out.append("&#13;");
+                    default -> out.append(c);
+                }
+            }
+        }
+
+        private void escapeAttribute(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '&' -> out.append("&amp;");
+                    case '<' -> out.append("&lt;");
+                    case '"' -> out.append("&quot;");
+                    // Literal whitespace would be normalized to spaces on the next parse
+                    case '\t' -> out.append("&#9;");
+                    case '\n' -> out.append("&#10;");
+                    case '\r' -> out.append("&#13;");
+                    default -> out.append(c);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.teieditor.model;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Undo and redo as the editor drives them, checked against what the version log rebuilds.
+ */
+class UndoHistoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void versionLogReplaysUndoAndRedoAcrossCheckpoints() throws IOException, InterruptedException {
+        PieceTable document = new PieceTable("<p>start</p>");
+        UndoHistory history = new UndoHistory(UndoHistory.DEFAULT_MEMORY_BUDGET);
+        VersionLog log = new VersionLog(dir.resolve("session.log"), document::snapshot);
+        history.reset(log);
+
+        // 1. Fill the log to one group short of a checkpoint, with edits at shifting offsets
+        for (int i = 0; i < VersionLog.CHECKPOINT_EVERY_GROUPS - 1; i++) {
+            edit(document, history, 3 + i % 5, i % 3 == 0 ? 1 : 0, "w" + i);
+            history.commit();
+        }
+
+        // 2. The undo is the group that triggers the checkpoint; the redos come after it
+        undo(document, history);
+        undo(document, history);
+        redo(document, history);
+        edit(document, history, 0, 3, "<div>");
+        history.commit();
+        undo(document, history);
+        String live = document.snapshot().toString();
+
+        history.reset(null);
+        assertTrue(log.awaitClosed(10, TimeUnit.SECONDS));
+        assertEquals(live, VersionLog.reconstruct(log.getFile(), Long.MAX_VALUE));
+    }
+
+    @Test
+    void undoReversesEachCommittedStep() {
+        PieceTable document = new PieceTable("abc");
+        UndoHistory history = new UndoHistory(UndoHistory.DEFAULT_MEMORY_BUDGET);
+        edit(document, history, 3, 0, "d");
+        edit(document, history, 4, 0, "e");
+        history.commit();
+        edit(document, history, 0, 1, "A");
+        history.commit();
+
+        undo(document, history);
+        assertEquals("abcde", document.snapshot().toString());
+        undo(document, history);
+        assertEquals("abc", document.snapshot().toString());
+        redo(document, history);
+        assertEquals("abcde", document.snapshot().toString());
+    }
+
+    // What the TextArea filter does: record the change, then make it
+    private static void edit(PieceTable document, UndoHistory history, int offset, int removeLength, String inserted) {
+        history.record(new TextDelta(offset, document.substring(offset, offset + removeLength), inserted));
+        document.replace(offset, offset + removeLength, inserted);
+    }
+
+    private static void undo(PieceTable document, UndoHistory history) {
+        UndoHistory.Group step = history.undo();
+        apply(document, step.inverse());
+        history.logApplied(step.inverse());
+    }
+
+    private static void redo(PieceTable document, UndoHistory history) {
+        UndoHistory.Group step = history.redo();
+        apply(document, step.deltas());
+        history.logApplied(step.deltas());
+    }
+
+    private static void apply(PieceTable document, List<TextDelta> deltas) {
+        for (TextDelta delta : deltas) {
+            document.replace(delta.offset(), delta.offset() + delta.removed().length(), delta.inserted());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.teieditor.service;
+
+import org.junit.jupiter.api.Test;
+
+import javax.xml.stream.XMLStreamException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Formatting may only add or change whitespace where the text can't tell.
+ */
+class XmlFormatterTest {
+
+    private final XmlFormatter formatter = new XmlFormatter();
+
+    @Test
+    void keepsTokensThatTouchTogether() throws XMLStreamException {
+        assertEquals("<p><w>foo</w><pc>.</pc></p>", formatter.formatElement("<p><w>foo</w><pc>.</pc></p>", ""));
+        assertEquals("<p><hi>a</hi></p>", formatter.formatElement("<p><hi>a</hi></p>", ""));
+        assertEquals("<hi><foreign>x</foreign><foreign>y</foreign></hi>",
+                formatter.formatElement("<hi><foreign>x</foreign><foreign>y</foreign></hi>", ""));
+    }
+
+    @Test
+    void keepsMixedContent() throws XMLStreamException {
+        String paragraph = "<p>See <hi rend=\"italic\">this</hi>  and\n   <name>that</name>.</p>";
+        assertEquals(paragraph, formatter.formatElement(paragraph, ""));
+    }
+
+    @Test
+    void indentsElementOnlyContent() throws XMLStreamException {
+        assertEquals("<body>\n  <div>\n    <p>a</p>\n  </div>\n</body>", formatter.formatElement("<body><div><p>a</p></div></body>", ""));
+        assertEquals("<p>\n  <hi>a</hi>\n  <hi>b</hi>\n</p>", formatter.formatElement("<p> <hi>a</hi> <hi>b</hi> </p>", ""));
+    }
+
+    @Test
+    void indentsAtTheBaseIndent() throws XMLStreamException {
+        assertEquals("<div>\n      <p>a</p>\n    </div>", formatter.formatElement("<div><p>a</p></div>", "    "));
+    }
+}